@@ -125,9 +125,19 @@ public class Aggregate extends Operator  {
 	    TransactionAbortedException {
 	    agIterator.open();
 	    super.open();
-	    while(agIterator.hasNext()){
-	        aggregator.mergeTupleIntoGroup(agIterator.next());
-	        //当还有未进入的成员时，进组进行聚合操作
+	    if(agIterator instanceof ColumnScan&&grField==-1&&aggregator instanceof IntegerAggregator){
+	        //列扫描直接按页交出int数组，不用逐个元组聚合
+	        ColumnScan columnScan = (ColumnScan) agIterator;
+	        int n;
+	        while((n = columnScan.nextBlock())>0){
+	            ((IntegerAggregator) aggregator).mergeColumn(columnScan.getColumn(aggreField),n);
+            }
+        }
+	    else{
+	        while(agIterator.hasNext()){
+	            aggregator.mergeTupleIntoGroup(agIterator.next());
+	            //当还有未进入的成员时，进组进行聚合操作
+            }
         }
 	    //全部进入后打开
         getAgIterator = aggregator.iterator();
@@ -0,0 +1,300 @@
+package simpledb;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * BTreeBulkLoader builds a BTreeFile bottom-up from the tuples of an
+ * unsorted table, for tables too large for
+ * {@link BTreeFileEncoder#convert(File, File, File, int, int, Type[], char, int)},
+ * which sorts all tuples in memory.
+ * <p>
+ * The tuples are sorted by an {@link ExternalSort} keeping at most runTuples
+ * of them in memory.  Since the number of tuples is known once the sort has
+ * read the table, the shape of the whole tree is fixed before the first
+ * tuple comes out, so the sorted tuples are written straight into leaf pages
+ * with their final sibling and parent pointers, one sequential write of the
+ * file: the root pointer page, all leaves, and then the internal pages level
+ * by level, with the root last.  Only the first key of each page is kept in
+ * memory to build the level above it.
+ * <p>
+ * The fill factor sets how full the pages are; the pages of a level share
+ * their tuples or children evenly, and none is less than half full, as
+ * BTreeFile requires.  A fill factor below 1 leaves room for later inserts
+ * without splits.
+ */
+public class BTreeBulkLoader {
+
+	/** Default fill factor; pages are packed like BTreeFileEncoder does. */
+	public static final double DEFAULT_FILL_FACTOR = 1.0;
+
+	/** Default number of tuples sorted in memory at a time. */
+	public static final int DEFAULT_RUN_TUPLES = 1 << 20;
+
+	private final TupleDesc td;
+	private final int keyField;
+	private final double fillFactor;
+	private final int runTuples;
+
+	/**
+	 * @param td         the schema of the tuples
+	 * @param keyField   the field the tree is keyed on
+	 * @param fillFactor how full to fill the pages, between 0.5 and 1
+	 * @param runTuples  the number of tuples sorted in memory at a time
+	 */
+	public BTreeBulkLoader(TupleDesc td, int keyField, double fillFactor, int runTuples) {
+		if (fillFactor < 0.5 || fillFactor > 1) {
+			throw new IllegalArgumentException("fill factor must be between 0.5 and 1");
+		}
+		if (runTuples < 1) {
+			throw new IllegalArgumentException("runTuples must be positive");
+		}
+		this.td = td;
+		this.keyField = keyField;
+		this.fillFactor = fillFactor;
+		this.runTuples = runTuples;
+	}
+
+	/**
+	 * A loader with the default fill factor and run size.
+	 */
+	public BTreeBulkLoader(TupleDesc td, int keyField) {
+		this(td, keyField, DEFAULT_FILL_FACTOR, DEFAULT_RUN_TUPLES);
+	}
+
+	/** The tuples of a DbFile as an OpIterator, counting the tuples read. */
+	private static class SourceScan extends Operator {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient DbFileIterator it;
+		private final TupleDesc td;
+		private long read;
+
+		SourceScan(DbFileIterator it, TupleDesc td) {
+			this.it = it;
+			this.td = td;
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			it.open();
+			read = 0;
+			super.open();
+		}
+
+		protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+			if (!it.hasNext()) {
+				return null;
+			}
+			read++;
+			return it.next();
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			it.rewind();
+			read = 0;
+		}
+
+		public void close() {
+			super.close();
+			it.close();
+		}
+
+		public TupleDesc getTupleDesc() {
+			return td;
+		}
+
+		@Override
+		public OpIterator[] getChildren() {
+			return new OpIterator[0];
+		}
+
+		@Override
+		public void setChildren(OpIterator[] children) {
+		}
+	}
+
+	/**
+	 * Build a B+ tree file bFile from the tuples of source, replacing bFile
+	 * if it exists, and add it to the catalog as tableName.
+	 *
+	 * @return the new B+ tree
+	 */
+	public BTreeFile load(DbFile source, File bFile, String tableName)
+			throws IOException, DbException, TransactionAbortedException {
+		TransactionId tid = new TransactionId();
+		SourceScan scan = new SourceScan(source.iterator(tid), td);
+		ExternalSort sorted = new ExternalSort(scan, keyField, runTuples);
+		try {
+			try {
+				sorted.open();
+			} finally {
+				//排序时已经把源表读完了
+				Database.getBufferPool().transactionComplete(tid);
+			}
+			// the pages find their schema in the catalog; the new file object
+			// has not read the file yet, so it sees the pages written below
+			BTreeFile bf = new BTreeFile(bFile, keyField, td);
+			Database.getCatalog().addTable(bf, tableName);
+			write(sorted, scan.read, bFile);
+			return bf;
+		} finally {
+			sorted.close();
+		}
+	}
+
+	/**
+	 * The number of pages to share items among, filling them to the fill
+	 * factor but keeping every page between min and max items, as BTreeFile
+	 * keeps them, when there is more than one.
+	 */
+	private long pages(long items, int max, int min) {
+		int per = Math.max(1, (int) Math.ceil(max * fillFactor));
+		long pages = (items + per - 1) / per;
+		pages = Math.min(pages, items / Math.max(1, min));
+		return Math.max(1, Math.max(pages, (items + max - 1) / max));
+	}
+
+	/**
+	 * The number of items in each of pages pages when items are shared
+	 * evenly: the first items % pages pages get one more.
+	 */
+	private static int share(long items, long pages, long page) {
+		return (int) (items / pages + (page < items % pages ? 1 : 0));
+	}
+
+	/** The page, among pages pages sharing items evenly, holding item i. */
+	private static long pageOf(long items, long pages, long i) {
+		long small = items / pages;
+		long big = items % pages;
+		if (i < big * (small + 1)) {
+			return i / (small + 1);
+		}
+		return big + (i - big * (small + 1)) / small;
+	}
+
+	/** Write the tree of total sorted tuples to bFile. */
+	private void write(OpIterator sorted, long total, File bFile)
+			throws IOException, TransactionAbortedException {
+		int pageSize = BufferPool.getPageSize();
+		int tableid = bFile.getAbsoluteFile().hashCode();
+		Type[] types = new Type[td.numFields()];
+		for (int i = 0; i < types.length; i++) {
+			types[i] = td.getFieldType(i);
+		}
+		Type keyType = types[keyField];
+
+		// the page capacities, as BTreeLeafPage and BTreeInternalPage compute them
+		int leafPointerBytes = 3 * BTreeLeafPage.INDEX_SIZE;
+		int maxTuples = (pageSize * 8 - leafPointerBytes * 8) / (td.getSize() * 8 + 1);
+		int nentryBytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
+		int internalPointerBytes = 2 * BTreeLeafPage.INDEX_SIZE + 1;
+		int maxEntries = (pageSize * 8 - internalPointerBytes * 8 - 1) / (nentryBytes * 8 + 1);
+
+		//先算出每一层的页数，页号就都定下来了：叶子从1开始，往上一层接一层，根在最后
+		ArrayList<Long> levelPages = new ArrayList<Long>();
+		long leaves = pages(total, maxTuples, maxTuples / 2);
+		levelPages.add(leaves);
+		for (long n = leaves; n > 1; ) {
+			n = pages(n, maxEntries + 1, maxEntries / 2 + 1);
+			levelPages.add(n);
+		}
+		long[] levelStart = new long[levelPages.size()];
+		long next = 1;
+		for (int l = 0; l < levelPages.size(); l++) {
+			levelStart[l] = next;
+			next += levelPages.get(l);
+		}
+		long root = next - 1;
+		if (root > Integer.MAX_VALUE) {
+			throw new IOException("too many pages for a B+ tree file");
+		}
+
+		PageChecksums.sideFile(bFile).delete();
+		FileExtent.usedPagesFile(bFile).delete();
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(bFile), 1 << 20));
+			 DataOutputStream crc = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(PageChecksums.sideFile(bFile))))) {
+			if (total == 0) {
+				// an empty file; BTreeFile creates the root on the first insert
+				return;
+			}
+			BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+			int rootCategory = levelPages.size() > 1 ? BTreePageId.INTERNAL : BTreePageId.LEAF;
+			writePage(out, crc, BTreeFileEncoder.convertToRootPtrPage((int) root, rootCategory, 0));
+
+			// the leaves, straight from the sort
+			ArrayList<Field> firstKeys = new ArrayList<Field>();
+			try {
+				for (long p = 0; p < leaves; p++) {
+					int n = share(total, leaves, p);
+					ArrayList<Tuple> tuples = new ArrayList<Tuple>(n);
+					for (int i = 0; i < n; i++) {
+						tuples.add(sorted.next());
+					}
+					firstKeys.add(tuples.get(0).getField(keyField));
+					BTreePageId pid = new BTreePageId(tableid, (int) (levelStart[0] + p), BTreePageId.LEAF);
+					BTreeLeafPage page = new BTreeLeafPage(pid,
+							BTreeFileEncoder.convertToLeafPage(tuples, pageSize, types.length, types, keyField), keyField);
+					page.setParentId(parentId(levelPages, levelStart, 0, p, rootPtrId));
+					if (p > 0) {
+						page.setLeftSiblingId(new BTreePageId(tableid, pid.getPageNumber() - 1, BTreePageId.LEAF));
+					}
+					if (p < leaves - 1) {
+						page.setRightSiblingId(new BTreePageId(tableid, pid.getPageNumber() + 1, BTreePageId.LEAF));
+					}
+					writePage(out, crc, page.getPageData());
+				}
+
+				// the internal pages, a level at a time from the first keys of the level below
+				for (int l = 1; l < levelPages.size(); l++) {
+					long children = levelPages.get(l - 1);
+					long pages = levelPages.get(l);
+					int childCategory = l == 1 ? BTreePageId.LEAF : BTreePageId.INTERNAL;
+					ArrayList<Field> pageKeys = new ArrayList<Field>();
+					long child = 0;
+					for (long p = 0; p < pages; p++) {
+						int n = share(children, pages, p);
+						ArrayList<BTreeEntry> entries = new ArrayList<BTreeEntry>(n - 1);
+						for (int i = 1; i < n; i++) {
+							long left = child + i - 1;
+							entries.add(new BTreeEntry(firstKeys.get((int) (left + 1)),
+									new BTreePageId(tableid, (int) (levelStart[l - 1] + left), childCategory),
+									new BTreePageId(tableid, (int) (levelStart[l - 1] + left + 1), childCategory)));
+						}
+						pageKeys.add(firstKeys.get((int) child));
+						child += n;
+						BTreePageId pid = new BTreePageId(tableid, (int) (levelStart[l] + p), BTreePageId.INTERNAL);
+						BTreeInternalPage page = new BTreeInternalPage(pid,
+								BTreeFileEncoder.convertToInternalPage(entries, pageSize, keyType, childCategory), keyField);
+						page.setParentId(parentId(levelPages, levelStart, l, p, rootPtrId));
+						writePage(out, crc, page.getPageData());
+					}
+					firstKeys = pageKeys;
+				}
+			} catch (DbException e) {
+				throw new IOException(e);
+			}
+		}
+	}
+
+	/** The parent of page p of level l. */
+	private static BTreePageId parentId(ArrayList<Long> levelPages, long[] levelStart, int l, long p,
+			BTreePageId rootPtrId) {
+		if (l == levelPages.size() - 1) {
+			return rootPtrId;
+		}
+		long parent = levelStart[l + 1] + pageOf(levelPages.get(l), levelPages.get(l + 1), p);
+		return new BTreePageId(rootPtrId.getTableId(), (int) parent, BTreePageId.INTERNAL);
+	}
+
+	private static void writePage(DataOutputStream out, DataOutputStream crc, byte[] data) throws IOException {
+		out.write(data);
+		crc.writeInt(PageChecksums.checksum(data));
+	}
+}
@@ -18,12 +18,19 @@ import simpledb.Predicate.Op;
  * @see simpledb.BTreeRootPtrPage#BTreeRootPtrPage
  * @author Becca Taft
  */
-public class BTreeFile implements DbFile {
+public class BTreeFile implements DbFile, PageScrubber.Scrubbable {
 
 	private final File f;
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
+	private volatile MappedFile mapped = null;
+	private volatile CompressedPageStore compressed = null;
+	private volatile PageChecksums checksums = null;
+	private volatile int numPages = -1; // kept here once this file writes pages, -1 before
+	private volatile long fileLength; // including the zeroed pages of the last extent
+	private volatile FileExtent.UsedPages usedPages; // the count recorded in the side file
+	private volatile boolean usedPagesLoaded = false;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -78,66 +85,245 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
+		boolean rootPtr = id.pgcateg() == BTreePageId.ROOT_PTR;
+		int pgNo = rootPtr ? 0 : id.getPageNumber();
+		byte pageBuf[] = new byte[rootPtr ? BTreeRootPtrPage.getPageSize() : BufferPool.getPageSize()];
+		try {
+			readPageData(pgNo, pageBuf);
+			verifyPageData(pgNo, pageBuf);
+			Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+			return rootPtr ? new BTreeRootPtrPage(id, pageBuf) : createPage(id, pageBuf);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Construct a non root pointer page from its bytes
+	 */
+	private Page createPage(BTreePageId id, byte[] pageBuf) throws IOException {
+		if(id.pgcateg() == BTreePageId.INTERNAL) {
+			return new BTreeInternalPage(id, pageBuf, keyField);
+		}
+		else if(id.pgcateg() == BTreePageId.LEAF) {
+			return new BTreeLeafPage(id, pageBuf, keyField);
+		}
+		else { // id.pgcateg() == BTreePageId.HEADER
+			return new BTreeHeaderPage(id, pageBuf);
+		}
+	}
 
+	/**
+	 * Read the bytes of page pgNo, the root pointer page being page 0,
+	 * straight from the file: out of the compressed page store or the memory
+	 * mapping if they are on, or else from the file itself.
+	 */
+	private void readPageData(int pgNo, byte[] pageBuf) throws IOException {
+		CompressedPageStore c = compressed;
+		if (c != null) {
+			if (!c.read(pgNo, pageBuf)) {
+				throw new IllegalArgumentException("Read past end of table");
+			}
+			return;
+		}
+		long offset = pgNo == 0 ? 0 : BTreeRootPtrPage.getPageSize() + (long) (pgNo-1) * BufferPool.getPageSize();
+		MappedFile m = mapped;
+		if (m != null) {
+			if (!m.read(offset, pageBuf)) {
+				throw new IllegalArgumentException("Read past end of table");
+			}
+			return;
+		}
+		BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f));
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
-			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-				if (retval == -1) {
-					throw new IllegalArgumentException("Read past end of table");
-				}
-				if (retval < BTreeRootPtrPage.getPageSize()) {
-					throw new IllegalArgumentException("Unable to read "
-							+ BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-				}
-				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-				BTreeRootPtrPage p = new BTreeRootPtrPage(id, pageBuf);
-				return p;
+			if (bis.skip(offset) != offset) {
+				throw new IllegalArgumentException(
+						"Unable to seek to correct place in BTreeFile");
 			}
-			else {
-				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.getPageNumber()-1) * BufferPool.getPageSize()) !=
-						BTreeRootPtrPage.getPageSize() + (id.getPageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-				if (retval == -1) {
-					throw new IllegalArgumentException("Read past end of table");
-				}
-				if (retval < BufferPool.getPageSize()) {
-					throw new IllegalArgumentException("Unable to read "
-							+ BufferPool.getPageSize() + " bytes from BTreeFile");
-				}
-				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-				if(id.pgcateg() == BTreePageId.INTERNAL) {
-					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
-					return p;
-				}
-				else if(id.pgcateg() == BTreePageId.LEAF) {
-					BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
-					return p;
-				}
-				else { // id.pgcateg() == BTreePageId.HEADER
-					BTreeHeaderPage p = new BTreeHeaderPage(id, pageBuf);
-					return p;
-				}
+			int retval = bis.read(pageBuf, 0, pageBuf.length);
+			if (retval == -1) {
+				throw new IllegalArgumentException("Read past end of table");
+			}
+			if (retval < pageBuf.length) {
+				throw new IllegalArgumentException("Unable to read "
+						+ pageBuf.length + " bytes from BTreeFile");
 			}
-		} catch (IOException e) {
-			throw new RuntimeException(e);
 		} finally {
 			// Close the file on success or error
 			try {
-				if (bis != null)
-					bis.close();
+				bis.close();
 			} catch (IOException ioe) {
 				// Ignore failures closing the file
 			}
 		}
 	}
 
+	/**
+	 * Check the bytes of page pgNo against its checksum.  On a mismatch the
+	 * page is read again under the checksum lock, which writers hold.
+	 *
+	 * @throws ChecksumException if the page does not match its checksum
+	 */
+	private void verifyPageData(int pgNo, byte[] pageBuf) throws IOException {
+		PageChecksums cs = getChecksums();
+		if (cs.matches(pgNo, pageBuf)) {
+			return;
+		}
+		synchronized (cs) {
+			readPageData(pgNo, pageBuf);
+			if (!cs.recheck(pgNo, pageBuf)) {
+				throw new ChecksumException(f, pgNo);
+			}
+		}
+	}
+
+	/**
+	 * Read page pgNo, the root pointer page being page 0, from disk,
+	 * bypassing the buffer pool, and check it against its checksum.
+	 *
+	 * @return false if the file has no page pgNo
+	 * @throws ChecksumException if the page does not match its checksum
+	 */
+	public boolean verifyPage(int pgNo) throws IOException {
+		if (pgNo > numPages() || isEmpty()) {
+			return false;
+		}
+		byte pageBuf[] = new byte[pgNo == 0 ? BTreeRootPtrPage.getPageSize() : BufferPool.getPageSize()];
+		readPageData(pgNo, pageBuf);
+		verifyPageData(pgNo, pageBuf);
+		return true;
+	}
+
+	/**
+	 * Returns the page checksums of this file, loading them from their side
+	 * file on first use.
+	 */
+	PageChecksums getChecksums() throws IOException {
+		PageChecksums cs = checksums;
+		if (cs == null) {
+			synchronized (this) {
+				cs = checksums;
+				if (cs == null) {
+					cs = new PageChecksums(PageChecksums.sideFile(f));
+					cs.load();
+					checksums = cs;
+				}
+			}
+		}
+		return cs;
+	}
+
+	/**
+	 * Turn the memory-mapped read path on or off.  When on, readPage copies
+	 * pages out of a mapping of the file instead of reading them.
+	 *
+	 * @see MappedFile
+	 */
+	public synchronized void setMemoryMapped(boolean on) throws IOException {
+		if (on && compressed != null) {
+			throw new IllegalStateException("a compressed table cannot be memory mapped");
+		}
+		if (on && mapped == null) {
+			mapped = new MappedFile(f);
+		}
+		else if (!on && mapped != null) {
+			mapped.close();
+			mapped = null;
+		}
+	}
+
+	/** @return true if pages are read through a memory mapping */
+	public boolean isMemoryMapped() {
+		return mapped != null;
+	}
+
+	/**
+	 * Turn the compressed page store on or off, converting the file on disk
+	 * if it is not in that format yet.  Meant to be called when the table is
+	 * added to the catalog, while none of its pages are in the buffer pool.
+	 *
+	 * @see CompressedPageStore
+	 */
+	public synchronized void setCompressed(boolean on) throws IOException {
+		if (on == (compressed != null)) {
+			return;
+		}
+		if (on && mapped != null) {
+			throw new IllegalStateException("a memory mapped table cannot be compressed");
+		}
+		if (on) {
+			if (!CompressedPageStore.isCompressed(f) && f.exists()) {
+				// drop the zeroed pages of the last extent first
+				long used = BTreeRootPtrPage.getPageSize() + (long) numPages() * BufferPool.getPageSize();
+				if (f.length() > used) {
+					RandomAccessFile rf = new RandomAccessFile(f, "rw");
+					rf.setLength(used);
+					rf.close();
+				}
+				CompressedPageStore.compressFile(f, BTreeRootPtrPage.getPageSize(), BufferPool.getPageSize());
+			}
+			compressed = new CompressedPageStore(f);
+		}
+		else {
+			compressed.close();
+			compressed = null;
+			CompressedPageStore.decompressFile(f);
+		}
+		numPages = -1;
+		// the compressed store counts its own pages, and the file changed
+		FileExtent.usedPagesFile(f).delete();
+		usedPagesLoaded = false;
+	}
+
+	/** @return true if the pages of this file are stored compressed */
+	public boolean isCompressed() {
+		return compressed != null;
+	}
+
+	/**
+	 * Write the bytes of page pgNo, the root pointer page being page 0,
+	 * straight to the file.
+	 */
+	private void writePageData(int pgNo, byte[] data) throws IOException {
+		PageChecksums cs = getChecksums();
+		// keep the page count from now on; it locks this, which must not be
+		// taken under the checksum lock
+		ownPages();
+		// write the page and its checksum together; readers that see a
+		// mismatch take the same lock to read the page again
+		synchronized (cs) {
+			CompressedPageStore c = compressed;
+			if (c != null) {
+				c.write(pgNo, data);
+			}
+			else {
+				long offset = pgNo == 0 ? 0 : BTreeRootPtrPage.getPageSize() + (long) (pgNo-1) * BufferPool.getPageSize();
+				RandomAccessFile rf = new RandomAccessFile(f, "rw");
+				try {
+					if (offset + data.length > fileLength || pgNo > numPages) {
+						if (offset + data.length > fileLength) {
+							// grow the file by a whole extent, not a page at a time
+							fileLength = FileExtent.grow(rf.getChannel(), fileLength, offset + data.length,
+									BTreeRootPtrPage.getPageSize(), BufferPool.getPageSize());
+						}
+						// an empty page may be all zeros, so the zeroed pages of the
+						// extent cannot be told from pages in use when the file is
+						// opened again; record the count before the page is written
+						saveUsedPages(fileLength, Math.max(numPages, pgNo));
+					}
+					rf.seek(offset);
+					rf.write(data);
+				} finally {
+					rf.close();
+				}
+				if (pgNo > numPages) {
+					numPages = pgNo;
+				}
+			}
+			cs.update(pgNo, data);
+		}
+	}
+
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
 	 * be called from the BufferPool when pages are flushed to disk
@@ -148,24 +334,90 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 		
 		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
-		}
-		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().getPageNumber()-1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
-		}
+		writePageData(id.pgcateg() == BTreePageId.ROOT_PTR ? 0 : id.getPageNumber(), data);
 	}
 	
 	/**
-	 * Returns the number of pages in this BTreeFile.
+	 * Returns the number of pages in this BTreeFile.  Once pages have been
+	 * written through this BTreeFile the count is kept in memory and the
+	 * file may be longer than the pages in use, since it grows by whole
+	 * extents of zeroed pages; from then on this BTreeFile must be the only
+	 * writer of the file.  Before that the count is the one recorded by the
+	 * last BTreeFile that added a page, see {@link FileExtent#saveUsedPages},
+	 * while the file still has the length it had then, and follows the file
+	 * length otherwise.
+	 *
+	 * @see FileExtent
 	 */
 	public int numPages() {
+		CompressedPageStore c = compressed;
+		if (c != null)
+			return Math.max(0, c.numPages() - 1);
+		int n = numPages;
+		if (n >= 0)
+			return n;
+		return pagesOf(f.length());
+	}
+
+	/**
+	 * @return the number of pages of the file when it is length bytes long:
+	 *         the recorded count if it was recorded at that length
+	 */
+	private int pagesOf(long length) {
+		FileExtent.UsedPages u = getUsedPages();
+		if (u != null && u.length == length)
+			return u.pages;
 		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		return (int) Math.max(0, (length - BTreeRootPtrPage.getPageSize()) / BufferPool.getPageSize());
+	}
+
+	/** @return the page count recorded for the file, loading it on first use */
+	private FileExtent.UsedPages getUsedPages() {
+		// no lock: numPages is called under the checksum lock too, and two
+		// threads loading the record both get the same one
+		if (!usedPagesLoaded) {
+			try {
+				usedPages = FileExtent.loadUsedPages(f);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			usedPagesLoaded = true;
+		}
+		return usedPages;
+	}
+
+	/** Record the page count in the side file, and in memory for numPages. */
+	private void saveUsedPages(long length, int pages) throws IOException {
+		FileExtent.saveUsedPages(f, length, pages);
+		usedPages = new FileExtent.UsedPages(length, pages);
+	}
+
+	/**
+	 * Start keeping the number of pages in memory.  Unlike heap pages, an
+	 * empty B+ tree page may be all zeros and still be in use, so the zeroed
+	 * pages of the last extent cannot be told from pages in use by reading
+	 * them: the count is the recorded one, and for a file that was not
+	 * written by a BTreeFile follows its length.
+	 */
+	private synchronized int ownPages() {
+		if (numPages < 0) {
+			long length = f.length();
+			fileLength = length;
+			numPages = pagesOf(length);
+		}
+		return numPages;
+	}
+
+	/**
+	 * @return true if not even the root pointer page has been written
+	 */
+	private boolean isEmpty() {
+		CompressedPageStore c = compressed;
+		if (c != null)
+			return c.numPages() == 0;
+		if (numPages >= 0)
+			return fileLength == 0;
+		return f.length() == 0;
 	}
 
 	/**
@@ -1207,15 +1459,10 @@ public class BTreeFile implements DbFile {
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
 		synchronized(this) {
-			if(f.length() == 0) {
+			if(isEmpty()) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
-				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				writePageData(0, BTreeRootPtrPage.createEmptyPageData());
+				writePageData(1, BTreeLeafPage.createEmptyPageData());
 			}
 		}
 
@@ -1271,11 +1518,8 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				writePageData(numPages() + 1, emptyData);
 				emptyPageNo = numPages();
 			}
 		}
@@ -1306,10 +1550,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		writePageData(emptyPageNo, BTreePage.createEmptyPageData());
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1445,6 +1686,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	ReadAhead readAhead = null;
 
 	TransactionId tid;
 	BTreeFile f;
@@ -1468,7 +1710,11 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		BTreePageId root = rootPtr.getRootId();
 		curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
 		it = curp.iterator();
-
+		// leaves are read ahead by following the right sibling pointers
+		readAhead = Database.getBufferPool().newReadAhead(null,
+				p -> ((BTreeLeafPage) p).getRightSiblingId());
+		if (readAhead != null)
+			readAhead.accessed(curp);
 	}
 
 	/**
@@ -1490,6 +1736,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 			else {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
+				if (readAhead != null)
+					readAhead.accessed(curp);
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1516,6 +1764,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		super.close();
 		it = null;
 		curp = null;
+		readAhead = null;
 	}
 }
 
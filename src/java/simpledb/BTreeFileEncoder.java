@@ -181,7 +181,8 @@ public class BTreeFileEncoder {
 	}
 
 	/** 
-	 * Faster method to encode the B+ tree file
+	 * Faster method to encode the B+ tree file.  All tuples are sorted in
+	 * memory; see {@link BTreeBulkLoader} for inputs larger than memory.
 	 * 
 	 * @param inFile - the file containing the raw data
 	 * @param hFile - the data file for the HeapFile to be used as an intermediate conversion step
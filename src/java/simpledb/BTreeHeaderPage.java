@@ -22,7 +22,6 @@ public class BTreeHeaderPage implements Page {
 
 	private int nextPage; // next header page or 0
 	private int prevPage; // previous header page or 0
-	private int usedTimes = 0;
 	byte[] oldData;
 	private final Byte oldDataLock=new Byte((byte)0);
 
@@ -113,16 +112,6 @@ public class BTreeHeaderPage implements Page {
 		}
 	}
 
-	@Override
-	public int getUsedTimes() {
-		return usedTimes;
-	}
-
-	@Override
-	public void setUsedTimes(int usedTimes) {
-		this.usedTimes = usedTimes;
-	}
-
 	/**
 	 * @return the PageId associated with this page.
 	 */
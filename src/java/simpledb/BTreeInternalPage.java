@@ -220,16 +220,6 @@ public class BTreeInternalPage extends BTreePage {
 		return child;
 	}
 
-	@Override
-	public int getUsedTimes() {
-		return 0;
-	}
-
-	@Override
-	public void setUsedTimes(int usedTimes) {
-
-	}
-
 	/**
 	 * Generates a byte array representing the contents of this page.
 	 * Used to serialize this page to disk.
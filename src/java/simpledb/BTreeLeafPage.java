@@ -187,16 +187,6 @@ public class BTreeLeafPage extends BTreePage {
 		return t;
 	}
 
-	@Override
-	public int getUsedTimes() {
-		return 0;
-	}
-
-	@Override
-	public void setUsedTimes(int usedTimes) {
-
-	}
-
 	/**
 	 * Generates a byte array representing the contents of this page.
 	 * Used to serialize this page to disk.
@@ -16,6 +16,7 @@ public class BTreeScan implements OpIterator {
 	private IndexPredicate ipred = null;
 	private transient DbFileIterator it;
 	private String tablename;
+	private int tableid;
 	private String alias;
 
 	/**
@@ -52,6 +53,13 @@ public class BTreeScan implements OpIterator {
 		return this.tablename;
 	}
 
+	/**
+	 * @return the id of the table this operator scans
+	 */
+	public int getTableId() {
+		return this.tableid;
+	}
+
 	/**
 	 * @return Return the alias of the table this operator scans. 
 	 * */
@@ -75,6 +83,7 @@ public class BTreeScan implements OpIterator {
 	public void reset(int tableid, String tableAlias) throws TransactionAbortedException, DbException {
 		this.isOpen=false;
 		this.alias = tableAlias;
+		this.tableid = tableid;
 		this.tablename = Database.getCatalog().getTableName(tableid);
 		if(ipred == null) {
 			this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
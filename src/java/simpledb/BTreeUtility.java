@@ -450,6 +450,8 @@ public class BTreeUtility {
 		FileOutputStream fos = new FileOutputStream(f);
 		fos.write(new byte[0]);
 		fos.close();
+		PageChecksums.sideFile(f).delete();
+		FileExtent.usedPagesFile(f).delete();
 
 		BTreeFile bf = openBTreeFile(cols, f, keyField);
 
@@ -465,6 +467,8 @@ public class BTreeUtility {
 	public static BTreeFile createEmptyBTreeFile(String path, int cols, int keyField, int pages)
 			throws IOException {
 		File f = new File(path);
+		PageChecksums.sideFile(f).delete();
+		FileExtent.usedPagesFile(f).delete();
 		BufferedOutputStream bw = new BufferedOutputStream(
 				new FileOutputStream(f, true));
 		byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
@@ -0,0 +1,133 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BatchAdapter connects the vectorized operators with the tuple-at-a-time
+ * ones: {@link #toBatches} packs the tuples of an OpIterator into batches,
+ * and {@link #toTuples} hands out the selected rows of a BatchOpIterator as
+ * tuples, so e.g. a Join can read from a BatchFilter, or a BatchAggregate
+ * from a Join.
+ */
+public class BatchAdapter {
+
+    private BatchAdapter() {
+    }
+
+    /**
+     * @return a BatchOpIterator over the tuples of child, in batches of
+     *         capacity rows
+     */
+    public static BatchOpIterator toBatches(OpIterator child, int capacity) {
+        return new TupleBatches(child, capacity);
+    }
+
+    /**
+     * @return a BatchOpIterator over the tuples of child, in batches of the
+     *         default size
+     */
+    public static BatchOpIterator toBatches(OpIterator child) {
+        return toBatches(child, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @return an OpIterator over the selected rows of the batches of child
+     */
+    public static OpIterator toTuples(BatchOpIterator child) {
+        return new BatchTuples(child);
+    }
+
+    private static class TupleBatches implements BatchOpIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final OpIterator child;
+        private final int capacity;
+        private transient TupleBatch batch;
+
+        TupleBatches(OpIterator child, int capacity) {
+            this.child = child;
+            this.capacity = capacity;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            batch = new TupleBatch(child.getTupleDesc(), capacity);
+        }
+
+        public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+            batch.clear();
+            while (!batch.isFull() && child.hasNext()) {
+                batch.addTuple(child.next());
+            }
+            return batch.size() > 0 ? batch : null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void close() {
+            child.close();
+            batch = null;
+        }
+    }
+
+    private static class BatchTuples extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final BatchOpIterator child;
+        private transient TupleBatch batch;
+        private int pos;
+
+        BatchTuples(BatchOpIterator child) {
+            this.child = child;
+        }
+
+        public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+            child.open();
+            batch = null;
+            super.open();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (batch == null || pos == batch.numSelected()) {
+                batch = child.nextBatch();
+                pos = 0;
+                if (batch == null) {
+                    return null;
+                }
+            }
+            return batch.getTuple(batch.getSelection()[pos++]);
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+            batch = null;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+            batch = null;
+        }
+
+        @Override
+        public OpIterator[] getChildren() {
+            return new OpIterator[0];
+        }
+
+        @Override
+        public void setChildren(OpIterator[] children) {
+        }
+    }
+}
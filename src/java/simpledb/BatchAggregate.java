@@ -0,0 +1,279 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * BatchAggregate is the vectorized {@link Aggregate}: it computes one
+ * aggregate over a column, optionally grouped by another, and returns the
+ * results in batches once its child is exhausted.  The output is the same
+ * as Aggregate's: a single aggregate value, or (group value, aggregate
+ * value) per group in no particular order.
+ * <p>
+ * Without grouping, each batch is folded into running totals in one loop
+ * over the primitive column.  With grouping, the group of every selected
+ * row is looked up first, int groups in an open addressing table of
+ * primitive keys, and then the totals of the groups are updated in a
+ * second loop; no Field or Tuple objects are made per row.
+ */
+public class BatchAggregate implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchOpIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op op;
+    private final TupleDesc td;
+
+    private transient int groups;
+    private transient long[] counts;
+    private transient long[] sums;
+    private transient int[] mins;
+    private transient int[] maxs;
+    private transient int[] intKeys;//int分组的组值，按组号存
+    private transient String[] stringKeys;//字符串分组的组值
+    private transient int[] table;//开放寻址表，存组号+1，0为空
+    private transient HashMap<String, Integer> stringGroups;
+    private transient int[] rowGroups;//当前批每个选中行的组号
+    private transient TupleBatch out;
+    private int emitted;
+
+    /**
+     * @param child  the operator feeding the rows
+     * @param afield the column to aggregate
+     * @param gfield the column to group by, or {@link Aggregator#NO_GROUPING}
+     * @param op     the aggregate; only COUNT over a string column
+     * @throws IllegalArgumentException if op is not supported on afield
+     */
+    public BatchAggregate(BatchOpIterator child, int afield, int gfield, Aggregator.Op op) {
+        TupleDesc childTd = child.getTupleDesc();
+        if (op == Aggregator.Op.SUM_COUNT || op == Aggregator.Op.SC_AVG) {
+            throw new IllegalArgumentException("unsupported aggregate " + op);
+        }
+        if (childTd.getFieldType(afield) != Type.INT_TYPE && op != Aggregator.Op.COUNT) {
+            throw new IllegalArgumentException("only COUNT is supported on strings");
+        }
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.op = op;
+        if (gfield == Aggregator.NO_GROUPING) {
+            td = new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { childTd.getFieldName(afield) });
+        } else {
+            td = new TupleDesc(new Type[] { childTd.getFieldType(gfield), Type.INT_TYPE },
+                    new String[] { childTd.getFieldName(gfield), childTd.getFieldName(afield) });
+        }
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        groups = 0;
+        counts = new long[16];
+        sums = new long[16];
+        mins = new int[16];
+        maxs = new int[16];
+        if (gfield == Aggregator.NO_GROUPING) {
+            //不分组时只有一组，没有输入也输出一行
+            newGroup();
+        } else if (td.getFieldType(0) == Type.INT_TYPE) {
+            intKeys = new int[16];
+            table = new int[64];
+        } else {
+            stringKeys = new String[16];
+            stringGroups = new HashMap<String, Integer>();
+        }
+        TupleBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            merge(batch);
+        }
+        out = new TupleBatch(td);
+        emitted = 0;
+    }
+
+    private void merge(TupleBatch batch) {
+        int[] sel = batch.getSelection();
+        int n = batch.numSelected();
+        int[] values = batch.getInts(afield);
+        if (gfield == Aggregator.NO_GROUPING) {
+            if (values == null) {
+                counts[0] += n;
+                return;
+            }
+            long sum = 0;
+            int min = mins[0];
+            int max = maxs[0];
+            for (int i = 0; i < n; i++) {
+                int v = values[sel[i]];
+                sum += v;
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            counts[0] += n;
+            sums[0] += sum;
+            mins[0] = min;
+            maxs[0] = max;
+            return;
+        }
+        if (rowGroups == null || rowGroups.length < n) {
+            rowGroups = new int[batch.capacity()];
+        }
+        int[] g = rowGroups;
+        if (intKeys != null) {
+            int[] keys = batch.getInts(gfield);
+            for (int i = 0; i < n; i++) {
+                g[i] = intGroup(keys[sel[i]]);
+            }
+        } else {
+            String[] keys = batch.getStrings(gfield);
+            for (int i = 0; i < n; i++) {
+                g[i] = stringGroup(keys[sel[i]]);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            counts[g[i]]++;
+        }
+        if (values != null) {
+            for (int i = 0; i < n; i++) {
+                int v = values[sel[i]];
+                int k = g[i];
+                sums[k] += v;
+                mins[k] = Math.min(mins[k], v);
+                maxs[k] = Math.max(maxs[k], v);
+            }
+        }
+    }
+
+    /** @return the number of a new group with empty totals */
+    private int newGroup() {
+        if (groups == counts.length) {
+            int size = groups * 2;
+            counts = Arrays.copyOf(counts, size);
+            sums = Arrays.copyOf(sums, size);
+            mins = Arrays.copyOf(mins, size);
+            maxs = Arrays.copyOf(maxs, size);
+            if (intKeys != null) {
+                intKeys = Arrays.copyOf(intKeys, size);
+            }
+            if (stringKeys != null) {
+                stringKeys = Arrays.copyOf(stringKeys, size);
+            }
+        }
+        mins[groups] = Integer.MAX_VALUE;
+        maxs[groups] = Integer.MIN_VALUE;
+        return groups++;
+    }
+
+    private int intGroup(int key) {
+        int mask = table.length - 1;
+        for (int h = hash(key) & mask; ; h = (h + 1) & mask) {
+            int e = table[h];
+            if (e == 0) {
+                int g = newGroup();
+                intKeys[g] = key;
+                table[h] = g + 1;
+                if (groups * 2 > table.length) {
+                    rehash();
+                }
+                return g;
+            }
+            if (intKeys[e - 1] == key) {
+                return e - 1;
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void rehash() {
+        int[] grown = new int[table.length * 2];
+        int mask = grown.length - 1;
+        for (int g = 0; g < groups; g++) {
+            int h = hash(intKeys[g]) & mask;
+            while (grown[h] != 0) {
+                h = (h + 1) & mask;
+            }
+            grown[h] = g + 1;
+        }
+        table = grown;
+    }
+
+    private int stringGroup(String key) {
+        Integer g = stringGroups.get(key);
+        if (g == null) {
+            g = newGroup();
+            stringKeys[g] = key;
+            stringGroups.put(key, g);
+        }
+        return g;
+    }
+
+    /** The aggregate value of group g, computed like IntegerAggregator. */
+    private int value(int g) {
+        switch (op) {
+            case MIN:
+                return counts[g] == 0 ? 0 : mins[g];
+            case MAX:
+                return counts[g] == 0 ? 0 : maxs[g];
+            case SUM:
+                return (int) sums[g];
+            case AVG:
+                return counts[g] == 0 ? 0 : (int) (sums[g] / counts[g]);
+            case COUNT:
+                return (int) counts[g];
+            default:
+                throw new IllegalStateException("unsupported aggregate " + op);
+        }
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (out == null) {
+            throw new IllegalStateException("BatchAggregate not yet open");
+        }
+        if (emitted == groups) {
+            return null;
+        }
+        int n = Math.min(groups - emitted, out.capacity());
+        if (gfield == Aggregator.NO_GROUPING) {
+            out.getInts(0)[0] = value(0);
+        } else {
+            int[] results = out.getInts(1);
+            if (intKeys != null) {
+                System.arraycopy(intKeys, emitted, out.getInts(0), 0, n);
+            } else {
+                System.arraycopy(stringKeys, emitted, out.getStrings(0), 0, n);
+            }
+            for (int i = 0; i < n; i++) {
+                results[i] = value(emitted + i);
+            }
+        }
+        emitted += n;
+        out.setSize(n);
+        return out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        emitted = 0;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        child.close();
+        out = null;
+        counts = null;
+        sums = null;
+        mins = null;
+        maxs = null;
+        intKeys = null;
+        stringKeys = null;
+        table = null;
+        stringGroups = null;
+        rowGroups = null;
+    }
+}
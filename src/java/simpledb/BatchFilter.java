@@ -0,0 +1,129 @@
+package simpledb;
+
+/**
+ * BatchFilter is the vectorized {@link Filter}: it narrows the selection
+ * vector of each batch of its child to the rows satisfying a predicate,
+ * without copying any rows.  A comparison of an int column with an int
+ * runs as one loop over the primitive column per batch.
+ */
+public class BatchFilter implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate p;
+    private final BatchOpIterator child;
+
+    /**
+     * @param p     the predicate to filter tuples with
+     * @param child the child operator
+     */
+    public BatchFilter(Predicate p, BatchOpIterator child) {
+        this.p = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return p;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            int field = p.getField();
+            int n;
+            if (batch.getInts(field) != null && p.getOperand() instanceof IntField) {
+                n = select(batch.getInts(field), p.getOp(), ((IntField) p.getOperand()).getValue(),
+                        batch.getSelection(), batch.numSelected());
+            } else {
+                n = selectFields(batch, field);
+            }
+            batch.setNumSelected(n);
+            if (n > 0) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Keep the selected rows whose value satisfies "value op operand", in
+     * place at the front of sel.  The switch is outside the loops so that
+     * each loop is a plain compare over the column.
+     *
+     * @return the number of rows kept
+     */
+    static int select(int[] values, Predicate.Op op, int operand, int[] sel, int n) {
+        int k = 0;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                for (int i = 0; i < n; i++) {
+                    int r = sel[i];
+                    if (values[r] == operand) sel[k++] = r;
+                }
+                break;
+            case NOT_EQUALS:
+                for (int i = 0; i < n; i++) {
+                    int r = sel[i];
+                    if (values[r] != operand) sel[k++] = r;
+                }
+                break;
+            case GREATER_THAN:
+                for (int i = 0; i < n; i++) {
+                    int r = sel[i];
+                    if (values[r] > operand) sel[k++] = r;
+                }
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int i = 0; i < n; i++) {
+                    int r = sel[i];
+                    if (values[r] >= operand) sel[k++] = r;
+                }
+                break;
+            case LESS_THAN:
+                for (int i = 0; i < n; i++) {
+                    int r = sel[i];
+                    if (values[r] < operand) sel[k++] = r;
+                }
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int i = 0; i < n; i++) {
+                    int r = sel[i];
+                    if (values[r] <= operand) sel[k++] = r;
+                }
+                break;
+            default:
+                break;
+        }
+        return k;
+    }
+
+    /** Keep the selected rows the predicate accepts, one Field at a time. */
+    private int selectFields(TupleBatch batch, int field) {
+        int[] sel = batch.getSelection();
+        int k = 0;
+        for (int i = 0; i < batch.numSelected(); i++) {
+            int r = sel[i];
+            if (batch.getField(r, field).compare(p.getOp(), p.getOperand())) {
+                sel[k++] = r;
+            }
+        }
+        return k;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,48 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchOpIterator is the iterator interface of the vectorized operators:
+ * like {@link OpIterator}, but each call hands out a {@link TupleBatch} of
+ * rows instead of a single Tuple, so the per-row cost of a call and of the
+ * hasNext/next handshake is paid once per batch, and operators work on
+ * primitive arrays in tight loops.
+ * <p>
+ * {@link BatchAdapter} turns an OpIterator into a BatchOpIterator and back,
+ * so vectorized and tuple-at-a-time operators compose.
+ */
+public interface BatchOpIterator extends Serializable {
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch of rows, with at least one row selected.  The
+     * batch belongs to this iterator and may be reused by the next call, so
+     * callers must be done with it before calling again.
+     *
+     * @return the next batch, or null if there are no more rows
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException when rewind is unsupported.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the TupleDesc of the rows of this iterator.
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator and its children.
+     */
+    public void close();
+}
@@ -0,0 +1,56 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+/**
+ * BatchProject is the vectorized {@link Project}: each output batch is a
+ * view of the projected columns of its child's batch, so no values are
+ * copied.
+ */
+public class BatchProject implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchOpIterator child;
+    private final int[] fields;
+    private final TupleDesc td;
+
+    /**
+     * @param fieldList the ids of the fields of child's TupleDesc to project out
+     * @param child     the child operator
+     */
+    public BatchProject(ArrayList<Integer> fieldList, BatchOpIterator child) {
+        this.child = child;
+        this.fields = new int[fieldList.size()];
+        TupleDesc childTd = child.getTupleDesc();
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = fieldList.get(i);
+            types[i] = childTd.getFieldType(fields[i]);
+            names[i] = childTd.getFieldName(fields[i]);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch batch = child.nextBatch();
+        return batch == null ? null : batch.project(td, fields);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        child.close();
+    }
+}
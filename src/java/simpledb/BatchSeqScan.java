@@ -0,0 +1,158 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * BatchSeqScan is the vectorized sequential scan: it reads the pages of a
+ * heap table through the buffer pool like {@link SeqScan} and fills batches
+ * with their tuples column by column.  On a {@link HeapPage} the rows are
+ * copied from the page bytes, so int values need no Field objects; on a
+ * {@link PaxHeapPage} with only int columns a page's columns are copied out
+ * whole.  Other page formats are read through their tuples.
+ */
+public class BatchSeqScan implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final TupleDesc td;
+    private final int capacity;
+
+    private transient HeapFile file;
+    private transient BufferAccessStrategy strategy;
+    private transient TupleBatch batch;
+    private transient Iterator<Tuple> tuples;//当前页还没取完的元组
+    private transient HeapPage heapPage;//按字节读的当前页
+    private int slot;//heapPage下一个要读的槽
+    private transient int[][] paxColumns;//PAX页整列取出的值
+    private int paxRows;
+    private int paxPos;
+    private int pgNo;
+
+    /**
+     * Creates a batch scan over the specified table.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableId
+     *            the table to scan; it must be stored in a HeapFile.
+     * @param tableAlias
+     *            the alias of this table, used for the field names
+     *            "alias.fieldName" like SeqScan's.
+     * @param capacity
+     *            the number of rows of a batch.
+     */
+    public BatchSeqScan(TransactionId tid, int tableId, String tableAlias, int capacity) {
+        this.tid = tid;
+        this.tableId = tableId;
+        this.capacity = capacity;
+        TupleDesc tableTd = Database.getCatalog().getTupleDesc(tableId);
+        Type[] types = new Type[tableTd.numFields()];
+        String[] names = new String[tableTd.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = tableTd.getFieldType(i);
+            names[i] = tableAlias + "." + tableTd.getFieldName(i);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    public BatchSeqScan(TransactionId tid, int tableId) {
+        this(tid, tableId, Database.getCatalog().getTableName(tableId), TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(dbFile instanceof HeapFile)) {
+            throw new DbException("batch scans need a heap file");
+        }
+        file = (HeapFile) dbFile;
+        strategy = BufferAccessStrategy.forBulkRead(file.numPages(), Database.getBufferPool().getNumPages());
+        batch = new TupleBatch(td, capacity);
+        rewind();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null) {
+            throw new IllegalStateException("BatchSeqScan not yet open");
+        }
+        batch.clear();
+        while (!batch.isFull()) {
+            if (paxPos < paxRows) {
+                copyPaxRows();
+            } else if (heapPage != null && slot < heapPage.numSlots) {
+                slot = heapPage.fillBatch(slot, batch);
+            } else if (tuples != null && tuples.hasNext()) {
+                batch.addTuple(tuples.next());
+            } else if (pgNo < file.numPages()) {
+                readPage(pgNo++);
+            } else {
+                break;
+            }
+        }
+        return batch.size() > 0 ? batch : null;
+    }
+
+    private void readPage(int pageNo) throws DbException, TransactionAbortedException {
+        HeapPageId pid = new HeapPageId(tableId, pageNo);
+        TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY, strategy);
+        tuples = null;
+        heapPage = null;
+        if (page instanceof HeapPage) {
+            //直接从页的字节里按槽位图和列偏移取值，不经过元组
+            heapPage = (HeapPage) page;
+            slot = 0;
+        } else if (page instanceof PaxHeapPage && allInts()) {
+            //PAX页按列连续存放，整列拷出来
+            PaxHeapPage pax = (PaxHeapPage) page;
+            if (paxColumns == null || paxColumns[0].length < pax.getNumSlots()) {
+                paxColumns = new int[td.numFields()][pax.getNumSlots()];
+            }
+            for (int i = 0; i < paxColumns.length; i++) {
+                paxRows = pax.getIntColumn(i, paxColumns[i]);
+            }
+            paxPos = 0;
+        } else {
+            tuples = page.iterator();
+        }
+    }
+
+    private boolean allInts() {
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) != Type.INT_TYPE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void copyPaxRows() {
+        int n = Math.min(paxRows - paxPos, batch.capacity() - batch.size());
+        int at = batch.size();
+        for (int i = 0; i < paxColumns.length; i++) {
+            System.arraycopy(paxColumns[i], paxPos, batch.getInts(i), at, n);
+        }
+        paxPos += n;
+        batch.setSize(at + n);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        pgNo = 0;
+        tuples = null;
+        heapPage = null;
+        paxRows = 0;
+        paxPos = 0;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        file = null;
+        strategy = null;
+        batch = null;
+        tuples = null;
+        heapPage = null;
+    }
+}
@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BlockNestedLoopJoin joins two children on any {@link JoinPredicate}, like
+ * {@link Join}, but reads the outer (left) child a block of tuples at a
+ * time and scans the inner (right) child once per block rather than once
+ * per outer tuple, so the inner child is rewound about
+ * card(outer) / blockTuples times.  Non-equi joins, which cannot use
+ * {@link HashEquiJoin}, run through here.
+ * <p>
+ * Within a block the output follows the inner child: every inner tuple is
+ * matched against the whole block before the next inner tuple is read.
+ */
+public class BlockNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The default memory budget for the outer block, in pages. */
+    public static final int DEFAULT_BLOCK_PAGES = 16;
+
+    private JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int blockTuples;
+    transient private ArrayList<Tuple> block;
+    transient private Tuple t2 = null;
+    private int pos;
+    private int blocksRead;
+
+    /**
+     * @param p           the predicate to join the children on
+     * @param child1      iterator for the left(outer) relation to join
+     * @param child2      iterator for the right(inner) relation to join
+     * @param blockTuples the number of outer tuples kept in memory per scan
+     *                    of the inner relation
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int blockTuples) {
+        if (blockTuples < 1) {
+            throw new IllegalArgumentException("a block holds at least one tuple");
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.blockTuples = blockTuples;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * Joins with a block of {@link #DEFAULT_BLOCK_PAGES} pages of outer
+     * tuples.
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, blockTuples(child1.getTupleDesc(), DEFAULT_BLOCK_PAGES));
+    }
+
+    /**
+     * @return the number of tuples of td that fit in blockPages pages,
+     *         at least 1
+     */
+    public static int blockTuples(TupleDesc td, int blockPages) {
+        return Math.max(1, (int) ((long) blockPages * BufferPool.getPageSize() / td.getSize()));
+    }
+
+    public int getBlockTuples() {
+        return blockTuples;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        block = new ArrayList<Tuple>();
+        t2 = null;
+        blocksRead = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        block = null;
+        t2 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        block.clear();
+        t2 = null;
+        blocksRead = 0;
+    }
+
+    /**
+     * Read the next block of outer tuples, and rewind the inner child if
+     * it was scanned for the previous block.
+     *
+     * @return false if the outer child is exhausted
+     */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        while (block.size() < blockTuples && child1.hasNext()) {
+            block.add(child1.next());
+        }
+        if (block.isEmpty()) {
+            return false;
+        }
+        if (blocksRead++ > 0) {
+            child2.rewind();
+        }
+        return true;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (t2 != null) {
+                while (pos < block.size()) {
+                    Tuple t1 = block.get(pos++);
+                    if (pred.filter(t1, t2)) {
+                        return Join.merge(comboTD, t1, t2);
+                    }
+                }
+                t2 = null;
+            }
+            if (!block.isEmpty() && child2.hasNext()) {
+                t2 = child2.next();
+                pos = 0;
+            } else if (!loadBlock()) {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
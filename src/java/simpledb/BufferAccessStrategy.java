@@ -0,0 +1,87 @@
+package simpledb;
+
+/**
+ * BufferAccessStrategy is a small private ring of buffer pool frames for bulk
+ * reads such as a sequential scan of a big table.
+ * <p>
+ * Pages a scan has to read from disk are remembered in the ring.  Once the
+ * ring is full, the next page read recycles the frame of the oldest ring page
+ * instead of evicting a page through the shared replacement policy, so the
+ * scan never occupies more than ringSize frames of the pool and the hot pages
+ * of other queries stay cached.  Pages that were already in the pool are
+ * used as usual and never become ring members.
+ * <p>
+ * A strategy belongs to one scan; it is only shared with the read-ahead of
+ * that scan, which fills it from the I/O thread.
+ *
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, BufferAccessStrategy)
+ */
+public class BufferAccessStrategy {
+
+    /** Number of frames a bulk read may use, 128KB with the default page size. */
+    public static final int DEFAULT_RING_SIZE = 32;
+
+    private final PageId[] ring;
+    private int next = 0;
+
+    public BufferAccessStrategy(int ringSize) {
+        if (ringSize < 1) {
+            throw new IllegalArgumentException("ring size must be positive");
+        }
+        ring = new PageId[ringSize];
+    }
+
+    /**
+     * Returns a ring for scanning a table of the given size, or null if the
+     * whole table fits in the pool, in which case caching all of it is what
+     * we want.  The ring never takes more than an eighth of the pool.
+     *
+     * @param tablePages number of pages the scan will read
+     * @param poolPages  capacity of the buffer pool
+     */
+    public static BufferAccessStrategy forBulkRead(int tablePages, int poolPages) {
+        int ringSize = Math.min(DEFAULT_RING_SIZE, poolPages / 8);
+        if (tablePages <= poolPages || ringSize < 2) {
+            return null;
+        }
+        return new BufferAccessStrategy(ringSize);
+    }
+
+    /** @return the number of frames in the ring */
+    public int size() {
+        return ring.length;
+    }
+
+    /**
+     * Reserve the next slot of the ring for a page about to be read.  The
+     * slot belongs to the caller until it is filled by {@link #add}, so the
+     * scan and its read-ahead never recycle or fill the same slot.
+     *
+     * @return the reserved slot
+     */
+    synchronized int reserve() {
+        int slot = next;
+        next = (next + 1) % ring.length;
+        return slot;
+    }
+
+    /**
+     * Take the page out of a reserved slot.
+     *
+     * @return the ring page whose frame should be reused before the page of
+     *         the slot is read, or null while the ring still has room
+     */
+    synchronized PageId victim(int slot) {
+        PageId pid = ring[slot];
+        ring[slot] = null;
+        return pid;
+    }
+
+    /**
+     * Record that pid was read into the frame of a slot returned by
+     * {@link #reserve}.
+     */
+    synchronized void add(int slot, PageId pid) {
+        ring[slot] = pid;
+    }
+}
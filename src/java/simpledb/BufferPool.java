@@ -1,11 +1,14 @@
 package simpledb;
 
-import javafx.util.Pair;
-
 import java.io.*;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.IntFunction;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -20,33 +23,37 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class BufferPool {
     /** Bytes per page, including header. */
-    public class PageLock{
-
-        public Map<PageId,List<TransactionId>> sharedMap = new ConcurrentHashMap<>();
-        //线程安全,用于记录共享锁，本来想string区分，但是查找是否有独占锁效率太低
-        public Map<PageId,TransactionId> excluMap = new ConcurrentHashMap<>();
-        //记录独占锁
-        public Map<TransactionId,PageId> hasExclu = new ConcurrentHashMap<>();
-        //为释放锁时效率和方便,记录哪些交易对页有独占锁
-        public Map<TransactionId,PageId> hasShared = new ConcurrentHashMap<>();
-        //记录哪些交易对页有共享锁
-        public Map<PageId,Object> isLocked = new ConcurrentHashMap<>();
-        //记录哪些页面被锁上
-    }
     public class TupleLock{
 
         public Map<RecordId,List<TransactionId>> sharedMap = new ConcurrentHashMap<>();
         //线程安全,用于记录共享锁，本来想string区分，但是查找是否有独占锁效率太低
         public Map<RecordId,TransactionId> excluMap = new ConcurrentHashMap<>();
         //记录独占锁
-        public Map<TransactionId,RecordId> hasExclu = new ConcurrentHashMap<>();
-        //为释放锁时效率和方便,记录哪些交易对页有独占锁
-        public Map<TransactionId,RecordId> hasShared = new ConcurrentHashMap<>();
-        //记录哪些交易对页有共享锁
+        public Map<TransactionId,Set<RecordId>> hasExclu = new ConcurrentHashMap<>();
+        //为释放锁时效率和方便,记录每个交易持有独占锁的元组
+        public Map<TransactionId,Set<RecordId>> hasShared = new ConcurrentHashMap<>();
+        //记录每个交易持有共享锁的元组
         public Map<PageId,Object> isLocked = new ConcurrentHashMap<>();
         //记录哪些页面被锁上
     }
 
+    /**
+     * One partition of the page table.  Pages are spread over the stripes by
+     * the hash of their PageId; each stripe is guarded by its own monitor and
+     * has its own replacement state, so cache hits on different stripes do
+     * not contend.
+     */
+    private static class PageStripe {
+        final Map<PageId,Page> pages = new HashMap<>();
+        //正在从磁盘读的页，读完前别的线程在这里等
+        final Map<PageId,CompletableFuture<Page>> loading = new HashMap<>();
+        final ReplacementPolicy replacer;
+
+        PageStripe(ReplacementPolicy replacer) {
+            this.replacer = replacer;
+        }
+    }
+
     private static final int DEFAULT_PAGE_SIZE = 4096;
 
     private static int pageSize = DEFAULT_PAGE_SIZE;
@@ -62,31 +69,88 @@ public class BufferPool {
 
     public Map<TransactionId,Long> beginExcludedInsert= new ConcurrentHashMap<>();
     public Map<TransactionId,Long> beginExcludedDelete = new ConcurrentHashMap<>();
-    boolean isTimed = true;//标志用时间策略或者依赖图策略
-    boolean abortSelf = true;//标志抛弃自己还是抛弃别人
-    private Queue<Page> usedQueue = new PriorityQueue<>(DEFAULT_PAGES, new Comparator<Page>() {
-
-        @Override
-        public int compare(Page o1, Page o2) {
-            return o1.getUsedTimes()-o2.getUsedTimes();
-        }
-    });//存放使用次数和pageId的对应
-    /**
-     * Creates a BufferPool that caches up to numPages pages.
-     *
-     * @param numPages maximum number of pages in this buffer pool.
-     */
-    Map<PageId,Page> pageMap = new HashMap<>();//存放缓冲池的所有pages
+    boolean isTimed = false;//标志用时间策略或者依赖图策略
+    boolean abortSelf = false;//标志抛弃自己还是抛弃别人（依赖图下为环上最年轻的事务）
+    private final PageStripe[] stripes;//分段的页表，每段有自己的锁和替换策略
+    private final AtomicInteger cachedPages = new AtomicInteger(0);//所有段加起来缓存了多少页（含预留）
+    private final AtomicInteger evictHand = new AtomicInteger(0);//下次从哪一段开始找换出页
+    private volatile int readAheadPages = 0;//顺序扫描最多预读多少页，0表示不预读
     //Map<PageId,Pair<TransactionId,String>> trackLocks = new HashMap<>();//记录page的锁
     //放弃这种，因为pageid不可相同，如果采用identitymap则无法使用contains
     //List<pageLock> pageLocks = new LinkedList<>();
     //放弃这种，因为判断起来麻烦
-    PageLock pageLock = new PageLock();//标记页面锁的状态
+    LockManager lockManager = new LockManager(timeLimit,isTimed,abortSelf);//页级锁表
     TupleLock tupleLock = new TupleLock();//标记元组锁的状态
     boolean isPage = true;//1 page 0 tuple
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     */
     public BufferPool(int numPages) {
+        this(numPages, defaultStripes(numPages), ClockReplacer::new);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages in a single
+     * stripe and evicts them according to the given policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param replacer the page replacement policy, e.g. {@link ClockReplacer}
+     *                 or {@link LRUKReplacer}
+     */
+    public BufferPool(int numPages, ReplacementPolicy replacer) {
+        this(numPages, 1, n -> replacer);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages in a page table
+     * partitioned into numStripes stripes.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param numStripes number of independently latched page table stripes
+     * @param replacerFactory creates the replacement policy of each stripe,
+     *                        given the expected number of pages in the stripe
+     */
+    public BufferPool(int numPages, int numStripes, IntFunction<ReplacementPolicy> replacerFactory) {
         numP = numPages;
+        stripes = new PageStripe[numStripes];
+        for(int i=0;i<numStripes;i++){
+            stripes[i] = new PageStripe(replacerFactory.apply(numPages/numStripes+1));
+        }
+    }
 
+    /** One stripe per 8 pages, at most 16, so small pools keep one latch. */
+    private static int defaultStripes(int numPages) {
+        return Math.max(1, Math.min(16, numPages/8));
+    }
+
+    private PageStripe stripeOf(PageId pid) {
+        return stripes[(pid.hashCode()&0x7fffffff)%stripes.length];
+    }
+
+    /** Return the cached version of the page, or null if it is not in the buffer pool */
+    Page getCachedPage(PageId pid) {
+        PageStripe stripe = stripeOf(pid);
+        synchronized (stripe){
+            return stripe.pages.get(pid);
+        }
+    }
+
+    /** Return a snapshot of all pages currently in the buffer pool */
+    List<Page> getCachedPages() {
+        List<Page> result = new ArrayList<>();
+        for(PageStripe stripe:stripes){
+            synchronized (stripe){
+                result.addAll(stripe.pages.values());
+            }
+        }
+        return result;
+    }
+
+    /** Return the maximum number of pages this buffer pool caches */
+    public int getNumPages() {
+        return numP;
     }
 
     public static int getPageSize() {
@@ -102,15 +166,6 @@ public class BufferPool {
     public static void resetPageSize() {
     	BufferPool.pageSize = DEFAULT_PAGE_SIZE;
     }
-    private Object beLocked(PageId pageId){
-        if(pageLock.isLocked.containsKey(pageId)){
-            return pageLock.isLocked.get(pageId);
-        }
-        else{
-            pageLock.isLocked.put(pageId,new Object());
-            return pageLock.isLocked.get(pageId);
-        }
-    }
     public void getTuple(TransactionId tid, RecordId rid, Permissions perm) throws TransactionAbortedException, DbException {
         if (!isPage) {
             if (perm == Permissions.READ_WRITE) {
@@ -232,6 +287,9 @@ public class BufferPool {
                     }
                 }
             }
+            //记录到该事务的锁集合中，提交时不用扫描所有元组锁
+            Map<TransactionId,Set<RecordId>> held = perm == Permissions.READ_WRITE ? tupleLock.hasExclu : tupleLock.hasShared;
+            held.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(rid);
         }
     }
     /**
@@ -252,231 +310,202 @@ public class BufferPool {
 
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException{
+        return getPage(tid,pid,perm,null);
+    }
+
+    /**
+     * Retrieve the specified page like {@link #getPage(TransactionId, PageId, Permissions)},
+     * but read it through the given bulk-read ring if it is not cached yet.
+     *
+     * @param strategy the ring of the calling scan, or null to use the shared pool
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferAccessStrategy strategy)
+            throws TransactionAbortedException, DbException{
         Page page;
 
         if(isPage){
-            if(perm.equals(Permissions.READ_ONLY)){
-                //只需要共享锁
-                boolean flag = true;
-                while(flag){
-                    //一直循环直至进入同步代码块完成上锁，注意循环在外面，否则就是抢到资源的不停循环，而其他的进不来
-                    if(pageLock!=null){
-                        synchronized (pageLock){
-                            //参数在过程中不可被改变
-                            if(!pageLock.excluMap.containsKey(pid)||pageLock.excluMap.get(pid).equals(tid)){
-                                //没有独占锁，或本身独占
-                                if(pageLock.sharedMap.containsKey(pid)){
-                                    //该页上已有共享锁
-                                    List<TransactionId> list = pageLock.sharedMap.get(pid);
-                                    if(!list.contains(tid)){
-                                        //列表中没有该tid
-                                        list.add(tid);
-                                        flag= false;
-                                    }
-                                    else{
-                                        flag= false;
-                                    }
-                                }
-                                else{
-                                    List<TransactionId> list = new LinkedList<>();
-                                    list.add(tid);
-                                    pageLock.sharedMap.put(pid,list);
-                                    flag = false;
-                                }
-                            }
-                        }
-
-                    }
-                    if(pageLock!=null&&pageLock.sharedMap.containsKey(pid)) {
-                        if (!pageLock.sharedMap.get(pid).contains(tid)) {
-                            if (!beginTimeShared.containsKey(tid)) {
-                                beginTimeShared.put(tid, System.currentTimeMillis());
-                            } else {
-                                if ((System.currentTimeMillis() - beginTimeShared.get(tid)) > timeLimit) {
-                                    if(abortSelf){
-                                        throw new TransactionAbortedException();
-                                    }
-                                    else{
-                                        //找到现在碍事的那个
-                                        try{
-                                            if(pageLock.excluMap.containsKey(pid)){
-                                                transactionComplete(pageLock.excluMap.get(pid),false);
-                                            }
-                                            pageLock.sharedMap.get(pid).add(tid);
-                                            break;
-                                        }
-                                        catch (Exception e){
-                                            e.printStackTrace();
-                                        }
-                                    }
-                                }
-                                else {
-                                    try{
-                                        Thread.sleep(100);
-                                    }
-                                    catch (InterruptedException e){
-                                        e.printStackTrace();
-                                    }
-
-                                }
-                            }
-                        }
-                    }
-
-//                else{
-//                    beginTimeShared.remove(tid);
-//                }
-
-                }
+            //在锁表上排队，被释放时唤醒，不再轮询
+            lockManager.acquire(tid,pid,perm);
+        }
 
+        PageStripe stripe = stripeOf(pid);
+        synchronized (stripe){
+            page = stripe.pages.get(pid);
+            if(page!=null){
+                //命中时只锁这一段，只更新这一段替换策略里的状态，O(1)
+                stripe.replacer.recordAccess(pid);
+                return page;
             }
-            else{
-                //需要独占锁
-                boolean flag = true;
-                boolean flag1 = true;
-                while(flag){
-                    synchronized (pageLock.sharedMap){
-                        if(pageLock.sharedMap.containsKey(pid)){
-                            List<TransactionId> list = pageLock.sharedMap.get(pid);
-                            if(list.contains(tid)){
-                                //把共享锁的移走
-                                list.remove(tid);
-                            }
-                            if(list.size()!=0){
-                                //只有共享锁被清除，才可以继续独占锁
-                                flag1=false;
-                            }
-                        }
-                    }
-                    if(flag1){
-                        //共享锁全部清除或者没有共享锁才可尝试加独占锁
-                        synchronized (pageLock.excluMap){
-                            if(pageLock.excluMap.containsKey(pid)){
-                                {
-                                    if(pageLock.excluMap.get(pid).equals(tid)){
-                                        //已是独占锁
-                                        flag1=false;
-                                        break;
-                                    }
-                                }
-                            }
-                            else{
-                                pageLock.excluMap.put(pid,tid);//当没有占用时加入
-                                flag1=false;
-                                break;
-                            }
-                        }
-                    }
-
+        }
 
-//                if(!holdsLock(tid,pid)){
-//                    if(!beginTimeExcluded.containsKey(tid)){
-//                        beginTimeExcluded.put(tid,System.currentTimeMillis());
-//                    }
-//                    else{
-//                        if((System.currentTimeMillis()-beginTimeExcluded.get(tid))>timeLimit){
-//                            throw new TransactionAbortedException();
-//                        }
-//                    }
-//
-//                }
-//                else{
-//                    beginTimeExcluded.remove(tid);
-//                }
-                    //检查死锁
-                    if(pageLock!=null) {
-                        if (!pageLock.excluMap.containsKey(pid)||!pageLock.excluMap.get(pid).equals(tid)) {
-                            if (!beginTimeExcluded.containsKey(tid)) {
-                                beginTimeExcluded.put(tid, System.currentTimeMillis());
-                            } else {
-                                if ((System.currentTimeMillis() - beginTimeExcluded.get(tid)) > timeLimit) {
-                                    if(abortSelf){
-                                        throw new TransactionAbortedException();//抛弃自己
-                                    }
-                                    else{
-                                        //找到现在碍事的那个
-                                        try{
-                                            if(pageLock.excluMap.containsKey(pid)){
-                                                transactionComplete(pageLock.excluMap.get(pid),false);
-                                            }
-                                            if(pageLock.sharedMap.containsKey(pid)){
-                                                //因为共享锁碍事
-                                                List<TransactionId> lists = pageLock.sharedMap.get(pid);
-                                                for(TransactionId t:lists){
-                                                    if(!t.equals(tid)){
-                                                        //不是这个事务，是别人
-                                                        transactionComplete(t,false);
-                                                    }
-                                                }
-                                            }
-                                            pageLock.excluMap.put(pid,tid);
-                                            break;
-                                        }
-                                        catch (Exception e){
-                                            e.printStackTrace();
-                                        }
-                                    }
+        //未命中：先在不持有段锁的情况下腾出一帧，换出时才会去锁别的段
+        return loadPage(pid,strategy);
+    }
 
-                                }
-                            }
-                        }
-                    }
-                }
+    /**
+     * Read a page that was not cached into the buffer pool, through the
+     * given ring if not null.  Must not be called with a stripe monitor held.
+     * <p>
+     * The read itself runs outside the stripe monitor: the page is marked as
+     * loading in its stripe, so that other threads wanting it wait for this
+     * read while the pages of the stripe stay available.
+     */
+    private Page loadPage(PageId pid, BufferAccessStrategy strategy) throws DbException {
+        PageStripe stripe = stripeOf(pid);
+        CompletableFuture<Page> loading;
+        synchronized (stripe){
+            Page page = stripe.pages.get(pid);
+            if(page!=null){
+                //别的线程已经读进来了
+                stripe.replacer.recordAccess(pid);
+                return page;
+            }
+            loading = stripe.loading.get(pid);
+            if(loading==null){
+                stripe.loading.put(pid,new CompletableFuture<>());
             }
-
+        }
+        if(loading!=null){
+            //别的线程正在读这一页，等它读完
+            return awaitLoad(stripe,pid,loading);
         }
 
-        synchronized (pageMap){
-            if(pageMap.containsKey(pid)){
-                Page heapPage = pageMap.get(pid);
-                //用多态！！！
-                heapPage.setUsedTimes(heapPage.getUsedTimes()+1);
-                synchronized (usedQueue){
-                    for(Page p:usedQueue){
-                        if(p.getId().equals(pid)){
-                            //找到后更新
-                            p.setUsedTimes(p.getUsedTimes()+1);
-                            break;
-                        }
-                    }
-                }
-
-                page =  pageMap.get(pid);
+        //确定要由这个线程读了，才占环里的位置、腾帧；预读线程不会拿到同一个位置
+        int slot = -1;
+        Page page;
+        try{
+            if(strategy!=null){
+                slot = strategy.reserve();
+                //先复用环里最老的那一帧
+                recycle(strategy.victim(slot));
+            }
+            reserveFrame();
+        }
+        catch (DbException | RuntimeException e){
+            synchronized (stripe){
+                loading = stripe.loading.remove(pid);
+            }
+            loading.completeExceptionally(e);
+            throw e;
+        }
+        try{
+            //这个地方用多态实现
+            //从数据库中获得DBfile
+            page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        }
+        catch (RuntimeException e){
+            synchronized (stripe){
+                loading = stripe.loading.remove(pid);
+            }
+            cachedPages.decrementAndGet();
+            loading.completeExceptionally(e);
+            throw e;
+        }
+        synchronized (stripe){
+            loading = stripe.loading.remove(pid);
+            Page cached = stripe.pages.get(pid);
+            if(cached!=null){
+                //读的时候insertTuple已经放进来一个版本，用池里的；
+                //腾出的帧还回池里，环里这个位置空着，下次读时再占
+                cachedPages.decrementAndGet();
+                page = cached;
             }
             else{
-                if(pageMap.size()+1>numP){
-                    evictPage();
-                    //需要evict+add
-                    //默认移走第一个
-
-//                for(PageId pageId:pageMap.keySet()){
-//                    if(pageId!=null){
-//                        pageMap.remove(pageId);
-//                        break;
-//                    }
-//                }
-                }
-                DbFile heapFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-                // HeapFile heapFile = (HeapFile)Database.getCatalog().getDatabaseFile(pid.getTableId());
-                //这个地方用多态实现
-                //从数据库中获得DBfile
-                page =  heapFile.readPage(pid);
-                if(!isPage&&perm==Permissions.READ_ONLY){
-                    //把这页上所有元组
-                }
-                page.setUsedTimes(1);
-                synchronized (usedQueue){
-                    usedQueue.add(page);
+                stripe.pages.put(pid,page);
+                if(strategy!=null){
+                    strategy.add(slot,pid);
                 }
+            }
+            stripe.replacer.recordAccess(pid);
+        }
+        loading.complete(page);
+        return page;
+    }
 
-                pageMap.put(pid,page);
-
+    /** Wait for another thread to finish loading pid, and return its page. */
+    private Page awaitLoad(PageStripe stripe, PageId pid, CompletableFuture<Page> loading) throws DbException {
+        Page page;
+        try{
+            page = loading.join();
+        }
+        catch (CompletionException e){
+            if(e.getCause() instanceof RuntimeException){
+                throw (RuntimeException) e.getCause();
             }
+            if(e.getCause() instanceof DbException){
+                //读的线程腾不出帧
+                throw new DbException(e.getCause().getMessage());
+            }
+            throw e;
+        }
+        synchronized (stripe){
+            //可能已经被换出去了，那就不再记录访问
+            if(stripe.pages.get(pid)==page){
+                stripe.replacer.recordAccess(pid);
+            }
+        }
+        return page;
+    }
 
+    /**
+     * Load the specified page into the buffer pool without locking it, for
+     * read-ahead.  The caller must still get the page through getPage before
+     * using it.
+     *
+     * @return the cached page, or null if no frame could be freed for it
+     */
+    Page prefetchPage(PageId pid, BufferAccessStrategy strategy) {
+        Page page = getCachedPage(pid);
+        if(page!=null){
+            //已经在池里，不算一次访问
+            return page;
+        }
+        try{
+            return loadPage(pid,strategy);
         }
+        catch (DbException e){
+            //全是脏页，不为预读报错
+            return null;
+        }
+    }
 
+    /**
+     * Enable asynchronous read-ahead for sequential scans.
+     *
+     * @param maxPages the largest number of pages a scan may read ahead,
+     *                 0 to disable read-ahead
+     * @see ReadAhead
+     */
+    public void setReadAhead(int maxPages) {
+        readAheadPages = maxPages;
+    }
 
-        return page;
+    /**
+     * @return a read-ahead for a new scan following the given successor
+     *         function, or null if read-ahead is disabled
+     */
+    ReadAhead newReadAhead(BufferAccessStrategy strategy, Function<Page,PageId> next) {
+        if(readAheadPages<=0){
+            return null;
+        }
+        return new ReadAhead(this,strategy,next,readAheadPages);
+    }
+
+    /**
+     * Reserve room for one more page, evicting a page if the buffer pool
+     * is full.  Must not be called with a stripe monitor held.
+     */
+    private void reserveFrame() throws DbException {
+        while(true){
+            int n = cachedPages.get();
+            if(n<numP){
+                if(cachedPages.compareAndSet(n,n+1)){
+                    return;
+                }
+                continue;
+            }
+            evictPage();
+        }
     }
 
     /**
@@ -491,23 +520,7 @@ public class BufferPool {
     public void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
-        if(pageLock.excluMap.containsKey(pid)){
-            synchronized (pid){
-                //参数为要锁的对象
-                if(pageLock.excluMap.get(pid).equals(tid)) {
-                    pageLock.excluMap.remove(pid);
-                }
-
-            }
-        }
-        else{
-            if(pageLock.sharedMap.containsKey(pid)){
-                synchronized (pageLock.sharedMap.get(pid)){
-                    pageLock.sharedMap.get(pid).remove(tid);
-                    //不用判断contains，如果没有方法会失败
-                }
-            }
-        }
+        lockManager.release(tid,pid);
     }
 
     /**
@@ -525,20 +538,7 @@ public class BufferPool {
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for lab1|lab2
-        if((!pageLock.sharedMap.containsKey(p))&&(!pageLock.excluMap.containsKey(p)))
-            return false;
-        if(pageLock.sharedMap.containsKey(p)){
-            synchronized (pageLock.sharedMap.get(p)){
-                return pageLock.sharedMap.get(p).contains(tid);
-            }
-        }
-        else{
-
-            synchronized (pageLock.excluMap.get(p)){
-                return pageLock.excluMap.get(p).equals(tid);
-            }
-        }
-
+        return lockManager.holdsLock(tid,p);
     }
 
     /**
@@ -558,69 +558,37 @@ public class BufferPool {
         //清空锁
         //应该需要调用releasePage,但是那样得不到不好和commit是否结合
         if(isPage){
-            //释放页锁
-            if(pageLock.excluMap.containsValue(tid)){
-                for(PageId pageId: pageLock.excluMap.keySet()){
-                    if(pageLock.excluMap.get(pageId)!=null){
-                        if (pageLock.excluMap.get(pageId).equals(tid)){
-                            synchronized (dirtyPages){
-                                if(pageMap.get(pageId)!=null){
-                                    dirtyPages.add(pageMap.get(pageId));
-                                }
-                            }
-                            synchronized (pageLock.excluMap){
-                                pageLock.excluMap.remove(pageId);
-                            }
-                        }
-                    }
-                }
-            }
-            synchronized (pageLock.sharedMap){
-                for(PageId pageId: pageLock.sharedMap.keySet()){
-
-                    if(pageLock.sharedMap.get(pageId).contains(tid)){
-                        synchronized (dirtyPages){
-                            if(pageMap.get(pageId)!=null){
-                                dirtyPages.add(pageMap.get(pageId));
-                            }
-                        }
-                        {
-                            pageLock.sharedMap.get(pageId).remove(tid);
-                            if(pageLock.sharedMap.get(pageId).size()==0){
-                                pageLock.sharedMap.remove(pageId);
-                            }
-                        }
-                    }
+            //只看该事务自己锁住的页，写回或回滚之后再释放锁，避免别的事务看到中间状态
+            for(PageId pageId:lockManager.getLockedPages(tid)){
+                Page p = getCachedPage(pageId);
+                if(p!=null&&p.isDirty()!=null){
+                    dirtyPages.add(p);
                 }
             }
         }
         else{
-            //释放tuple锁
-            if(tupleLock.excluMap.containsValue(tid)){
-                for(RecordId recordId:tupleLock.excluMap.keySet()){
-                    if(tupleLock.excluMap.get(recordId)!=null){
-                        if(tupleLock.excluMap.get(recordId).equals(tid)){
-                            synchronized (tupleLock.excluMap){
-                                tupleLock.excluMap.remove(recordId);
-                            }
-                        }
+            //释放tuple锁，只遍历该事务自己持有的
+            Set<RecordId> exclus = tupleLock.hasExclu.remove(tid);
+            if(exclus!=null){
+                for(RecordId recordId:exclus){
+                    tupleLock.excluMap.remove(recordId,tid);
+                    Page p = getCachedPage(recordId.getPageId());
+                    if(p!=null){
+                        dirtyPages.add(p);
                     }
                 }
             }
-            synchronized (tupleLock.sharedMap){
-                for(RecordId recordId: tupleLock.sharedMap.keySet()){
-
-                    if(tupleLock.sharedMap.get(recordId).contains(tid)){
-                        synchronized (dirtyPages){
-                            if(pageMap.get(recordId.getPageId())!=null){
-                                dirtyPages.add(pageMap.get(recordId.getPageId()));
-                            }
+            Set<RecordId> shareds = tupleLock.hasShared.remove(tid);
+            if(shareds!=null){
+                synchronized (tupleLock.sharedMap){
+                    for(RecordId recordId:shareds){
+                        List<TransactionId> list = tupleLock.sharedMap.get(recordId);
+                        if(list==null){
+                            continue;
                         }
-                        {
-                            tupleLock.sharedMap.get(recordId).remove(tid);
-                            if(tupleLock.sharedMap.get(recordId).size()==0){
-                                tupleLock.sharedMap.remove(recordId);
-                            }
+                        list.remove(tid);
+                        if(list.size()==0){
+                            tupleLock.sharedMap.remove(recordId);
                         }
                     }
                 }
@@ -641,15 +609,23 @@ public class BufferPool {
         }
         else{
             //恢复原始状态
-            synchronized (pageMap){
-                if(dirtyPages.size()!=0){
-                    for(Page p:dirtyPages){
-                        pageMap.replace(p.getId(),p.getBeforeImage());
-                    }
+            for(Page p:dirtyPages){
+                PageStripe stripe = stripeOf(p.getId());
+                Page before = p.getBeforeImage();
+                synchronized (stripe){
+                    stripe.pages.replace(p.getId(),before);
+                }
+                //空闲空间表在插入删除时就改了，按回滚后的页改回来
+                DbFile f = Database.getCatalog().getDatabaseFile(p.getId().getTableId());
+                if(f instanceof HeapFile&&before instanceof TuplePage){
+                    ((HeapFile)f).rolledBack((TuplePage)before);
                 }
             }
 
         }
+        if(isPage){
+            lockManager.releaseAll(tid);
+        }
     }
 
     /**
@@ -681,27 +657,7 @@ public class BufferPool {
 
         for(Page p:insertedPages){
             p.markDirty(true,tid);
-            if(!pageMap.containsValue(p)){
-                //没有的话，要加入缓冲池
-                int size = pageMap.keySet().size();
-                if(pageMap.keySet().size()<numP){
-                    //还有地方加入
-                    pageMap.put(p.getId(),p);
-                }
-                else{
-                    //需要evict+add
-                    //默认移走第一个
-                    evictPage();
-//                    for(PageId pageId:pageMap.keySet()){
-//                        if(pageId!=null){
-//                            pageMap.remove(pageId);
-//                            break;
-//                        }
-//                    }
-
-                    pageMap.put(p.getId(),p);
-                }
-            }
+            cachePage(p);
         }
     }
 
@@ -734,25 +690,52 @@ public class BufferPool {
         for (Page p : deletedPages) {
             p.markDirty(true, tid);
             //脏：进行插入更新删除等操作
+            cachePage(p);
+        }
+    }
 
-            if (!pageMap.containsValue(p)) {
-                //没有的话，要加入缓冲池
-                if (pageMap.size() < numP) {
-                    //还有地方加入
-                    pageMap.put(p.getId(), p);
-                } else {
-                    //需要evict+add
-                    //默认移走第一个
-                    evictPage();
-//                    for (PageId pageId : pageMap.keySet()) {
-//                        if (pageId != null) {
-//                            pageMap.remove(pageId);
-//                            break;
-//                        }
-//                    }
-                    pageMap.put(p.getId(), p);
+    /**
+     * Drop a page of a bulk-read ring from the pool so its frame can be
+     * reused.  Dirty pages stay (NO STEAL); the ring just moves on.
+     */
+    private void recycle(PageId pid){
+        if(pid==null){
+            return;
+        }
+        PageStripe stripe = stripeOf(pid);
+        synchronized (stripe){
+            Page p = stripe.pages.get(pid);
+            if(p!=null&&p.isDirty()==null){
+                stripe.pages.remove(pid);
+                stripe.replacer.remove(pid);
+                cachedPages.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Put a page modified by insertTuple/deleteTuple into the buffer pool,
+     * replacing any other version of it and evicting a page if necessary.
+     */
+    private void cachePage(Page p) throws DbException {
+        PageStripe stripe = stripeOf(p.getId());
+        synchronized (stripe){
+            Page cached = stripe.pages.get(p.getId());
+            if(cached!=null){
+                if(cached!=p){
+                    stripe.pages.put(p.getId(),p);
                 }
+                stripe.replacer.recordAccess(p.getId());
+                return;
+            }
+        }
+        //需要evict+add
+        reserveFrame();
+        synchronized (stripe){
+            if(stripe.pages.put(p.getId(),p)!=null){
+                cachedPages.decrementAndGet();
             }
+            stripe.replacer.recordAccess(p.getId());
         }
     }
 
@@ -763,7 +746,7 @@ public class BufferPool {
      */
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
-        for(Page page:pageMap.values()){
+        for(Page page:getCachedPages()){
             flushPage(page.getId());
         }
 
@@ -781,8 +764,16 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         //这个不确定
-        if(pageMap.containsKey(pid)){
-            pageMap.remove(pid);
+        PageStripe stripe = stripeOf(pid);
+        boolean removed;
+        synchronized (stripe){
+            removed = stripe.pages.remove(pid)!=null;
+            if(removed){
+                stripe.replacer.remove(pid);
+                cachedPages.decrementAndGet();
+            }
+        }
+        if(removed){
             Database.getLogFile().recover();
         }
 //        for(Page page: pageMap.values()){
@@ -805,7 +796,7 @@ public class BufferPool {
         //即变为不dirty
         DbFile heapFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
 
-        Page heapPage = pageMap.get(pid);
+        Page heapPage = getCachedPage(pid);
         heapFile.writePage(heapPage);
         heapPage.markDirty(false,tid);//这个transactionid不知道
     }
@@ -815,7 +806,7 @@ public class BufferPool {
         //即变为不dirty
 
         DbFile  heapFile =  Database.getCatalog().getDatabaseFile(pid.getTableId());
-        Page heapPage = pageMap.get(pid);
+        Page heapPage = getCachedPage(pid);
         heapPage.markDirty(false,null);//这个transactionid不知道
     }
 
@@ -830,51 +821,28 @@ public class BufferPool {
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
      */
-    private synchronized  void evictPage() throws DbException {
+    private void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
-        //移除使用次数最少的，后续应用最小堆实现，提高效率
-        boolean canBeEvicted = false;
-        Page evictPage = null;
-        List<Page> pageList = new LinkedList<>();
-        while(!canBeEvicted){
-            if(usedQueue.element().isDirty()==null){
-                //不是脏页，可以被取出
-                canBeEvicted = true;
-                evictPage = usedQueue.element();
-            }
-            else {
-                //是脏页，不可被去除
-                pageList.add(usedQueue.poll());
-            }
-            if(usedQueue.size()==0){
-                //都是脏页,报错
-                throw new DbException("Fail to evict any page!");
-            }
-        }
-        synchronized (pageMap){
-            pageMap.remove(evictPage.getId());
-        }
-        synchronized (usedQueue){
-            usedQueue.remove(evictPage);//注意和pageMap主键的区别！！！
-            for(int i=0;i<pageList.size();i++){
-                usedQueue.add(pageList.get(i));
+        //从轮转的段开始找，每次只持有一个段的锁；脏页不能换出（NO STEAL）
+        int start = (evictHand.getAndIncrement()&0x7fffffff)%stripes.length;
+        for(int i=0;i<stripes.length;i++){
+            PageStripe stripe = stripes[(start+i)%stripes.length];
+            synchronized (stripe){
+                PageId victim = stripe.replacer.pickVictim(pid -> {
+                    Page p = stripe.pages.get(pid);
+                    return p==null||p.isDirty()==null;
+                });
+                if(victim!=null){
+                    stripe.pages.remove(victim);
+                    stripe.replacer.remove(victim);
+                    cachedPages.decrementAndGet();
+                    return;
+                }
             }
-            pageList.clear();
         }
-
-
-        //自己循环遍历的（空间少，但时间复杂度高）
-//        PageId minPage = null;
-//        int minUsed = 999999;
-//        for (PageId pageId : pageMap.keySet()) {
-//            if (pageMap.get(pageId).getUsedTimes()<minUsed) s{
-//                minUsed = pageMap.get(pageId).getUsedTimes();
-//                minPage = pageId;
-//            }
-//        }
-//        pageMap.remove(minPage);
-
+        //都是脏页,报错
+        throw new DbException("Fail to evict any page!");
     }
 
 }
@@ -47,7 +47,8 @@ public class Catalog {
     }
     Map<Integer,Table> tableMap;
     public Catalog() {
-        tableMap = new HashMap<>();
+        //后台清扫线程会并发遍历表
+        tableMap = new ConcurrentHashMap<>();
     }
 
     /**
@@ -73,6 +74,79 @@ public class Catalog {
         //tableId 和table在Map中对应
     }
 
+    /**
+     * Add a new table to the catalog, like {@link #addTable(DbFile, String, String)}.
+     * @param memoryMapped true to read the pages of the table through a
+     *    memory mapping, see {@link #setMemoryMapped}
+     */
+    public void addTable(DbFile file, String name, String pkeyField, boolean memoryMapped) {
+        addTable(file, name, pkeyField);
+        setMemoryMapped(file.getId(), memoryMapped);
+    }
+
+    /**
+     * Turn the memory-mapped read path of a table on or off.  Meant for
+     * read-mostly tables that fit in memory; only HeapFile and BTreeFile
+     * support it.
+     * @throws NoSuchElementException if the table doesn't exist
+     * @throws UnsupportedOperationException if the file of the table cannot be mapped
+     */
+    public void setMemoryMapped(int tableid, boolean on) {
+        DbFile file = getDatabaseFile(tableid);
+        try {
+            if (file instanceof HeapFile)
+                ((HeapFile) file).setMemoryMapped(on);
+            else if (file instanceof BTreeFile)
+                ((BTreeFile) file).setMemoryMapped(on);
+            else if (on)
+                throw new UnsupportedOperationException("table " + tableid + " cannot be memory mapped");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Return true if the pages of the table are read through a memory mapping */
+    public boolean isMemoryMapped(int tableid) {
+        DbFile file = getDatabaseFile(tableid);
+        if (file instanceof HeapFile)
+            return ((HeapFile) file).isMemoryMapped();
+        if (file instanceof BTreeFile)
+            return ((BTreeFile) file).isMemoryMapped();
+        return false;
+    }
+
+    /**
+     * Turn the compressed page store of a table on or off, converting its
+     * file on disk.  Meant for large, rarely updated tables, before any of
+     * their pages are read; only HeapFile and BTreeFile support it.
+     * @throws NoSuchElementException if the table doesn't exist
+     * @throws UnsupportedOperationException if the file of the table cannot be compressed
+     * @see CompressedPageStore
+     */
+    public void setCompressed(int tableid, boolean on) {
+        DbFile file = getDatabaseFile(tableid);
+        try {
+            if (file instanceof HeapFile)
+                ((HeapFile) file).setCompressed(on);
+            else if (file instanceof BTreeFile)
+                ((BTreeFile) file).setCompressed(on);
+            else if (on)
+                throw new UnsupportedOperationException("table " + tableid + " cannot be compressed");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Return true if the pages of the table are stored compressed */
+    public boolean isCompressed(int tableid) {
+        DbFile file = getDatabaseFile(tableid);
+        if (file instanceof HeapFile)
+            return ((HeapFile) file).isCompressed();
+        if (file instanceof BTreeFile)
+            return ((BTreeFile) file).isCompressed();
+        return false;
+    }
+
     public void addTable(DbFile file, String name) {
         addTable(file, name, "");
     }
@@ -164,7 +238,7 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [slotted|pax] [mmap|compressed]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -195,8 +269,40 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
-                addTable(tabHf,name,primaryKey);
+                //括号后的选项：slotted表示用变长记录的页格式，pax表示按列存放的页格式，mmap表示用内存映射读这张表，compressed表示页压缩存储
+                boolean slotted = false;
+                boolean pax = false;
+                boolean mmap = false;
+                boolean compressed = false;
+                for (String option : line.substring(line.indexOf(")") + 1).trim().split("\\s+")) {
+                    if (option.equalsIgnoreCase("slotted"))
+                        slotted = true;
+                    else if (option.equalsIgnoreCase("pax"))
+                        pax = true;
+                    else if (option.equalsIgnoreCase("mmap"))
+                        mmap = true;
+                    else if (option.equalsIgnoreCase("compressed"))
+                        compressed = true;
+                    else if (!option.isEmpty()) {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                HeapFile tabHf;
+                if (slotted)
+                    tabHf = new SlottedHeapFile(dataFile, t);
+                else if (pax)
+                    tabHf = new PaxHeapFile(dataFile, t);
+                else
+                    tabHf = new HeapFile(dataFile, t);
+                if (mmap && compressed) {
+                    System.out.println("A compressed table cannot be memory mapped: " + name);
+                    System.exit(0);
+                }
+                addTable(tabHf,name,primaryKey,mmap);
+                if (compressed)
+                    setCompressed(tabHf.getId(), true);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
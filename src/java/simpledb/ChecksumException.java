@@ -0,0 +1,34 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Thrown when the bytes of a page read from disk do not match the checksum
+ * recorded when the page was last written, e.g. after a torn write.
+ *
+ * @see PageChecksums
+ */
+public class ChecksumException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File file;
+    private final int pgNo;
+
+    public ChecksumException(File file, int pgNo) {
+        super("checksum mismatch on page " + pgNo + " of " + file);
+        this.file = file;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the table file holding the page */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the number of the page in its file */
+    public int getPageNumber() {
+        return pgNo;
+    }
+}
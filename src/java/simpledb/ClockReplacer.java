@@ -0,0 +1,85 @@
+package simpledb;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second chance) replacement.
+ * <p>
+ * Pages sit in a fixed ring of frames, each with a reference bit that is set
+ * on every access.  To find a victim the clock hand sweeps the ring, clearing
+ * reference bits, and stops at the first evictable page whose bit is
+ * already clear.  An access only sets one bit.
+ *
+ * @Threadsafe
+ */
+public class ClockReplacer implements ReplacementPolicy {
+
+    private PageId[] frames;
+    private boolean[] referenced;
+    private final Map<PageId, Integer> frameOf;
+    private final Deque<Integer> freeFrames = new ArrayDeque<>();
+    private int hand = 0;
+
+    /**
+     * @param numPages the number of pages the buffer pool can hold
+     */
+    public ClockReplacer(int numPages) {
+        frames = new PageId[numPages];
+        referenced = new boolean[numPages];
+        frameOf = new HashMap<>(numPages * 2);
+        for (int i = 0; i < numPages; i++) {
+            freeFrames.add(i);
+        }
+    }
+
+    public synchronized void recordAccess(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame == null) {
+            if (freeFrames.isEmpty()) {
+                grow();
+            }
+            frame = freeFrames.poll();
+            frames[frame] = pid;
+            frameOf.put(pid, frame);
+        }
+        referenced[frame] = true;
+    }
+
+    /** The pool briefly holding more pages than it was sized for should not fail. */
+    private void grow() {
+        int old = frames.length;
+        frames = Arrays.copyOf(frames, Math.max(1, old * 2));
+        referenced = Arrays.copyOf(referenced, frames.length);
+        for (int i = old; i < frames.length; i++) {
+            freeFrames.add(i);
+        }
+    }
+
+    public synchronized void remove(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame != null) {
+            frames[frame] = null;
+            referenced[frame] = false;
+            freeFrames.add(frame);
+        }
+    }
+
+    public synchronized PageId pickVictim(Predicate<PageId> evictable) {
+        //最多转两圈：第一圈清掉引用位，第二圈一定能找到（除非都不能换出）
+        for (int i = 0; i < 2 * frames.length; i++) {
+            int cur = hand;
+            hand = (hand + 1) % frames.length;
+            PageId pid = frames[cur];
+            if (pid == null || !evictable.test(pid)) {
+                continue;
+            }
+            if (referenced[cur]) {
+                referenced[cur] = false;
+                continue;
+            }
+            return pid;
+        }
+        return null;
+    }
+}
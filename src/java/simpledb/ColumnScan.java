@@ -0,0 +1,239 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * ColumnScan scans some int columns of a heap table a page at a time, handing
+ * out the values of each page as primitive int arrays instead of tuples.  On
+ * a {@link PaxHeapFile} only the requested columns of a page are read, and no
+ * Field or Tuple objects are created; on other heap files the page's tuples
+ * are decoded and copied into the arrays.
+ * <p>
+ * An optional predicate over one of the scanned columns is applied to the
+ * arrays before they are handed out, so a filter over a single column does
+ * not need a separate Filter operator; pages the {@link ZoneMap} rules out
+ * are not read.
+ * <p>
+ * Consumers that understand blocks call {@link #nextBlock} and
+ * {@link #getColumn}; ColumnScan is also an ordinary operator whose tuples
+ * hold the scanned columns, named "alias.fieldName" like SeqScan's.
+ */
+public class ColumnScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final String alias;
+    private final int[] columns;
+    private final Predicate predicate;
+    private final TupleDesc td;
+
+    private transient HeapFile file;
+    private transient BufferAccessStrategy strategy;
+    private transient ZoneMap zoneMap;//有谓词时用来跳页
+    private int pgNo;
+    private int[][] block = new int[0][];//block[i]存第i个输出列的值
+    private int blockSize;
+    private int pos;
+
+    /**
+     * Creates a scan of some columns of a table.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableId
+     *            the table to scan; it must be stored in a HeapFile.
+     * @param tableAlias
+     *            the alias of this table, used for the field names.
+     * @param columns
+     *            the int columns of the table to return, in output order.
+     * @param p
+     *            a predicate whose field is an index into columns, or null.
+     */
+    public ColumnScan(TransactionId tid, int tableId, String tableAlias, int[] columns, Predicate p) {
+        this.tid = tid;
+        this.tableId = tableId;
+        this.alias = tableAlias;
+        this.columns = columns.clone();
+        this.predicate = p;
+        TupleDesc tableTd = Database.getCatalog().getTupleDesc(tableId);
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            if (tableTd.getFieldType(columns[i]) != Type.INT_TYPE) {
+                throw new IllegalArgumentException("column " + columns[i] + " is not an int column");
+            }
+            types[i] = Type.INT_TYPE;
+            names[i] = tableAlias + "." + tableTd.getFieldName(columns[i]);
+        }
+        if (p != null && (p.getField() < 0 || p.getField() >= columns.length)) {
+            throw new IllegalArgumentException("predicate field " + p.getField() + " is not a scanned column");
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    public ColumnScan(TransactionId tid, int tableId, int[] columns, Predicate p) {
+        this(tid, tableId, Database.getCatalog().getTableName(tableId), columns, p);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(dbFile instanceof HeapFile)) {
+            throw new DbException("column scans need a heap file");
+        }
+        file = (HeapFile) dbFile;
+        strategy = BufferAccessStrategy.forBulkRead(file.numPages(), Database.getBufferPool().getNumPages());
+        if (predicate != null) {
+            try {
+                zoneMap = file.getZoneMap();
+            } catch (IOException e) {
+                throw new DbException("could not load zone map: " + e.getMessage());
+            }
+        }
+        pgNo = 0;
+        blockSize = 0;
+        pos = 0;
+        super.open();
+    }
+
+    /**
+     * Read the next page that has rows passing the predicate.
+     *
+     * @return the number of rows in the block, 0 at the end of the table
+     */
+    public int nextBlock() throws DbException, TransactionAbortedException {
+        blockSize = 0;
+        pos = 0;
+        while (blockSize == 0 && pgNo < file.numPages()) {
+            if (zoneMap != null && !zoneMap.mayMatch(pgNo, columns[predicate.getField()], predicate.getOp(),
+                    ((IntField) predicate.getOperand()).getValue())) {
+                pgNo++;
+                continue;
+            }
+            HeapPageId pid = new HeapPageId(tableId, pgNo++);
+            TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY, strategy);
+            if (page instanceof PaxHeapPage) {
+                PaxHeapPage pax = (PaxHeapPage) page;
+                ensureCapacity(pax.getNumSlots());
+                for (int i = 0; i < columns.length; i++) {
+                    blockSize = pax.getIntColumn(columns[i], block[i]);
+                }
+            } else {
+                //不是PAX页时只能逐个元组取值
+                int n = 0;
+                for (Iterator<Tuple> it = page.iterator(); it.hasNext(); n++) {
+                    Tuple t = it.next();
+                    ensureCapacity(n + 1);
+                    for (int i = 0; i < columns.length; i++) {
+                        block[i][n] = ((IntField) t.getField(columns[i])).getValue();
+                    }
+                }
+                blockSize = n;
+            }
+            if (predicate != null) {
+                blockSize = filter(blockSize);
+            }
+        }
+        return blockSize;
+    }
+
+    /**
+     * @return the values of output column i of the current block; only the
+     *         first {@link #nextBlock} values are valid
+     */
+    public int[] getColumn(int i) {
+        return block[i];
+    }
+
+    private void ensureCapacity(int n) {
+        if (block.length == columns.length && block.length > 0 && block[0].length >= n) {
+            return;
+        }
+        int size = Math.max(n, block.length > 0 ? block[0].length * 2 : 0);
+        int[][] grown = new int[columns.length][size];
+        for (int i = 0; i < block.length; i++) {
+            System.arraycopy(block[i], 0, grown[i], 0, block[i].length);
+        }
+        block = grown;
+    }
+
+    /** Drop the rows failing the predicate, keeping the rest in order. */
+    private int filter(int n) {
+        int[] values = block[predicate.getField()];
+        int operand = ((IntField) predicate.getOperand()).getValue();
+        Predicate.Op op = predicate.getOp();
+        int kept = 0;
+        for (int r = 0; r < n; r++) {
+            if (matches(values[r], op, operand)) {
+                if (kept != r) {
+                    for (int[] column : block) {
+                        column[kept] = column[r];
+                    }
+                }
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    //和IntField.compare的语义一致
+    private static boolean matches(int v, Predicate.Op op, int operand) {
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return v == operand;
+            case NOT_EQUALS:
+                return v != operand;
+            case GREATER_THAN:
+                return v > operand;
+            case GREATER_THAN_OR_EQ:
+                return v >= operand;
+            case LESS_THAN:
+                return v < operand;
+            case LESS_THAN_OR_EQ:
+                return v <= operand;
+            default:
+                return false;
+        }
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (pos == blockSize && nextBlock() == 0) {
+            return null;
+        }
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < columns.length; i++) {
+            t.setField(i, new IntField(block[i][pos]));
+        }
+        pos++;
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        pgNo = 0;
+        blockSize = 0;
+        pos = 0;
+    }
+
+    public void close() {
+        super.close();
+        file = null;
+        strategy = null;
+        zoneMap = null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+}
@@ -0,0 +1,246 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * CompressedPageStore keeps the pages of a table file compressed with
+ * {@link PageCompressor}, for large tables that are rarely updated: a scan
+ * then reads a fraction of the bytes and decompresses each page when it is
+ * faulted into the buffer pool.
+ * <p>
+ * The data file holds the compressed pages one after the other.  An index in
+ * a side file next to it, path + ".idx", has a 16 byte entry per page
+ * number: the offset of the page in the data file, its stored length and its
+ * length uncompressed.  A page that does not compress is stored as it is,
+ * with both lengths equal; an entry of length 0 is a page of zeros.  A
+ * rewritten page goes back to its old place if it still fits and to the end
+ * of the data file otherwise, so the data file of a table that is updated a
+ * lot grows until it is converted again.
+ * <p>
+ * Page numbers count from 0, and pages may have different sizes, so the
+ * store holds B+ tree files, whose page 0 is the small root pointer page, as
+ * well as heap files.
+ *
+ * @Threadsafe
+ */
+public class CompressedPageStore {
+
+    private static final int ENTRY_SIZE = 16;
+
+    private final File file;
+    private final File indexFile;
+    private long[] offsets = new long[0];
+    private int[] stored = new int[0];
+    private int[] lengths = new int[0];
+    private int numPages = 0;
+    private long end;//数据文件末尾，新页追加到这里
+    private RandomAccessFile data;//关闭后为null，下次读写时重新打开
+    private FileChannel channel;//data的通道，读页用位置读，不用加锁
+    private RandomAccessFile index;
+
+    /**
+     * Open the store of a data file, creating it if neither the data file
+     * nor its index exists.
+     */
+    public CompressedPageStore(File file) throws IOException {
+        this.file = file;
+        this.indexFile = indexFile(file);
+        open();
+        int n = (int) (index.length() / ENTRY_SIZE);
+        byte[] buf = new byte[n * ENTRY_SIZE];
+        index.readFully(buf);
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        ensurePage(n - 1);
+        for (int i = 0; i < n; i++) {
+            offsets[i] = bb.getLong();
+            stored[i] = bb.getInt();
+            lengths[i] = bb.getInt();
+        }
+        numPages = n;
+        end = data.length();
+    }
+
+    private void open() throws IOException {
+        if (data == null) {
+            data = new RandomAccessFile(file, "rw");
+            channel = data.getChannel();
+            index = new RandomAccessFile(indexFile, "rw");
+        }
+    }
+
+    /** @return the index side file of a data file */
+    public static File indexFile(File file) {
+        return new File(file.getPath() + ".idx");
+    }
+
+    /** @return true if the data file is kept by a CompressedPageStore */
+    public static boolean isCompressed(File file) {
+        return indexFile(file).exists();
+    }
+
+    private void ensurePage(int pgNo) {
+        if (pgNo >= offsets.length) {
+            int size = Math.max(pgNo + 1, offsets.length * 2);
+            offsets = Arrays.copyOf(offsets, size);
+            stored = Arrays.copyOf(stored, size);
+            lengths = Arrays.copyOf(lengths, size);
+        }
+    }
+
+    /** @return the number of pages in the store */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * Read page pgNo, decompressed, into dst.  Bytes the page does not
+     * cover are set to 0.
+     *
+     * @return false if the store has no page pgNo
+     */
+    public boolean read(int pgNo, byte[] dst) throws IOException {
+        byte[] buf;
+        int len;
+        long offset;
+        FileChannel ch;
+        synchronized (this) {
+            if (pgNo < 0 || pgNo >= numPages) {
+                return false;
+            }
+            //只在锁里取索引项，读文件放到锁外
+            len = lengths[pgNo];
+            buf = new byte[stored[pgNo]];
+            offset = offsets[pgNo];
+            open();
+            ch = channel;
+        }
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        while (bb.hasRemaining()) {
+            if (ch.read(bb, offset + bb.position()) < 0) {
+                throw new IOException("page " + pgNo + " is cut short in " + file);
+            }
+        }
+        Arrays.fill(dst, (byte) 0);
+        if (buf.length == len) {
+            System.arraycopy(buf, 0, dst, 0, Math.min(len, dst.length));
+        } else {
+            try {
+                PageCompressor.decompress(buf, buf.length, dst);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("corrupt page " + pgNo + " in " + file, e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write page pgNo, compressing it.  Writing past the last page adds the
+     * pages in between as pages of zeros.
+     */
+    public synchronized void write(int pgNo, byte[] page) throws IOException {
+        byte[] compressed = PageCompressor.compress(page);
+        byte[] buf = compressed.length < page.length ? compressed : page;
+        ensurePage(pgNo);
+        long offset;
+        if (pgNo < numPages && buf.length <= stored[pgNo]) {
+            //原位置放得下就覆盖，否则追加到末尾
+            offset = offsets[pgNo];
+        } else {
+            offset = end;
+            end += buf.length;
+        }
+        open();
+        data.seek(offset);
+        data.write(buf);
+        //追加时先写数据再写索引，崩溃时最多丢掉这一页的新版本
+        offsets[pgNo] = offset;
+        stored[pgNo] = buf.length;
+        lengths[pgNo] = page.length;
+        int from = Math.min(numPages, pgNo);
+        numPages = Math.max(numPages, pgNo + 1);
+        ByteBuffer bb = ByteBuffer.allocate((pgNo - from + 1) * ENTRY_SIZE);
+        for (int i = from; i <= pgNo; i++) {
+            bb.putLong(offsets[i]).putInt(stored[i]).putInt(lengths[i]);
+        }
+        index.seek((long) from * ENTRY_SIZE);
+        index.write(bb.array());
+    }
+
+    /** Close the data and index files; they are reopened by the next access. */
+    public synchronized void close() throws IOException {
+        if (data != null) {
+            data.close();
+            index.close();
+            data = null;
+            channel = null;
+            index = null;
+        }
+    }
+
+    /**
+     * Convert a plain table file into a compressed one in place.  The file
+     * is read as a first page of firstPageSize bytes followed by pages of
+     * pageSize bytes; nothing may have it open.
+     */
+    public static void compressFile(File file, int firstPageSize, int pageSize) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        tmp.delete();
+        indexFile(tmp).delete();
+        CompressedPageStore store = new CompressedPageStore(tmp);
+        try (FileInputStream in = new FileInputStream(file)) {
+            int pgNo = 0;
+            while (true) {
+                byte[] page = new byte[pgNo == 0 ? firstPageSize : pageSize];
+                int off = 0;
+                int n;
+                while (off < page.length && (n = in.read(page, off, page.length - off)) > 0) {
+                    off += n;
+                }
+                //文件末尾不足一页的部分丢掉，和numPages一致
+                if (off < page.length) {
+                    break;
+                }
+                store.write(pgNo++, page);
+            }
+        } finally {
+            store.close();
+        }
+        replace(tmp, file);
+        replace(indexFile(tmp), indexFile(file));
+    }
+
+    /** Convert a compressed table file back into a plain one in place. */
+    public static void decompressFile(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        CompressedPageStore store = new CompressedPageStore(file);
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            for (int i = 0; i < store.numPages(); i++) {
+                byte[] page = new byte[store.lengths[i]];
+                store.read(i, page);
+                out.write(page);
+            }
+        } finally {
+            store.close();
+        }
+        replace(tmp, file);
+        if (!indexFile(file).delete()) {
+            throw new IOException("could not delete " + indexFile(file));
+        }
+    }
+
+    private static void replace(File from, File to) throws IOException {
+        if (!from.renameTo(to)) {
+            to.delete();
+            if (!from.renameTo(to)) {
+                throw new IOException("could not rename " + from + " to " + to);
+            }
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * ExternalSort returns the tuples of its child in ascending order of one
+ * field, like {@link OrderBy}, but keeps at most a budget of tuples in
+ * memory: the child is read in chunks of the budget, each chunk is sorted
+ * and written to a {@link TupleSpillFile} run, and the runs are merged,
+ * {@link #MERGE_FAN_IN} at a time, into one stream.  A child that fits in
+ * the budget is sorted in memory.
+ */
+class ExternalSort extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of runs merged at once. */
+    static final int MERGE_FAN_IN = 64;
+
+    private OpIterator child;
+    private final int field;
+    private final int memoryTuples;
+    transient private ArrayList<Tuple> sorted;//放得下时排好序的元组
+    transient private int pos;
+    transient private ArrayList<TupleSpillFile> runs;
+    transient private PriorityQueue<RunHead> heap;
+
+    /** The next tuple of a run being merged. */
+    private static class RunHead {
+        final OpIterator run;
+        final int index;
+        Tuple head;
+
+        RunHead(OpIterator run, int index) {
+            this.run = run;
+            this.index = index;
+        }
+    }
+
+    /**
+     * @param child        the tuples to sort
+     * @param field        the field to sort on
+     * @param memoryTuples the number of tuples sorted in memory at a time
+     */
+    ExternalSort(OpIterator child, int field, int memoryTuples) {
+        if (memoryTuples < 1) {
+            throw new IllegalArgumentException("the budget is at least one tuple");
+        }
+        this.child = child;
+        this.field = field;
+        this.memoryTuples = memoryTuples;
+    }
+
+    /** @return a negative number, zero or a positive number as a is less than, equal to or greater than b */
+    static int compare(Field a, Field b) {
+        if (a.compare(Predicate.Op.LESS_THAN, b)) {
+            return -1;
+        }
+        return a.compare(Predicate.Op.EQUALS, b) ? 0 : 1;
+    }
+
+    private final Comparator<Tuple> order = new Comparator<Tuple>() {
+        public int compare(Tuple a, Tuple b) {
+            return ExternalSort.compare(a.getField(field), b.getField(field));
+        }
+    };
+
+    private final Comparator<RunHead> headOrder = new Comparator<RunHead>() {
+        public int compare(RunHead a, RunHead b) {
+            int c = order.compare(a.head, b.head);
+            // 相等时按run的先后，排序是稳定的
+            return c != 0 ? c : a.index - b.index;
+        }
+    };
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child.open();
+        sorted = null;
+        runs = new ArrayList<TupleSpillFile>();
+        ArrayList<Tuple> chunk = new ArrayList<Tuple>();
+        while (child.hasNext()) {
+            chunk.add(child.next());
+            if (chunk.size() == memoryTuples) {
+                runs.add(spill(chunk));
+                chunk.clear();
+            }
+        }
+        if (runs.isEmpty()) {
+            Collections.sort(chunk, order);
+            sorted = chunk;
+        } else {
+            if (!chunk.isEmpty()) {
+                runs.add(spill(chunk));
+            }
+            chunk = null;
+            while (runs.size() > MERGE_FAN_IN) {
+                ArrayList<TupleSpillFile> merged = new ArrayList<TupleSpillFile>();
+                try {
+                    for (int i = 0; i < runs.size(); i += MERGE_FAN_IN) {
+                        merged.add(mergeToRun(runs.subList(i, Math.min(runs.size(), i + MERGE_FAN_IN))));
+                    }
+                } catch (DbException | TransactionAbortedException e) {
+                    //没合并完的留在runs里由close删，已合并出来的在这里删
+                    for (TupleSpillFile f : merged) {
+                        f.delete();
+                    }
+                    throw e;
+                }
+                runs = merged;
+            }
+            startMerge();
+        }
+        pos = 0;
+        super.open();
+    }
+
+    /** Sort tuples and write them to a new run. */
+    private TupleSpillFile spill(ArrayList<Tuple> tuples) throws DbException {
+        Collections.sort(tuples, order);
+        TupleSpillFile run = null;
+        try {
+            run = new TupleSpillFile(child.getTupleDesc());
+            for (Tuple t : tuples) {
+                run.add(t);
+            }
+            return run;
+        } catch (IOException e) {
+            if (run != null) {
+                run.delete();
+            }
+            throw new DbException("cannot write sort run: " + e);
+        }
+    }
+
+    /** Merge runs into one new run and delete them. */
+    private TupleSpillFile mergeToRun(List<TupleSpillFile> group) throws DbException, TransactionAbortedException {
+        PriorityQueue<RunHead> q = openRuns(group);
+        TupleSpillFile run = null;
+        boolean written = false;
+        try {
+            run = new TupleSpillFile(child.getTupleDesc());
+            Tuple t;
+            while ((t = poll(q)) != null) {
+                run.add(t);
+            }
+            written = true;
+        } catch (IOException e) {
+            throw new DbException("cannot write sort run: " + e);
+        } finally {
+            if (!written && run != null) {
+                run.delete();
+            }
+        }
+        for (TupleSpillFile f : group) {
+            f.delete();
+        }
+        return run;
+    }
+
+    private PriorityQueue<RunHead> openRuns(List<TupleSpillFile> group) throws DbException, TransactionAbortedException {
+        PriorityQueue<RunHead> q = new PriorityQueue<RunHead>(group.size(), headOrder);
+        for (int i = 0; i < group.size(); i++) {
+            RunHead h = new RunHead(group.get(i).scan(), i);
+            h.run.open();
+            if (h.run.hasNext()) {
+                h.head = h.run.next();
+                q.add(h);
+            } else {
+                h.run.close();
+            }
+        }
+        return q;
+    }
+
+    /** @return the least head of q, advancing its run, or null if q is empty */
+    private static Tuple poll(PriorityQueue<RunHead> q) throws DbException, TransactionAbortedException {
+        RunHead h = q.poll();
+        if (h == null) {
+            return null;
+        }
+        Tuple t = h.head;
+        if (h.run.hasNext()) {
+            h.head = h.run.next();
+            q.add(h);
+        } else {
+            h.run.close();
+        }
+        return t;
+    }
+
+    private void startMerge() throws DbException, TransactionAbortedException {
+        closeHeap();
+        heap = openRuns(runs);
+    }
+
+    private void closeHeap() {
+        if (heap != null) {
+            for (RunHead h : heap) {
+                h.run.close();
+            }
+            heap = null;
+        }
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (sorted != null) {
+            return pos < sorted.size() ? sorted.get(pos++) : null;
+        }
+        return heap == null ? null : poll(heap);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        pos = 0;
+        if (sorted == null) {
+            startMerge();
+        }
+    }
+
+    public void close() {
+        super.close();
+        closeHeap();
+        if (runs != null) {
+            for (TupleSpillFile f : runs) {
+                f.delete();
+            }
+            runs = null;
+        }
+        sorted = null;
+        child.close();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+    }
+}
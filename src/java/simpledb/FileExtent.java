@@ -0,0 +1,128 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * FileExtent grows table files by whole extents of zeroed pages instead of
+ * one page at a time, so an append-heavy workload extends a file, and has
+ * the file system allocate blocks for it, once every extent rather than on
+ * every new page.  The zeros are written out, so the blocks are really
+ * allocated and later page writes do not extend the file.
+ * <p>
+ * A file grown this way is longer than the pages in use; the files keep
+ * their number of pages in memory instead of deriving it from the file
+ * length, see {@link HeapFile#numPages} and {@link BTreeFile#numPages}.
+ * So that a file opened again does not count the zeroed pages either, the
+ * files record their number of pages in a side file, path + ".len", each
+ * time they add a page, see {@link #saveUsedPages}.
+ *
+ * @Threadsafe
+ */
+public class FileExtent {
+
+    /** Default number of pages to grow a file by. */
+    public static final int DEFAULT_EXTENT_PAGES = 64;
+
+    private static final int ZERO_BUFFER_SIZE = 1 << 20;
+
+    private static volatile int extentPages = DEFAULT_EXTENT_PAGES;
+
+    private FileExtent() {
+    }
+
+    /** @return the number of pages files grow by */
+    public static int getExtentPages() {
+        return extentPages;
+    }
+
+    /**
+     * Set the number of pages files grow by; 1 grows them a page at a time.
+     */
+    public static void setExtentPages(int pages) {
+        if (pages < 1) {
+            throw new IllegalArgumentException("extent must be at least one page");
+        }
+        extentPages = pages;
+    }
+
+    /**
+     * Grow a file so it holds at least needed bytes, filling it with zeros
+     * up to the end of the extent that byte falls in.
+     *
+     * @param ch       the channel of the file
+     * @param length   the current length of the file
+     * @param needed   the length the file must have at least
+     * @param base     the bytes before the first page, e.g. the B+ tree
+     *                 root pointer page
+     * @param pageSize the size of a page
+     * @return the new length of the file
+     */
+    static long grow(FileChannel ch, long length, long needed, long base, int pageSize) throws IOException {
+        if (needed <= length) {
+            return length;
+        }
+        int extent = extentPages;
+        long pages = Math.max(0, (needed - base + pageSize - 1) / pageSize);
+        //页数向上取整到整个区，区从第一页开始对齐
+        pages = (pages + extent - 1) / extent * extent;
+        long newLength = Math.max(needed, base + pages * pageSize);
+        ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(ZERO_BUFFER_SIZE, newLength - length));
+        for (long pos = length; pos < newLength; ) {
+            zeros.clear();
+            zeros.limit((int) Math.min(zeros.capacity(), newLength - pos));
+            pos += ch.write(zeros, pos);
+        }
+        return newLength;
+    }
+
+    /** @return the side file recording the number of pages of a file in use */
+    public static File usedPagesFile(File file) {
+        return new File(file.getPath() + ".len");
+    }
+
+    /** The number of pages of a file in use, recorded when it was length bytes long. */
+    static final class UsedPages {
+        final long length;
+        final int pages;
+
+        UsedPages(long length, int pages) {
+            this.length = length;
+            this.pages = pages;
+        }
+    }
+
+    /**
+     * Record that pages pages of a file are in use while it is length bytes
+     * long.  Record a new page before writing it: a crash in between leaves
+     * a page of zeros counted, never a page in use not counted.
+     */
+    static void saveUsedPages(File file, long length, int pages) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(12);
+        bb.putLong(length).putInt(pages);
+        try (RandomAccessFile rf = new RandomAccessFile(usedPagesFile(file), "rw")) {
+            rf.write(bb.array());
+        }
+    }
+
+    /**
+     * @return the record of {@link #saveUsedPages}, or null if there is none;
+     *         it only holds while the file is as long as it says, a tool
+     *         may have rewritten the file since
+     */
+    static UsedPages loadUsedPages(File file) throws IOException {
+        File side = usedPagesFile(file);
+        if (side.length() != 12) {
+            return null;
+        }
+        byte[] data = new byte[12];
+        try (RandomAccessFile rf = new RandomAccessFile(side, "r")) {
+            rf.readFully(data);
+        }
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        return new UsedPages(bb.getLong(), bb.getInt());
+    }
+}
@@ -0,0 +1,167 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records how much room is left on every page of a HeapFile,
+ * so an insert can go straight to a page with an empty slot instead of
+ * locking and reading every page of the table.
+ * <p>
+ * Each page has one byte holding its number of empty slots scaled to
+ * 0..255 and rounded up, so 0 means the page is full.  The bytes are kept in
+ * a side file next to the heap file, one byte per page at the offset of the
+ * page number; a flushed page rewrites only its own byte.  An in-memory
+ * bitmap of the non-full pages makes the search for a free page a scan over
+ * 64 pages per word.
+ * <p>
+ * The map is only a hint: uncommitted inserts and deletes can make it
+ * stale, so callers check the page itself and correct the entry.  The
+ * entries of the pages an aborted transaction changed are reset from their
+ * before-images, and the side file only gets the bytes of flushed pages.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    private final File file;
+    private final int slotsPerPage;
+    private byte[] categories = new byte[0];
+    private final BitSet hasSpace = new BitSet();
+    private int numPages = 0;
+    private RandomAccessFile raf = null;
+
+    /**
+     * @param file         the side file holding the map
+     * @param slotsPerPage number of tuple slots on a page of the heap file
+     */
+    public FreeSpaceMap(File file, int slotsPerPage) {
+        this.file = file;
+        this.slotsPerPage = slotsPerPage;
+    }
+
+    /**
+     * Read the map from its side file.
+     *
+     * @return false if the side file is missing or does not describe exactly
+     *         numPages pages, in which case the map has to be rebuilt
+     */
+    public synchronized boolean load(int numPages) throws IOException {
+        if (!file.exists() || file.length() != numPages) {
+            return false;
+        }
+        byte[] data = new byte[numPages];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int off = 0;
+            while (off < numPages) {
+                int n = in.read(data, off, numPages - off);
+                if (n < 0) {
+                    return false;
+                }
+                off += n;
+            }
+        }
+        categories = data;
+        this.numPages = numPages;
+        hasSpace.clear();
+        for (int i = 0; i < numPages; i++) {
+            if (data[i] != 0) {
+                hasSpace.set(i);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the first page at or after from that may have an empty slot,
+     *         or -1 if there is none
+     */
+    public synchronized int findPage(int from) {
+        int pgNo = hasSpace.nextSetBit(from);
+        return pgNo < 0 || pgNo >= numPages ? -1 : pgNo;
+    }
+
+    /**
+     * @return the first page at or after from that may have at least
+     *         emptySlots empty slots, or -1 if there is none
+     */
+    public synchronized int findPage(int from, int emptySlots) {
+        //桶是向上取整的，所以只跳过一定放不下的页
+        int category = emptySlots * 255 / slotsPerPage;
+        for (int pgNo = hasSpace.nextSetBit(from); pgNo >= 0 && pgNo < numPages;
+             pgNo = hasSpace.nextSetBit(pgNo + 1)) {
+            if ((categories[pgNo] & 0xff) >= category) {
+                return pgNo;
+            }
+        }
+        return -1;
+    }
+
+    /** Record the number of empty slots of a page in memory. */
+    public synchronized void update(int pgNo, int emptySlots) {
+        if (pgNo >= categories.length) {
+            categories = Arrays.copyOf(categories, Math.max(pgNo + 1, categories.length * 2));
+        }
+        numPages = Math.max(numPages, pgNo + 1);
+        //向上取整，只要有空槽就不为0
+        int category = (emptySlots * 255 + slotsPerPage - 1) / slotsPerPage;
+        categories[pgNo] = (byte) Math.min(255, category);
+        hasSpace.set(pgNo, category != 0);
+    }
+
+    /** Write the entry of one page to the side file. */
+    public synchronized void save(int pgNo) throws IOException {
+        if (raf == null) {
+            raf = new RandomAccessFile(file, "rw");
+        }
+        //文件比页号短时，中间的页补成可能有空：内存里的值可能还没提交，
+        //补成已满的话这些页就再也不会被查看
+        long from = Math.min(raf.length(), pgNo);
+        raf.seek(from);
+        if (from < pgNo) {
+            byte[] unknown = new byte[pgNo - (int) from];
+            Arrays.fill(unknown, (byte) 255);
+            raf.write(unknown);
+        }
+        raf.write(categories[pgNo]);
+    }
+
+    /** Write the whole map to the side file. */
+    public synchronized void saveAll() throws IOException {
+        if (raf == null) {
+            raf = new RandomAccessFile(file, "rw");
+        }
+        raf.setLength(numPages);
+        raf.seek(0);
+        raf.write(categories, 0, numPages);
+    }
+
+    /**
+     * Forget the pages from numPages on, in memory and in the side file,
+     * after the heap file was truncated.
+     */
+    public synchronized void truncate(int numPages) throws IOException {
+        if (numPages >= this.numPages) {
+            return;
+        }
+        hasSpace.clear(numPages, this.numPages);
+        Arrays.fill(categories, numPages, this.numPages, (byte) 0);
+        this.numPages = numPages;
+        if (raf == null) {
+            raf = new RandomAccessFile(file, "rw");
+        }
+        raf.setLength(Math.min(raf.length(), numPages));
+    }
+
+    /** Close the side file; it is reopened by the next save. */
+    public synchronized void close() throws IOException {
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+    }
+}
@@ -1,9 +1,22 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The HashEquiJoin operator implements an equi-join as a hybrid hash join.
+ * The left child is the build side: its tuples are hashed on the join field
+ * into memory, up to a budget of tuples.  When the build side is larger
+ * than the budget, both children are split by the hash of the join field
+ * into {@link #PARTITIONS} partitions; partition 0 stays in memory and is
+ * joined while the right child is read, and the other partitions are
+ * written to temporary files and joined pairwise afterwards, partitioning
+ * again with a different hash if a pair is still too large.  Each child is
+ * read once, and every spilled tuple is written and read once per level.
+ * <p>
+ * Partitions that are still too large after {@link #MAX_LEVEL} levels, e.g.
+ * because of one very common key, are joined by loading the build side in
+ * chunks of the budget and reading the probe side once per chunk.
  */
 public class HashEquiJoin extends Operator {
 
@@ -11,12 +24,14 @@ public class HashEquiJoin extends Operator {
     private JoinPredicate pred;
     private OpIterator child1, child2;
     private TupleDesc comboTD;
+    private final int memoryTuples;
+    private final int level;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
-     * on
+     * on, with a build side budget of {@link #MAP_SIZE} tuples
      * 
      * @param p
      *            The predicate to use to join the children
@@ -26,9 +41,26 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, MAP_SIZE);
+    }
+
+    /**
+     * @param memoryTuples
+     *            the number of build side tuples kept in memory
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int memoryTuples) {
+        this(p, child1, child2, memoryTuples, 0);
+    }
+
+    private HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int memoryTuples, int level) {
+        if (memoryTuples < 1) {
+            throw new IllegalArgumentException("the budget is at least one tuple");
+        }
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memoryTuples = memoryTuples;
+        this.level = level;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -51,36 +83,169 @@ public class HashEquiJoin extends Operator {
     }
     
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
+    /** The default number of build side tuples kept in memory. */
     public final static int MAP_SIZE = 20000;
+    /** The number of partitions the children are split into when spilling. */
+    public final static int PARTITIONS = 16;
+    /** The number of times a partition pair is split again before chunking. */
+    public final static int MAX_LEVEL = 3;
+
+    transient private int loaded;//map里的元组数
+    transient private boolean chunked;//到了最深一层，分块读build侧
+    transient private TupleSpillFile[] buildSpills;
+    transient private TupleSpillFile[] probeSpills;
+    transient private boolean residentSpilled;//0号分区也写到文件里了
+    transient private int partition;//下一个要连接的溢出分区
+    transient private HashEquiJoin sub;
+
+    /** @return the partition of join field value key at this level */
+    private int partitionOf(Object key) {
+        return partitionOf(key, level);
+    }
+
+    /**
+     * @return the partition of join field value key at a level: the
+     *         hashCode of the key, seeded by the level and mixed with the
+     *         murmur3 finalizer, so that every bit of it decides the
+     *         partition
+     */
+    static int partitionOf(Object key, int level) {
+        // 每层换一个种子，下一层才能把同一分区再分开
+        int h = key.hashCode() ^ (level * 0x9E3779B9);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h & Integer.MAX_VALUE) % PARTITIONS;
+    }
+
+    private void put(Tuple t) {
+        Object key = t.getField(pred.getField1());
+        ArrayList<Tuple> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<Tuple>();
+            map.put(key, list);
+        }
+        list.add(t);
+        loaded++;
+    }
+
+    private static void spill(TupleSpillFile f, Tuple t) throws DbException {
+        try {
+            f.add(t);
+        } catch (IOException e) {
+            throw new DbException("cannot write spill file: " + e);
+        }
+    }
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
+    /**
+     * Read the build side: into the map if it fits, otherwise keep partition
+     * 0 in the map and write the others to their spill files.  At
+     * {@link #MAX_LEVEL} only the first chunk is read.
+     */
+    private void build() throws DbException, TransactionAbortedException {
         map.clear();
+        loaded = 0;
+        chunked = false;
+        residentSpilled = false;
+        partition = 1;
         while (child1.hasNext()) {
             t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+            if (buildSpills != null) {
+                int part = partitionOf(t1.getField(pred.getField1()));
+                if (part != 0 || residentSpilled) {
+                    spill(buildSpills[part], t1);
+                    continue;
+                }
+            }
+            put(t1);
+            if (loaded > memoryTuples) {
+                if (level >= MAX_LEVEL) {
+                    chunked = true;
+                    return;
+                }
+                if (buildSpills == null) {
+                    startPartitioning();
+                } else {
+                    // 0号分区自己也放不下，整个写出去
+                    for (ArrayList<Tuple> list : map.values()) {
+                        for (Tuple t : list) {
+                            spill(buildSpills[0], t);
+                        }
+                    }
+                    map.clear();
+                    loaded = 0;
+                    residentSpilled = true;
+                    partition = 0;
+                }
+            }
+        }
+    }
+
+    /** Create the spill files and move all but partition 0 out of the map. */
+    private void startPartitioning() throws DbException {
+        buildSpills = new TupleSpillFile[PARTITIONS];
+        probeSpills = new TupleSpillFile[PARTITIONS];
+        try {
+            for (int i = 0; i < PARTITIONS; i++) {
+                buildSpills[i] = new TupleSpillFile(child1.getTupleDesc());
+                probeSpills[i] = new TupleSpillFile(child2.getTupleDesc());
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+        } catch (IOException e) {
+            deleteSpills();
+            throw new DbException("cannot create spill file: " + e);
+        }
+        Iterator<Map.Entry<Object, ArrayList<Tuple>>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Object, ArrayList<Tuple>> e = it.next();
+            int part = partitionOf(e.getKey());
+            if (part != 0) {
+                for (Tuple t : e.getValue()) {
+                    spill(buildSpills[part], t);
+                }
+                loaded -= e.getValue().size();
+                it.remove();
+            }
+        }
+    }
+
+    /** Read the next chunk of the build side into the map. */
+    private boolean loadChunk() throws DbException, TransactionAbortedException {
+        map.clear();
+        loaded = 0;
+        while (loaded <= memoryTuples && child1.hasNext()) {
+            put(child1.next());
         }
-        return cnt > 0;
+        return loaded > 0;
+    }
 
+    private void deleteSpills() {
+        if (sub != null) {
+            sub.close();
+            sub = null;
+        }
+        if (buildSpills != null) {
+            for (int i = 0; i < PARTITIONS; i++) {
+                if (buildSpills[i] != null) buildSpills[i].delete();
+                if (probeSpills[i] != null) probeSpills[i].delete();
+            }
+        }
+        buildSpills = null;
+        probeSpills = null;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        build();
         super.open();
     }
 
     public void close() {
         super.close();
+        deleteSpills();
         child2.close();
         child1.close();
         this.t1=null;
@@ -90,8 +255,11 @@ public class HashEquiJoin extends Operator {
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        deleteSpills();
+        listIt = null;
         child1.rewind();
         child2.rewind();
+        build();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -116,18 +284,7 @@ public class HashEquiJoin extends Operator {
      */
     private Tuple processList() throws TransactionAbortedException, DbException {
         t1 = listIt.next();
-
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
-
+        return Join.merge(comboTD, t1, t2);
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
@@ -138,10 +295,21 @@ public class HashEquiJoin extends Operator {
         // loop around child2
         while (child2.hasNext()) {
             t2 = child2.next();
+            Object key = t2.getField(pred.getField2());
+            if (buildSpills != null) {
+                int part = partitionOf(key);
+                if (part != 0 || residentSpilled) {
+                    // build侧这个分区是空的就不用写了
+                    if (buildSpills[part].size() > 0) {
+                        spill(probeSpills[part], t2);
+                    }
+                    continue;
+                }
+            }
 
             // if match, create a combined tuple and fill it with the values
             // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
+            ArrayList<Tuple> l = map.get(key);
             if (l == null)
                 continue;
             listIt = l.iterator();
@@ -151,11 +319,41 @@ public class HashEquiJoin extends Operator {
         }
 
         // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
+        if (chunked && loadChunk()) {
+            child2.rewind();
             return fetchNext();
         }
+        map.clear();
+        return joinSpilled();
+    }
 
+    /** Join the spilled partition pairs one after the other. */
+    private Tuple joinSpilled() throws TransactionAbortedException, DbException {
+        while (buildSpills != null) {
+            if (sub != null) {
+                if (sub.hasNext()) {
+                    return sub.next();
+                }
+                sub.close();
+                sub = null;
+                buildSpills[partition - 1].delete();
+                probeSpills[partition - 1].delete();
+            }
+            while (partition < PARTITIONS
+                    && (buildSpills[partition].size() == 0 || probeSpills[partition].size() == 0)) {
+                buildSpills[partition].delete();
+                probeSpills[partition].delete();
+                partition++;
+            }
+            if (partition == PARTITIONS) {
+                deleteSpills();
+                return null;
+            }
+            sub = new HashEquiJoin(pred, buildSpills[partition].scan(), probeSpills[partition].scan(),
+                    memoryTuples, level + 1);
+            sub.open();
+            partition++;
+        }
         return null;
     }
 
@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -13,7 +15,7 @@ import java.util.*;
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
-public class HeapFile implements DbFile {
+public class HeapFile implements DbFile, PageScrubber.Scrubbable {
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -24,6 +26,17 @@ public class HeapFile implements DbFile {
      */
     private File file;
     private TupleDesc tupleDesc;
+    private volatile FileChannel channel;//整个文件共用一个通道，用位置读写
+    private final Object channelLock = new Object();
+    private volatile MappedFile mapped = null;//内存映射读，未开启时为null
+    private volatile CompressedPageStore compressed = null;//压缩存储，未开启时为null
+    private FreeSpaceMap freeSpaceMap = null;//每页还有多少空槽，第一次插入时加载
+    private volatile ZoneMap zoneMap = null;//每页int列的最小最大值，第一次用到时加载
+    private volatile PageChecksums checksums = null;//每页的校验和，第一次读写时加载
+    private volatile int numPages = -1;//写过文件之后由这里记页数，-1表示还没写过
+    private volatile FileExtent.UsedPages usedPages;//上次记在.len里的页数，第一次用到时读
+    private volatile boolean usedPagesLoaded = false;
+    private long fileLength;//文件实际长度，含预分配的零页；只在持有校验和锁时修改
     public HeapFile(File f, TupleDesc td) {
         file = f;
         tupleDesc = td;
@@ -60,16 +73,46 @@ public class HeapFile implements DbFile {
       return tupleDesc;
     }
 
+    /**
+     * Returns the channel all page reads and writes of this file go through,
+     * opening it on first use.  Positional reads and writes do not move a
+     * shared file pointer, so concurrent readers need no synchronization.
+     */
+    private FileChannel getChannel() throws IOException {
+        FileChannel ch = channel;
+        if(ch==null){
+            //不用this加锁：持有校验和锁的写者会走到这里，而插入是先拿this再拿校验和锁
+            synchronized (channelLock){
+                ch = channel;
+                if(ch==null){
+                    RandomAccessFile raf;
+                    try{
+                        raf = new RandomAccessFile(file,"rw");
+                    }
+                    catch (FileNotFoundException e){
+                        //只读的表
+                        raf = new RandomAccessFile(file,"r");
+                    }
+                    ch = raf.getChannel();
+                    channel = ch;
+                }
+            }
+        }
+        return ch;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         byte[] data = new byte[BufferPool.getPageSize()];
         Page page = null;
         try{
-            RandomAccessFile randomAccessFile = new RandomAccessFile(getFile(), "r");
-            int position = pid.getPageNumber()*BufferPool.getPageSize();//在哪页
-            randomAccessFile.seek(position);
-            randomAccessFile.read(data,0,data.length);
-            page = new HeapPage((HeapPageId)pid,data);
+            readPageData(pid.getPageNumber(),data);
+            verifyPageData(pid.getPageNumber(),data);
+            page = createPage((HeapPageId)pid,data);
+        }
+        catch (ChecksumException e){
+            //坏页不能像读失败那样返回null
+            throw new RuntimeException(e);
         }
         catch (Exception e){
             e.printStackTrace();
@@ -77,31 +120,416 @@ public class HeapFile implements DbFile {
         return page;
     }
 
+    /**
+     * Read the bytes of page pgNo straight from the file into data.  Pages
+     * past the end of the file read as zeros.
+     */
+    private void readPageData(int pgNo, byte[] data) throws IOException {
+        long position = (long)pgNo*BufferPool.getPageSize();//在哪页
+        CompressedPageStore c = compressed;
+        if(c!=null){
+            //文件末尾之后的页是空页
+            c.read(pgNo,data);
+            return;
+        }
+        MappedFile m = mapped;
+        if(m!=null){
+            //文件末尾之后的页和通道读一样返回空页
+            m.read(position,data);
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        FileChannel ch = getChannel();
+        //一次read可能读不满一页；文件末尾之后的部分保持为0
+        while(buf.hasRemaining()){
+            if(ch.read(buf,position+buf.position())<0){
+                break;
+            }
+        }
+    }
+
+    /**
+     * Check the bytes of page pgNo against its checksum.  On a mismatch the
+     * page is read again under the checksum lock, which writers hold, and
+     * data is left holding the bytes that were checked.
+     *
+     * @throws ChecksumException if the page does not match its checksum
+     */
+    private void verifyPageData(int pgNo, byte[] data) throws IOException {
+        PageChecksums cs = getChecksums();
+        if(cs.matches(pgNo,data)){
+            return;
+        }
+        synchronized (cs){
+            readPageData(pgNo,data);
+            if(!cs.recheck(pgNo,data)){
+                throw new ChecksumException(file,pgNo);
+            }
+        }
+    }
+
+    /**
+     * Read page pgNo from disk, bypassing the buffer pool, and check it
+     * against its checksum.
+     *
+     * @return false if the file has no page pgNo
+     * @throws ChecksumException if the page does not match its checksum
+     */
+    public boolean verifyPage(int pgNo) throws IOException {
+        if(pgNo>=numPages()){
+            return false;
+        }
+        byte[] data = new byte[BufferPool.getPageSize()];
+        readPageData(pgNo,data);
+        verifyPageData(pgNo,data);
+        return true;
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        int offset = page.getId().getPageNumber();
-//        if(offset>numPages()||offset<0){
-//            throw new IOException();
-//        }
-        FileOutputStream fileOutputStream = new FileOutputStream(file,true);
-        fileOutputStream.write(page.getPageData());
-        fileOutputStream.close();
+        //写到页号对应的位置，而不是追加到文件末尾
+        byte[] data = page.getPageData();
+        int pgNo = page.getId().getPageNumber();
+        PageChecksums cs = getChecksums();
+        //从这里开始由内存记页数；那里要拿this，不能在校验和锁里拿
+        ownPages();
+        //页和它的校验和一起写，校验失败的读者拿同一把锁重读
+        synchronized (cs){
+            CompressedPageStore c = compressed;
+            if(c!=null){
+                c.write(pgNo,data);
+            }
+            else{
+                long offset = (long)pgNo*BufferPool.getPageSize();
+                ByteBuffer buf = ByteBuffer.wrap(data);
+                FileChannel ch = getChannel();
+                if(offset+data.length>fileLength||pgNo>=numPages){
+                    if(offset+data.length>fileLength){
+                        //按区扩展文件，而不是每次追加一页
+                        fileLength = FileExtent.grow(ch,fileLength,offset+data.length,0,BufferPool.getPageSize());
+                    }
+                    //先记下新的页数再写页，重新打开时预分配的零页不算
+                    saveUsedPages(fileLength,Math.max(numPages,pgNo+1));
+                }
+                while(buf.hasRemaining()){
+                    ch.write(buf,offset+buf.position());
+                }
+                if(pgNo>=numPages){
+                    numPages = pgNo+1;
+                }
+            }
+            cs.update(pgNo,data);
+        }
+        //写盘的页是已提交的状态，顺便持久化它的空闲空间
+        FreeSpaceMap fsm = freeSpaceMap;
+        if(fsm!=null&&page instanceof TuplePage){
+            fsm.update(pgNo,((TuplePage)page).getFreeSpace());
+            fsm.save(pgNo);
+        }
+        ZoneMap zm = zoneMap;
+        if(zm!=null&&page instanceof TuplePage){
+            zm.update(pgNo,((TuplePage)page).iterator());
+            zm.save(pgNo);
+        }
+    }
+
+    /**
+     * Construct a page of this file from its bytes.  Subclasses storing
+     * another page format override this together with {@link #pageCapacity}
+     * and {@link #spaceNeeded}.
+     */
+    protected TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new HeapPage(pid,data);
+    }
+
+    /**
+     * @return the free space of an empty page, in the unit of
+     *         {@link TuplePage#getFreeSpace}: the number of tuple slots
+     */
+    protected int pageCapacity() {
+        return (BufferPool.getPageSize()*8)/(tupleDesc.getSize()*8+1);
+    }
+
+    /**
+     * @return the free space inserting t takes on a page: one slot
+     */
+    protected int spaceNeeded(Tuple t) {
+        return 1;
+    }
+
+    /**
+     * Returns the free-space map of this file, loading it from its side
+     * file or rebuilding it from the pages on disk on first use.
+     */
+    synchronized FreeSpaceMap getFreeSpaceMap() throws IOException {
+        if(freeSpaceMap==null){
+            FreeSpaceMap fsm = new FreeSpaceMap(new File(file.getPath()+".fsm"),pageCapacity());
+            int pages = numPages();
+            if(!fsm.load(pages)){
+                //没有或已过期，直接从磁盘读每一页重建，不经过BufferPool也不加锁
+                for(int i=0;i<pages;i++){
+                    TuplePage page = (TuplePage)readPage(new HeapPageId(getId(),i));
+                    fsm.update(i,page.getFreeSpace());
+                }
+                fsm.saveAll();
+            }
+            freeSpaceMap = fsm;
+        }
+        return freeSpaceMap;
+    }
+
+    /**
+     * Reset the free space of a page to that of page, its before-image, after
+     * the transaction that changed it aborted; its inserts and deletes were
+     * recorded in the free-space map before they were committed.
+     */
+    void rolledBack(TuplePage page) {
+        FreeSpaceMap fsm = freeSpaceMap;
+        if(fsm!=null){
+            fsm.update(page.getId().getPageNumber(),page.getFreeSpace());
+        }
+    }
+
+    /**
+     * Returns the zone map of this file, loading it from its side file or
+     * rebuilding it from the pages on disk on first use.
+     *
+     * @return the zone map, or null if the table has no int columns
+     */
+    synchronized ZoneMap getZoneMap() throws IOException {
+        if(zoneMap==null&&ZoneMap.covers(tupleDesc)){
+            ZoneMap zm = new ZoneMap(new File(file.getPath()+".zm"),tupleDesc);
+            int pages = numPages();
+            if(!zm.load(pages,file.lastModified())){
+                for(int i=0;i<pages;i++){
+                    TuplePage page = (TuplePage)readPage(new HeapPageId(getId(),i));
+                    zm.update(i,page.iterator());
+                }
+                zm.saveAll();
+            }
+            zoneMap = zm;
+        }
+        return zoneMap;
+    }
+
+    /**
+     * Returns the page checksums of this file, loading them from their side
+     * file on first use.
+     */
+    PageChecksums getChecksums() throws IOException {
+        PageChecksums cs = checksums;
+        if(cs==null){
+            synchronized (this){
+                cs = checksums;
+                if(cs==null){
+                    cs = new PageChecksums(PageChecksums.sideFile(file));
+                    cs.load();
+                    checksums = cs;
+                }
+            }
+        }
+        return cs;
+    }
+
+    /**
+     * Turn the memory-mapped read path on or off.  When on, readPage copies
+     * pages out of a mapping of the file instead of reading them.
+     *
+     * @see MappedFile
+     */
+    public synchronized void setMemoryMapped(boolean on) throws IOException {
+        if(on&&compressed!=null){
+            throw new IllegalStateException("a compressed table cannot be memory mapped");
+        }
+        if(on&&mapped==null){
+            mapped = new MappedFile(file);
+        }
+        else if(!on&&mapped!=null){
+            mapped.close();
+            mapped = null;
+        }
+    }
+
+    /** @return true if pages are read through a memory mapping */
+    public boolean isMemoryMapped() {
+        return mapped!=null;
+    }
+
+    /**
+     * Turn the compressed page store on or off, converting the file on disk
+     * if it is not in that format yet.  A file that already has a page index
+     * is opened as it is.  Meant to be called when the table is added to the
+     * catalog, while none of its pages are in the buffer pool.
+     *
+     * @see CompressedPageStore
+     */
+    public synchronized void setCompressed(boolean on) throws IOException {
+        if(on==(compressed!=null)){
+            return;
+        }
+        if(on&&mapped!=null){
+            throw new IllegalStateException("a memory mapped table cannot be compressed");
+        }
+        if(on&&numPages()*(long)BufferPool.getPageSize()<file.length()){
+            //预分配的零页不要转成压缩页
+            getChannel().truncate(numPages()*(long)BufferPool.getPageSize());
+        }
+        //换文件之前关掉旧的通道
+        if(channel!=null){
+            channel.close();
+            channel = null;
+        }
+        numPages = -1;
+        //压缩存储自己记页数，转换后文件长度也变了
+        FileExtent.usedPagesFile(file).delete();
+        usedPagesLoaded = false;
+        if(on){
+            if(!CompressedPageStore.isCompressed(file)){
+                if(file.exists()){
+                    CompressedPageStore.compressFile(file,BufferPool.getPageSize(),BufferPool.getPageSize());
+                }
+            }
+            compressed = new CompressedPageStore(file);
+        }
+        else{
+            compressed.close();
+            compressed = null;
+            CompressedPageStore.decompressFile(file);
+        }
+    }
 
-//        RandomAccessFile randomAccessFile = new RandomAccessFile(getFile(), "rw");
-//        randomAccessFile.seek(offset*BufferPool.getPageSize());//找到写的位置
-//        randomAccessFile.write(page.getPageData());
-//        randomAccessFile.close();
+    /** @return true if the pages of this file are stored compressed */
+    public boolean isCompressed() {
+        return compressed!=null;
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Closes the file channel, the mapping and the compressed store of this
+     * HeapFile.  They are reopened if the file is accessed again.
+     */
+    public synchronized void close() throws IOException {
+        if(channel!=null){
+            channel.close();
+            channel = null;
+        }
+        //文件可能在关闭期间被换掉，下次用时重新数页
+        numPages = -1;
+        usedPagesLoaded = false;
+        if(mapped!=null){
+            mapped.close();
+        }
+        if(compressed!=null){
+            compressed.close();
+        }
+        if(freeSpaceMap!=null){
+            freeSpaceMap.close();
+        }
+        if(zoneMap!=null){
+            zoneMap.close();
+        }
+        if(checksums!=null){
+            checksums.close();
+        }
+    }
+
+    /**
+     * Returns the number of pages in this HeapFile.  Once pages have been
+     * written through this HeapFile the count is kept in memory, with no
+     * system call, and the file may be longer than the pages in use since it
+     * grows by whole extents of zeroed pages; from then on this HeapFile must
+     * be the only writer of the file.  Before that the count is the one
+     * recorded by the last HeapFile that added a page, see
+     * {@link FileExtent#saveUsedPages}, while the file still has the length
+     * it had then, and follows the length of the file otherwise.
+     *
+     * @see FileExtent
      */
     public int numPages() {
         //return BufferPool.DEFAULT_PAGES;
-        return (int) (file.length()/BufferPool.getPageSize());
-        //return ;
+        CompressedPageStore c = compressed;
+        if(c!=null){
+            return c.numPages();
+        }
+        int n = numPages;
+        if(n>=0){
+            return n;
+        }
+        long length = file.length();
+        FileExtent.UsedPages u = getUsedPages();
+        if(u!=null&&u.length==length){
+            return u.pages;
+        }
+        return (int) (length/BufferPool.getPageSize());
+    }
+
+    /** @return the page count recorded for the file, loading it on first use */
+    private FileExtent.UsedPages getUsedPages() {
+        //不加锁：校验和锁里也会调numPages，两个线程都读一遍也是同样的结果
+        if(!usedPagesLoaded){
+            try{
+                usedPages = FileExtent.loadUsedPages(file);
+            }
+            catch (IOException e){
+                e.printStackTrace();
+            }
+            usedPagesLoaded = true;
+        }
+        return usedPages;
+    }
+
+    /** Record the page count in the side file, and in memory for numPages. */
+    private void saveUsedPages(long length, int pages) throws IOException {
+        FileExtent.saveUsedPages(file,length,pages);
+        usedPages = new FileExtent.UsedPages(length,pages);
+    }
+
+    /**
+     * Start keeping the number of pages in memory, taking the recorded count
+     * if it still holds and working it out from the length of the file
+     * otherwise.  Trailing pages of zeros are left over from growing the
+     * file by an extent and are not counted; a page of zeros is an empty
+     * page in every page format, so no tuple is lost even if one was
+     * written.
+     */
+    private synchronized int ownPages() {
+        if(numPages<0){
+            long length = file.length();
+            FileExtent.UsedPages u = getUsedPages();
+            int n = (int) (length/BufferPool.getPageSize());
+            if(u!=null&&u.length==length){
+                n = u.pages;
+            }
+            else{
+                byte[] data = new byte[BufferPool.getPageSize()];
+                try{
+                    while(n>0){
+                        readPageData(n-1,data);
+                        if(!isZero(data)){
+                            break;
+                        }
+                        n--;
+                    }
+                }
+                catch (IOException e){
+                    e.printStackTrace();
+                    n = (int) (length/BufferPool.getPageSize());
+                }
+            }
+            fileLength = length;
+            numPages = n;
+        }
+        return numPages;
+    }
+
+    private static boolean isZero(byte[] data) {
+        for(byte b : data){
+            if(b!=0){
+                return false;
+            }
+        }
+        return true;
     }
 
     // see DbFile.java for javadocs
@@ -109,66 +537,240 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         ArrayList<Page> heapPages = new ArrayList<>();
-        boolean inserted = false;
-        for(int i=0;i<numPages();++i) {
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        ZoneMap zm = getZoneMap();
+        int need = spaceNeeded(t);
+        //只看空闲空间表里放得下的页，不再逐页加锁读取
+        for(int i=fsm.findPage(0,need);i>=0;i=fsm.findPage(i+1,need)) {
             HeapPageId heapPageId = new HeapPageId(getId(), i);
-            HeapPage insertedPage =(HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
+            TuplePage insertedPage =(TuplePage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
             //获取该页
-            BufferPool.PageLock pageLock = Database.getBufferPool().pageLock;
-            int empty = insertedPage.getNumEmptySlots();
-            if (insertedPage.getNumEmptySlots() != 0) {
+            if (insertedPage.getFreeSpace() >= need) {
                 //有空间，可以插入
                 insertedPage.insertTuple(t);
                 heapPages.add(insertedPage);
                 insertedPage.markDirty(true,tid);
-                inserted = true;
+                fsm.update(i,insertedPage.getFreeSpace());
+                if(zm!=null){
+                    //马上放宽范围，本事务之后的扫描才不会跳过这一页
+                    zm.include(i,t);
+                }
                 return heapPages;
             }
             else {
-                //先把原先的锁去掉
+                //表过期了，纠正后把原先的锁去掉
+                fsm.update(i,insertedPage.getFreeSpace());
                 Database.getBufferPool().releasePage(tid,(PageId)heapPageId);
             }
         }
-        if(!inserted){
-            //需要新开一张page
-            HeapPageId heapPageId = new HeapPageId(getId(), numPages());
-            HeapPage insertedPage = null;
+        //需要新开一张page
+        HeapPageId heapPageId;
+        synchronized (this){
+            //两个事务同时追加时不能拿到同一个页号
+            heapPageId = new HeapPageId(getId(), numPages());
+            writePage(createPage(heapPageId, HeapPage.createEmptyPageData()));
+        }
+        TuplePage newPage = (TuplePage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
+        //取回一定要走bufferpool，为了加锁
+        newPage.insertTuple(t);
+        newPage.markDirty(true,tid);//标识脏
+        fsm.update(heapPageId.getPageNumber(),newPage.getFreeSpace());
+        if(zm!=null){
+            zm.include(heapPageId.getPageNumber(),t);
+        }
+        heapPages.add(newPage);
+        return heapPages;
+        // not necessary for lab1
+    }
 
-            byte[] newByte = HeapPage.createEmptyPageData();//是静态方法
-            insertedPage = new HeapPage(heapPageId,newByte);
-            //curNum++;
-            synchronized (heapPages){
+    /**
+     * Compact this file online: move the tuples of the last pages into the
+     * empty slots of earlier pages and cut the pages left empty off the end
+     * of the file, so that scans no longer read them.  Runs beside other
+     * transactions: each step is a transaction of its own that moves the
+     * tuples of the last page under exclusive locks on it and on the pages
+     * it fills, giving the moved tuples new RecordIds, and commits after at
+     * most {@link #VACUUM_BATCH_PAGES} pages; the empty pages at the end are
+     * truncated while locked.  A step that aborts, e.g. in a deadlock with
+     * another transaction, ends the vacuum with the steps committed so far.
+     * <p>
+     * A memory-mapped file is not truncated but its empty pages are zeroed,
+     * like the zeroed pages a file grows by, and no longer counted.  A
+     * compressed file is compacted but keeps its pages.
+     *
+     * @return the number of pages the file shrank by
+     */
+    public int vacuum() throws DbException, IOException {
+        int before = numPages();
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        ZoneMap zm = getZoneMap();
+        while(true){
+            int tail = numPages()-1;
+            if(tail<=0){
+                break;
+            }
+            TransactionId tid = new TransactionId();
+            boolean progress;
+            try{
+                TuplePage page = (TuplePage)Database.getBufferPool().getPage(tid,new HeapPageId(getId(),tail),Permissions.READ_WRITE);
+                if(page.iterator().hasNext()){
+                    progress = moveTuples(tid,page,fsm,zm);
+                }
+                else{
+                    progress = truncateEmptyPages(tid,tail);
+                }
+                Database.getBufferPool().transactionComplete(tid);
+            }
+            catch (TransactionAbortedException e){
+                //已经提交的步骤都有效
+                Database.getBufferPool().transactionComplete(tid,false);
+                break;
+            }
+            if(!progress){
+                break;
+            }
+        }
+        return before-numPages();
+    }
+
+    /** Most pages one step of {@link #vacuum} fills before it commits. */
+    public static final int VACUUM_BATCH_PAGES = 16;
 
-                HeapPage newPage = new HeapPage(new HeapPageId(getId(), numPages()),
-                        HeapPage.createEmptyPageData());
-                writePage(newPage);
-                newPage = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
-                //取回一定要走bufferpool，为了加锁
-                newPage.insertTuple(t);
-                newPage.markDirty(true,tid);//标识脏
-                heapPages.add(newPage);
+    /**
+     * Move the tuples of the last page, locked by tid, into the first pages
+     * with room.
+     *
+     * @return false if the pages before it have no room left
+     */
+    private boolean moveTuples(TransactionId tid, TuplePage page, FreeSpaceMap fsm, ZoneMap zm)
+            throws DbException, TransactionAbortedException {
+        int tail = page.getId().getPageNumber();
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        page.iterator().forEachRemaining(tuples::add);
+        TuplePage target = null;
+        int next = 0;
+        int filled = 0;
+        for(Tuple t : tuples){
+            int need = spaceNeeded(t);
+            while(target==null||target.getFreeSpace()<need){
+                if(filled==VACUUM_BATCH_PAGES){
+                    //不偷脏页，一个事务只弄脏有限的页；提交后下一步接着搬这一页
+                    return true;
+                }
+                int i = fsm.findPage(next,need);
+                if(i<0||i>=tail){
+                    return false;
+                }
+                next = i+1;
+                HeapPageId pid = new HeapPageId(getId(),i);
+                target = (TuplePage)Database.getBufferPool().getPage(tid,pid,Permissions.READ_WRITE);
+                if(target.getFreeSpace()<need){
+                    //表过期了，和插入一样纠正后放掉锁
+                    fsm.update(i,target.getFreeSpace());
+                    Database.getBufferPool().releasePage(tid,pid);
+                    target = null;
+                }
+                else{
+                    filled++;
+                }
+            }
+            //元组可能是页上数据的视图，先复制一份插入，拿到新的RecordId，再按旧的删掉
+            Tuple moved = new Tuple(t.getTupleDesc());
+            for(int f=0;f<moved.getTupleDesc().numFields();f++){
+                moved.setField(f,t.getField(f));
+            }
+            target.insertTuple(moved);
+            page.deleteTuple(t);
+            target.markDirty(true,tid);
+            page.markDirty(true,tid);
+            int pgNo = target.getId().getPageNumber();
+            fsm.update(pgNo,target.getFreeSpace());
+            fsm.update(tail,page.getFreeSpace());
+            if(zm!=null){
+                zm.include(pgNo,moved);
             }
+        }
+        return true;
+    }
 
+    /**
+     * Cut the empty pages off the end of the file.  tid holds an exclusive
+     * lock on the empty last page; the empty pages before it are locked
+     * too, so nobody reads or writes them while they go.
+     *
+     * @return false if the file cannot be truncated
+     */
+    private boolean truncateEmptyPages(TransactionId tid, int tail)
+            throws DbException, TransactionAbortedException, IOException {
+        if(compressed!=null){
+            return false;
         }
-        return heapPages;
-        // not necessary for lab1
+        int first = tail;
+        while(first>1){
+            TuplePage page = (TuplePage)Database.getBufferPool().getPage(tid,new HeapPageId(getId(),first-1),Permissions.READ_WRITE);
+            if(page.iterator().hasNext()){
+                break;
+            }
+            first--;
+        }
+        //锁着的空页是干净的；discardPage要拿BufferPool的锁，写盘时是先拿它再拿this，所以在this外面丢
+        for(int i=first;i<=tail;i++){
+            Database.getBufferPool().discardPage(new HeapPageId(getId(),i));
+        }
+        PageChecksums cs = getChecksums();
+        ownPages();
+        synchronized (this){
+            if(numPages()!=tail+1){
+                //别的事务刚追加了页，下一步从新的末页开始
+                return true;
+            }
+            synchronized (cs){
+                int pageSize = BufferPool.getPageSize();
+                long length = (long)first*pageSize;
+                FileChannel ch = getChannel();
+                if(mapped!=null){
+                    //映射的文件不能截短，空页清零，重新打开时和预分配的零页一样不计数
+                    ByteBuffer zeros = ByteBuffer.allocate((tail+1-first)*pageSize);
+                    while(zeros.hasRemaining()){
+                        ch.write(zeros,length+zeros.position());
+                    }
+                }
+                else{
+                    ch.truncate(length);
+                    fileLength = length;
+                }
+                saveUsedPages(fileLength,first);
+                numPages = first;
+                cs.truncate(first);
+            }
+            if(freeSpaceMap!=null){
+                freeSpaceMap.truncate(first);
+            }
+            if(zoneMap!=null){
+                zoneMap.truncate(first);
+            }
+        }
+        return true;
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
-            TransactionAbortedException {
+            IOException, TransactionAbortedException {
         ArrayList<Page> heapPages = new ArrayList<>();
         PageId heapPageId = t.getRecordId().getPageId();//获取该元组所在的pageId
         boolean exist = false;
         for(int i=0;i<numPages();++i){
             if(heapPageId.getPageNumber()==i){
                 //是这张表
-                HeapPage deletedPage = null;
-                deletedPage = (HeapPage)Database.getBufferPool().getPage(tid,heapPageId,Permissions.READ_WRITE);
+                TuplePage deletedPage = null;
+                deletedPage = (TuplePage)Database.getBufferPool().getPage(tid,heapPageId,Permissions.READ_WRITE);
                 //获取该页
                 deletedPage.deleteTuple(t);
                 heapPages.add(deletedPage);
                 deletedPage.markDirty(true,tid);
+                getFreeSpaceMap().update(i,deletedPage.getFreeSpace());
+                //删除只会让范围偏宽；加载区域映射，写盘时就会按页上的值收窄
+                getZoneMap();
                 //这里会检查元组的存在性
             }
         }
@@ -177,12 +779,48 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid,null);
+    }
+
+    /**
+     * Returns an iterator over all the tuples of this file that reads pages
+     * missing from the buffer pool through the given bulk-read ring.
+     *
+     * @param strategy the ring to use, or null to read through the shared pool
+     * @see BufferAccessStrategy
+     */
+    public DbFileIterator iterator(TransactionId tid, BufferAccessStrategy strategy) {
+        return iterator(tid,strategy,null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that skips the pages
+     * the zone map shows cannot hold a tuple satisfying p.  The tuples of
+     * the pages it does read are all returned, matching p or not.
+     *
+     * @param strategy the ring to use, or null to read through the shared pool
+     * @param p        the predicate to skip pages by, or null to read all pages
+     * @see ZoneMap
+     */
+    public DbFileIterator iterator(TransactionId tid, BufferAccessStrategy strategy, Predicate p) {
+        ZoneMap zm = null;
+        if(p!=null&&p.getOperand() instanceof IntField){
+            try{
+                zm = getZoneMap();
+            }
+            catch (IOException e){
+                //没有区域映射就读所有页
+                e.printStackTrace();
+            }
+        }
+        final ZoneMap zones = zm;
         class dbfileIterator implements DbFileIterator{
 
             int position=0;
             TransactionId transactionId;
             Iterator<Tuple> tupleIterator;//用来遍历页内元组
             HeapPageId heapPageId;
+            ReadAhead readAhead;//顺序预读，未开启时为null
             public dbfileIterator(TransactionId transactionId) throws TransactionAbortedException, DbException {
                 this.transactionId = transactionId;
                 tupleIterator=null;
@@ -191,9 +829,37 @@ public class HeapFile implements DbFile {
 
             @Override
             public void open() throws DbException, TransactionAbortedException{
-                position = 0;
+                position = nextPage(0);
+                readAhead = Database.getBufferPool().newReadAhead(strategy, page -> {
+                    int pgNo = nextPage(page.getId().getPageNumber()+1);
+                    return pgNo<numPages() ? new HeapPageId(getId(),pgNo) : null;
+                });
+                if(position>0&&position>=numPages()){
+                    //所有页都被跳过
+                    tupleIterator = null;
+                    return;
+                }
                 heapPageId = new HeapPageId(getId(),position);
-                tupleIterator = ((HeapPage)Database.getBufferPool().getPage(transactionId, heapPageId,Permissions.READ_WRITE)).iterator();
+                tupleIterator = fetch(heapPageId,Permissions.READ_WRITE);
+            }
+
+            /** @return the first page at or after from that may hold a match */
+            private int nextPage(int from) {
+                if(zones!=null){
+                    int pages = numPages();
+                    while(from<pages&&!zones.mayMatch(from,p)){
+                        from++;
+                    }
+                }
+                return from;
+            }
+
+            private Iterator<Tuple> fetch(HeapPageId pid, Permissions perm) throws TransactionAbortedException, DbException {
+                TuplePage page = (TuplePage)Database.getBufferPool().getPage(transactionId, pid,perm,strategy);
+                if(readAhead!=null){
+                    readAhead.accessed(page);
+                }
+                return page.iterator();
             }
 
             @Override
@@ -202,19 +868,18 @@ public class HeapFile implements DbFile {
                 //case 1
                 if(tupleIterator==null)
                     return false;
-                if(tupleIterator.hasNext())
-                    return true;
-                //case 2
-                //int size = curNum;
-                int size = (Database.getBufferPool().pageMap.keySet().size());
-                if(position<numPages()-1){
+                //case 2，跳过空页和区域映射排除的页
+                while(!tupleIterator.hasNext()){
+                    int pgNo = nextPage(position+1);
+                    if(pgNo>=numPages()){
+                        return false;
+                    }
                     //还可以跨页读
-                    position++;
+                    position = pgNo;
                     heapPageId = new HeapPageId(getId(),position);
-                    tupleIterator = ((HeapPage)Database.getBufferPool().getPage(transactionId, heapPageId,Permissions.READ_ONLY)).iterator();
-                    return tupleIterator.hasNext();
+                    tupleIterator = fetch(heapPageId,Permissions.READ_ONLY);
                 }
-                return false;
+                return true;
             }
 
             @Override
@@ -236,6 +901,7 @@ public class HeapFile implements DbFile {
             public void close() {
                 position =0;
                 tupleIterator = null;
+                readAhead = null;
 
             }
         }
@@ -106,6 +106,11 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    // the pages are written without checksums; forget those and the maps of an old file
+    PageChecksums.sideFile(outFile).delete();
+    FileExtent.usedPagesFile(outFile).delete();
+    new File(outFile.getPath() + ".fsm").delete();
+    new File(outFile.getPath() + ".zm").delete();
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
@@ -0,0 +1,212 @@
+package simpledb;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * HeapFileLoader bulk loads a delimited text file into a new heap file in a
+ * single streaming pass, for inputs too large for {@link HeapFileEncoder}.
+ * <p>
+ * The calling thread reads the input in chunks of lines that fill a fixed
+ * number of pages.  A pool of workers parses the chunks and encodes them
+ * into HeapPage bytes, together with the page checksums, while the caller
+ * keeps reading.  The caller writes the encoded chunks in input order, each
+ * with one large sequential write, and only a few chunks are in memory at a
+ * time, so the input may be much larger than memory.  At the end the table
+ * is added to the catalog and its TableStats are registered.
+ * <p>
+ * Every page but the last is full, so the file is the same as the one
+ * HeapFileEncoder writes for the same input, unless the input is empty:
+ * then the file has no pages at all.  Unlike HeapFileEncoder, a
+ * line that does not parse stops the load.
+ */
+public class HeapFileLoader {
+
+    /** Default number of pages encoded by one task. */
+    public static final int DEFAULT_CHUNK_PAGES = 256;
+
+    private final TupleDesc td;
+    private final char fieldSeparator;
+    private final int threads;
+    private final int chunkPages;
+    private final int tuplesPerPage;
+    private final int headerBytes;
+
+    /**
+     * @param td             the schema of the rows
+     * @param fieldSeparator the character between fields
+     * @param threads        the number of encoding workers
+     * @param chunkPages     the number of pages encoded by one task
+     */
+    public HeapFileLoader(TupleDesc td, char fieldSeparator, int threads, int chunkPages) {
+        if (threads < 1 || chunkPages < 1) {
+            throw new IllegalArgumentException("threads and chunkPages must be positive");
+        }
+        this.td = td;
+        this.fieldSeparator = fieldSeparator;
+        this.threads = threads;
+        this.chunkPages = chunkPages;
+        //和HeapPage的页面格式一致
+        this.tuplesPerPage = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        this.headerBytes = (tuplesPerPage + 7) / 8;
+    }
+
+    /**
+     * A loader for comma separated input using one worker per processor.
+     */
+    public HeapFileLoader(TupleDesc td) {
+        this(td, ',', Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_PAGES);
+    }
+
+    /** The pages encoded from one chunk of lines. */
+    private static class Chunk {
+        final byte[] pages;
+        final int[] checksums;
+
+        Chunk(byte[] pages, int[] checksums) {
+            this.pages = pages;
+            this.checksums = checksums;
+        }
+    }
+
+    /**
+     * Load inFile into a new heap file outFile, replacing it if it exists,
+     * and add it to the catalog as tableName.
+     *
+     * @return the new table
+     * @throws IOException if a file cannot be read or written, or a line of
+     *         the input does not parse
+     */
+    public HeapFile load(File inFile, File outFile, String tableName) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+        int rowsPerChunk = tuplesPerPage * chunkPages;
+        // the pages are written here with their checksums; drop the maps of an old file
+        new File(outFile.getPath() + ".fsm").delete();
+        new File(outFile.getPath() + ".zm").delete();
+        FileExtent.usedPagesFile(outFile).delete();
+        try (BufferedReader in = new BufferedReader(new FileReader(inFile), 1 << 20);
+             RandomAccessFile out = new RandomAccessFile(outFile, "rw");
+             DataOutputStream crc = new DataOutputStream(new BufferedOutputStream(
+                     new FileOutputStream(PageChecksums.sideFile(outFile))))) {
+            out.setLength(0);
+            FileChannel ch = out.getChannel();
+            long rowNo = 0;
+            while (true) {
+                String[] lines = new String[rowsPerChunk];
+                int n = 0;
+                String line;
+                while (n < rowsPerChunk && (line = in.readLine()) != null) {
+                    //跳过空行，和HeapFileEncoder一样
+                    if (!line.trim().isEmpty()) {
+                        lines[n++] = line;
+                    }
+                }
+                if (n == 0) {
+                    break;
+                }
+                final int rows = n;
+                final long firstRow = rowNo;
+                rowNo += rows;
+                pending.add(pool.submit(() -> encode(lines, rows, firstRow)));
+                //在途的块有上限，输入再大内存也是有界的
+                if (pending.size() >= threads * 2) {
+                    write(ch, crc, pending.poll());
+                }
+            }
+            while (!pending.isEmpty()) {
+                write(ch, crc, pending.poll());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        HeapFile hf = new HeapFile(outFile, td);
+        Database.getCatalog().addTable(hf, tableName);
+        TableStats.setTableStats(tableName, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        return hf;
+    }
+
+    private static void write(FileChannel ch, DataOutputStream crc, Future<Chunk> f) throws IOException {
+        Chunk chunk;
+        try {
+            chunk = f.get();
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted while loading", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        ByteBuffer buf = ByteBuffer.wrap(chunk.pages);
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+        for (int c : chunk.checksums) {
+            crc.writeInt(c);
+        }
+    }
+
+    /**
+     * Encode rows lines into HeapPages.
+     *
+     * @param firstRow the number of rows before these in the input, for errors
+     */
+    private Chunk encode(String[] lines, int rows, long firstRow) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int pages = (rows + tuplesPerPage - 1) / tuplesPerPage;
+        byte[] data = new byte[pages * pageSize];
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        int numFields = td.numFields();
+        for (int r = 0; r < rows; r++) {
+            int page = r / tuplesPerPage;
+            int slot = r % tuplesPerPage;
+            int base = page * pageSize;
+            data[base + slot / 8] |= (byte) (1 << (slot % 8));
+            bb.position(base + headerBytes + slot * td.getSize());
+            String line = lines[r];
+            int start = 0;
+            for (int i = 0; i < numFields; i++) {
+                int end = i < numFields - 1 ? line.indexOf(fieldSeparator, start) : line.length();
+                if (end < 0) {
+                    throw new IOException("row " + (firstRow + r + 1) + " has fewer than "
+                            + numFields + " fields: " + line);
+                }
+                String s = line.substring(start, end).trim();
+                start = end + 1;
+                if (td.getFieldType(i) == Type.INT_TYPE) {
+                    try {
+                        bb.putInt(Integer.parseInt(s));
+                    } catch (NumberFormatException e) {
+                        throw new IOException("bad int on row " + (firstRow + r + 1) + ": " + line, e);
+                    }
+                } else {
+                    //和StringField一样截断到STRING_LEN，只取每个字符的低字节
+                    int len = Math.min(s.length(), Type.STRING_LEN);
+                    bb.putInt(len);
+                    for (int k = 0; k < len; k++) {
+                        bb.put((byte) s.charAt(k));
+                    }
+                }
+            }
+        }
+        int[] checksums = new int[pages];
+        for (int p = 0; p < pages; p++) {
+            checksums[p] = PageChecksums.checksum(data, p * pageSize, pageSize);
+        }
+        return new Chunk(data, checksums);
+    }
+}
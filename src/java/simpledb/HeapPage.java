@@ -11,28 +11,20 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
     final Tuple tuples[];
     final int numSlots;
+    final byte data[];//读入时的原始字节，元组按需从这里解码
+    final int tupleSize;
 
     byte[] oldData;
     private final Byte oldDataLock=new Byte((byte)0);
     boolean isDirty = false;
     TransactionId dirtyTID;
-    int usedTimes = 0;
-
-    public int getUsedTimes() {
-        return usedTimes;
-    }
-
-    public void setUsedTimes(int usedTimes) {
-        this.usedTimes = usedTimes;
-    }
-
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
@@ -53,22 +45,15 @@ public class HeapPage implements Page {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.tupleSize = td.getSize();
+        this.data = data;
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        System.arraycopy(data, 0, header, 0, header.length);
+
+        // tuples are views on data that are created when they are first read
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
 
         setBeforeImage();
     }
@@ -125,37 +110,44 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Return the tuple in a used slot, creating it from the bytes of the slot
+     * if it has not been read or replaced yet.  Several transactions holding
+     * shared locks may read the page at once, so the cache of tuples is only
+     * read and filled under the page's monitor; the tuples it hands out are
+     * then safely published.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private synchronized Tuple getTuple(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new Tuple(td, data, header.length + slotId * tupleSize);
+            t.setRecordId(new RecordId(pid, slotId));
+            tuples[slotId] = t;
         }
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+    /**
+     * Append the used slots from slot from on to batch, as many as fit.  Slots
+     * that were never read as tuples are copied from the page bytes, so their
+     * int values need no Field objects; tuples that were read, inserted or
+     * replaced are added as they are.
+     *
+     * @return the slot to continue from, numSlots once the page is done
+     */
+    synchronized int fillBatch(int from, TupleBatch batch) {
+        int slot = from;
+        for (; slot < numSlots && !batch.isFull(); slot++) {
+            if (!isSlotUsed(slot)) {
+                continue;
+            }
+            Tuple t = tuples[slot];
+            if (t != null) {
+                batch.addTuple(t);
+            } else {
+                batch.addSerialized(data, header.length + slot * tupleSize);
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
         }
-
-        return t;
+        return slot;
     }
 
     /**
@@ -200,6 +192,16 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // non-empty slot that was never read: copy its bytes unchanged
+            if (tuples[i] == null) {
+                try {
+                    dos.write(data, header.length + i * tupleSize, tupleSize);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
@@ -323,6 +325,13 @@ public class HeapPage implements Page {
         return result;
     }
 
+    /**
+     * Returns the number of empty slots on this page; every tuple takes one.
+     */
+    public int getFreeSpace() {
+        return getNumEmptySlots();
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
@@ -375,7 +384,7 @@ public class HeapPage implements Page {
                    index++;
                }
                position++;//记录有多少个非空的
-               return tuples[index++];
+               return getTuple(index++);
            }
        }
        return new tupleIterator();
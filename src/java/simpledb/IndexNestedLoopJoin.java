@@ -0,0 +1,233 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins each outer (left) tuple with the inner tuples
+ * found by a lookup in the B+ tree index of the inner table, instead of
+ * scanning the inner table.  The inner child must be a scan of a
+ * {@link BTreeFile} keyed on the join field, optionally under filters (see
+ * {@link #canProbe}); it is never opened, but its predicates are applied to
+ * the tuples found.
+ * <p>
+ * The outer tuples are read in batches and each batch is probed in order
+ * of its keys, so that consecutive lookups go down to the same or nearby
+ * leaves while they are still in the buffer pool.  The output is in order
+ * of the join key within each batch.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The default number of outer tuples sorted and probed together. */
+    public static final int DEFAULT_BATCH_TUPLES = 1024;
+
+    private JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int batchTuples;
+    private final TransactionId tid;
+    private final int innerTableId;
+    private final Predicate.Op indexOp;
+    private final ArrayList<Predicate> innerPredicates = new ArrayList<Predicate>();
+    transient private ArrayList<Tuple> batch;
+    transient private int batchPos;
+    transient private Tuple t1;
+    transient private DbFileIterator probe;
+
+    private final Comparator<Tuple> keyOrder = new Comparator<Tuple>() {
+        public int compare(Tuple a, Tuple b) {
+            return ExternalSort.compare(a.getField(pred.getField1()), b.getField(pred.getField1()));
+        }
+    };
+
+    /**
+     * @param p           the predicate to join the children on
+     * @param child1      iterator for the left(outer) relation to join
+     * @param child2      the scan of the inner relation; canProbe(child2, p)
+     *                    must hold
+     * @param batchTuples the number of outer tuples sorted and probed
+     *                    together, 1 to probe in the order of child1
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int batchTuples) {
+        if (!canProbe(child2, p)) {
+            throw new IllegalArgumentException("the inner child is not an index scan on the join field");
+        }
+        if (batchTuples < 1) {
+            throw new IllegalArgumentException("a batch holds at least one tuple");
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.batchTuples = batchTuples;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        OpIterator it = child2;
+        while (it instanceof Filter) {
+            innerPredicates.add(((Filter) it).getPredicate());
+            it = ((Filter) it).getChildren()[0];
+        }
+        SeqScan scan = (SeqScan) it;
+        if (scan.getPredicate() != null) {
+            innerPredicates.add(scan.getPredicate());
+        }
+        tid = scan.getTransactionId();
+        innerTableId = scan.getTableId();
+        indexOp = innerOp(p.getOperator());
+    }
+
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_BATCH_TUPLES);
+    }
+
+    /**
+     * @return true if inner is a SeqScan of a B+ tree file keyed on the second
+     *         field of p, possibly under Filters, and the operator of p can be
+     *         looked up in the index
+     */
+    public static boolean canProbe(OpIterator inner, JoinPredicate p) {
+        if (innerOp(p.getOperator()) == null) {
+            return false;
+        }
+        while (inner instanceof Filter) {
+            inner = ((Filter) inner).getChildren()[0];
+        }
+        if (!(inner instanceof SeqScan)) {
+            return false;
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) inner).getTableId());
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == p.getField2();
+    }
+
+    /**
+     * @return the operator op' such that outer op inner holds iff inner op'
+     *         outer does, or null if the index cannot look it up
+     */
+    private static Predicate.Op innerOp(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+                return Predicate.Op.EQUALS;
+            case LESS_THAN:
+                return Predicate.Op.GREATER_THAN;
+            case LESS_THAN_OR_EQ:
+                return Predicate.Op.GREATER_THAN_OR_EQ;
+            case GREATER_THAN:
+                return Predicate.Op.LESS_THAN;
+            case GREATER_THAN_OR_EQ:
+                return Predicate.Op.LESS_THAN_OR_EQ;
+            default:
+                return null;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        batch = new ArrayList<Tuple>();
+        batchPos = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        closeProbe();
+        child1.close();
+        batch = null;
+        t1 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeProbe();
+        child1.rewind();
+        batch.clear();
+        batchPos = 0;
+    }
+
+    private void closeProbe() {
+        if (probe != null) {
+            probe.close();
+            probe = null;
+        }
+    }
+
+    /** Read the next batch of outer tuples and sort it on the join field. */
+    private boolean loadBatch() throws DbException, TransactionAbortedException {
+        batch.clear();
+        batchPos = 0;
+        while (batch.size() < batchTuples && child1.hasNext()) {
+            batch.add(child1.next());
+        }
+        if (batchTuples > 1) {
+            Collections.sort(batch, keyOrder);
+        }
+        return !batch.isEmpty();
+    }
+
+    private boolean matches(Tuple t2) {
+        for (Predicate p : innerPredicates) {
+            if (!p.filter(t2)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (probe != null) {
+                while (probe.hasNext()) {
+                    Tuple t2 = probe.next();
+                    if (matches(t2)) {
+                        return Join.merge(comboTD, t1, t2);
+                    }
+                }
+                closeProbe();
+            }
+            if (batchPos == batch.size() && !loadBatch()) {
+                return null;
+            }
+            t1 = batch.get(batchPos++);
+            BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(innerTableId);
+            probe = f.indexIterator(tid, new IndexPredicate(indexOp, t1.getField(pred.getField1())));
+            probe.open();
+        }
+    }
+
+    /**
+     * @return the estimated number of pages read by one lookup in f: one
+     *         page per level of the tree, plus the root pointer page
+     */
+    public static double pagesPerProbe(BTreeFile f) {
+        TupleDesc td = f.getTupleDesc();
+        // 内部页每项是一个键加一个子页号
+        int fanout = Math.max(2, BufferPool.getPageSize() / (td.getFieldType(f.keyField()).getLen() + 4));
+        int pages = Math.max(1, f.numPages());
+        return 2 + Math.ceil(Math.log(pages) / Math.log(fanout));
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
@@ -32,7 +32,7 @@ public class Insert extends Operator {
             throws DbException, TransactionAbortedException {
         // some code goes here
         BufferPool bufferPool = Database.getBufferPool();
-        for(Page page : bufferPool.pageMap.values()){
+        for(Page page : bufferPool.getCachedPages()){
             if(page.getId().getTableId()==tableId){
                 if(!child.getTupleDesc().equals(Database.getCatalog().getTupleDesc(tableId))){
                     // 之前留下的隐患
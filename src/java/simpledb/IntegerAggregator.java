@@ -1,7 +1,5 @@
 package simpledb;
 
-import javafx.util.Pair;
-
 import java.util.*;
 
 /**
@@ -87,7 +85,7 @@ public class IntegerAggregator implements Aggregator {
             iagTuple.setField(0,tup.getField(aggreField));
             ngCount+=1;
             ngSum+=((IntField)(tup.getField(aggreField))).getValue();
-            if(tupleList.size()==0){
+            if(ngCount==1){
                 //当前组内空
                 ngMax = ((IntField)(tup.getField(aggreField))).getValue();
                 ngMin = ((IntField)(tup.getField(aggreField))).getValue();
@@ -207,6 +205,63 @@ public class IntegerAggregator implements Aggregator {
 
     }
 
+    /**
+     * Merge the first n values of the aggregate column into the aggregate
+     * at once, as handed out by {@link ColumnScan}.  Only supported without
+     * grouping.
+     *
+     * @param values
+     *            the values of the aggregate field
+     * @param n
+     *            the number of valid values
+     */
+    public void mergeColumn(int[] values, int n) {
+        if(!notGroup){
+            throw new IllegalStateException("mergeColumn needs NO_GROUPING");
+        }
+        if(n==0){
+            return;
+        }
+        int min = values[0];
+        int max = values[0];
+        int sum = 0;
+        for(int i=0;i<n;i++){
+            int v = values[i];
+            sum+=v;
+            if(v<min) min = v;
+            if(v>max) max = v;
+        }
+        if(ngCount==0){
+            ngMin = min;
+            ngMax = max;
+        }
+        else{
+            ngMin = Math.min(ngMin,min);
+            ngMax = Math.max(ngMax,max);
+        }
+        ngCount+=n;
+        ngSum+=sum;
+        switch (aggreOp){
+            case MIN:
+                ngValue = ngMin;
+                break;
+            case MAX:
+                ngValue = ngMax;
+                break;
+            case SUM:
+                ngValue = ngSum;
+                break;
+            case COUNT:
+                ngValue = ngCount;
+                break;
+            case AVG:
+                ngValue = ngSum/ngCount;
+                break;
+            default:
+                break;
+        }
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      * 
@@ -1,7 +1,5 @@
 package simpledb;
 
-import com.sun.deploy.security.SelectableSecurityManager;
-
 import java.util.*;
 
 /**
@@ -26,11 +24,13 @@ public class Join extends Operator {
     private OpIterator joinOp1;
     private OpIterator joinOp2;
     private Tuple t1 = null;
+    private TupleDesc comboTD;//合并后的TupleDesc，只算一次
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
         // some code goes here
         joinP = p;
         joinOp1 = child1;
         joinOp2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(),child2.getTupleDesc());
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -64,7 +64,7 @@ public class Join extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return TupleDesc.merge(joinOp1.getTupleDesc(),joinOp2.getTupleDesc());
+        return comboTD;
     }
 
     public void open() throws DbException, NoSuchElementException,
@@ -119,16 +119,7 @@ public class Join extends Operator {
                 Tuple t2 = joinOp2.next();
                 if(t1!=null&&t2!=null){
                     if(joinP.filter(t1,t2)){
-                        TupleDesc td3 = TupleDesc.merge(t1.getTupleDesc(),t2.getTupleDesc());
-                        //这里有问题，需要合并
-                        Tuple t3 = new Tuple(td3);
-                        for(int i=0;i<t1.getTupleDesc().numFields();i++){
-                            t3.setField(i,t1.getField(i));
-                        }
-                        for(int i=0;i<t2.getTupleDesc().numFields();i++){
-                            t3.setField(i+t1.getTupleDesc().numFields(),t2.getField(i));
-                        }
-                        return  t3;
+                        return merge(comboTD,t1,t2);
                     }
                 }
             }
@@ -141,6 +132,21 @@ public class Join extends Operator {
         return null;
     }
 
+    /**
+     * @return the concatenation of t1 and t2, with TupleDesc comboTD
+     */
+    static Tuple merge(TupleDesc comboTD, Tuple t1, Tuple t2) {
+        Tuple t3 = new Tuple(comboTD);
+        int n1 = t1.getTupleDesc().numFields();
+        for(int i=0;i<n1;i++){
+            t3.setField(i,t1.getField(i));
+        }
+        for(int i=0;i<t2.getTupleDesc().numFields();i++){
+            t3.setField(i+n1,t2.getField(i));
+        }
+        return t3;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
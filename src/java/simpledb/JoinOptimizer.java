@@ -68,12 +68,35 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        if (IndexNestedLoopJoin.canProbe(plan2, p) && isFiltered(plan1)) {
+            //外表经过筛选，行数少，逐个到内表的B+树里查；和probesIndex是同一条规则
+            j = new IndexNestedLoopJoin(p,plan1,plan2);
+        } else if (lj.p == Predicate.Op.EQUALS && SortMergeJoin.isSortedOn(plan1, t1id)
+                && SortMergeJoin.isSortedOn(plan2, t2id)) {
+            //两边已经按连接字段有序，直接归并，不用哈希
+            j = new SortMergeJoin(p,plan1,plan2);
+        } else if (lj.p == Predicate.Op.EQUALS) {
+            //等值连接用混合哈希连接，左边建表
+            j = new HashEquiJoin(p,plan1,plan2);
+        } else {
+            //块嵌套循环，每个外表块只扫一遍内表
+            j = new BlockNestedLoopJoin(p,plan1,plan2);
+        }
 
         return j;
 
     }
 
+    /**
+     * @return true if plan applies a selection directly to a scan; without
+     *         statistics this is what marks an outer side as selective.  This
+     *         is the physical plan side of {@link #probesIndex}
+     */
+    private static boolean isFiltered(OpIterator plan) {
+        return plan instanceof Filter
+                || (plan instanceof SeqScan && ((SeqScan) plan).getPredicate() != null);
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -102,17 +125,132 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, true);
+    }
+
+    /**
+     * Estimate the cost of a join whose sides are the base tables of j if
+     * baseTables is true, or include the result of an earlier join
+     * otherwise; see {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)}
+     */
+    double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean baseTables) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            if (probesIndex(j, baseTables)) {
+                // instantiateJoin一定选索引连接，代价也只能按它算
+                return indexJoinCost(j, card1, card2, cost1, cost2);
+            }
+            double cost;
+            if (mergesSorted(j, baseTables)) {
+                // 归并连接：两边都按键有序，各读一遍
+                cost = cost1 + cost2 + card1 + card2;
+            } else if (j.p == Predicate.Op.EQUALS) {
+                // 混合哈希连接：两边各读一遍，每个元组哈希一次；放不下的部分
+                // 还要写一遍、读一遍
+                double spilled = 1.0 - Math.min(1.0, HashEquiJoin.MAP_SIZE / (double) card1);
+                cost = cost1 + cost2 + card1 + card2 + 2 * spilled * (cost1 + cost2);
+            } else {
+                // 块嵌套循环：外表扫一遍，每块扫一遍内表，每对元组比较一次
+                double blocks = Math.ceil(card1 / (double) outerBlockTuples(j));
+                cost = cost1 + blocks * cost2 + (double) card1 * card2;
+            }
+            return cost;
+        }
+    }
+
+    /**
+     * The expected fraction of the inner table read by one range probe: a
+     * key taken at random from the same range as the inner keys has half of
+     * them on either side.
+     */
+    static final double RANGE_PROBE_FRACTION = 0.5;
+
+    /**
+     * @return true if j is executed as an {@link IndexNestedLoopJoin}: both
+     *         sides are base tables, the outer one is filtered, and the inner
+     *         one is a B+ tree keyed on the join field.  This is the rule
+     *         {@link #instantiateJoin} applies to the physical plans, so the
+     *         cost of j is the cost of the join that is actually built
+     */
+    private boolean probesIndex(LogicalJoinNode j, boolean baseTables) {
+        return baseTables && p != null && p.hasFilter(j.t1Alias)
+                && j.p != Predicate.Op.NOT_EQUALS && j.p != Predicate.Op.LIKE
+                && isKeyOrdered(j.t2Alias, j.f2PureName);
+    }
+
+    /**
+     * @return true if j is executed as a {@link SortMergeJoin}: it is an
+     *         equality and both sides are scans of base tables that are B+
+     *         trees keyed on the join fields.  This is the rule
+     *         {@link SortMergeJoin#isSortedOn} applies to the physical plans
+     *         in {@link #instantiateJoin}.  The result of an earlier join is
+     *         priced as hashed, which is what instantiateJoin builds for it
+     *         unless that join was itself a merge join on the same field
+     */
+    private boolean mergesSorted(LogicalJoinNode j, boolean baseTables) {
+        return baseTables && j.p == Predicate.Op.EQUALS
+                && isKeyOrdered(j.t1Alias, j.f1PureName)
+                && isKeyOrdered(j.t2Alias, j.f2PureName);
+    }
+
+    /**
+     * @return the cost of an {@link IndexNestedLoopJoin} of j: the outer side
+     *         is read once and every outer tuple looks up the inner B+ tree,
+     *         reading a page per level at cost2 / pages each; a range probe
+     *         then also reads {@link #RANGE_PROBE_FRACTION} of the inner
+     *         table and its tuples
+     */
+    private double indexJoinCost(LogicalJoinNode j, int card1, int card2, double cost1, double cost2) {
+        BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(p.getTableId(j.t2Alias));
+        double pageCost = cost2 / Math.max(1, f.numPages());
+        double probe = IndexNestedLoopJoin.pagesPerProbe(f) * pageCost + 1;
+        if (j.p != Predicate.Op.EQUALS) {
+            // 范围查找定位之后还要顺着叶子往后读
+            probe += RANGE_PROBE_FRACTION * (cost2 + card2);
+        }
+        return cost1 + card1 * probe;
+    }
+
+    /**
+     * @return true if the table of alias is a B+ tree file whose key is the
+     *         field named pureField, so that scanning it returns the tuples in
+     *         order of that field
+     */
+    private boolean isKeyOrdered(String alias, String pureField) {
+        Integer tableId = p == null ? null : p.getTableId(alias);
+        if (tableId == null) {
+            return false;
+        }
+        try {
+            DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+            return f instanceof BTreeFile
+                    && f.getTupleDesc().getFieldName(((BTreeFile) f).keyField()).equals(pureField);
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the number of outer tuples of j that a
+     *         {@link BlockNestedLoopJoin} keeps in a block; the outer side is
+     *         sized as its base table, or as a one column table if it is not
+     *         known
+     */
+    private int outerBlockTuples(LogicalJoinNode j) {
+        TupleDesc td = Utility.getTupleDesc(1);
+        Integer tableId = p == null ? null : p.getTableId(j.t1Alias);
+        if (tableId != null) {
+            try {
+                td = Database.getCatalog().getTupleDesc(tableId);
+            } catch (NoSuchElementException e) {
+                // 表已经不在catalog里了，按一列估
+            }
         }
+        return BlockNestedLoopJoin.blockTuples(td, BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES);
     }
 
     /**
@@ -350,10 +488,11 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        boolean baseTables = news.isEmpty();
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, baseTables);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, baseTables);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -0,0 +1,97 @@
+package simpledb;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K replacement.
+ * <p>
+ * For every resident page the times of its last K accesses are kept (time is
+ * a logical counter of accesses).  The victim is the evictable page whose
+ * K-th most recent access is the oldest; pages accessed fewer than K times
+ * are preferred over all others, the least recently used of them first.
+ * Thus a page touched once by a scan does not push out pages that are used
+ * again and again.
+ * <p>
+ * An access just writes one slot of the page's history, picking a victim
+ * scans the resident pages.
+ *
+ * @Threadsafe
+ */
+public class LRUKReplacer implements ReplacementPolicy {
+
+    /** Ring buffer of the last K access times of a page. */
+    private static class History {
+        final long[] times;
+        int count = 0;//总共访问了多少次
+
+        History(int k) {
+            times = new long[k];
+        }
+
+        void add(long time) {
+            times[count % times.length] = time;
+            count++;
+        }
+
+        long last() {
+            return times[(count - 1) % times.length];
+        }
+
+        /** @return the K-th most recent access, or -1 if there are fewer */
+        long kth() {
+            if (count < times.length) {
+                return -1;
+            }
+            return times[count % times.length];
+        }
+    }
+
+    private final int k;
+    private final Map<PageId, History> histories = new HashMap<>();
+    private long clock = 0;
+
+    /**
+     * @param k how many accesses are remembered per page, usually 2
+     */
+    public LRUKReplacer(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        this.k = k;
+    }
+
+    public synchronized void recordAccess(PageId pid) {
+        History history = histories.get(pid);
+        if (history == null) {
+            history = new History(k);
+            histories.put(pid, history);
+        }
+        history.add(clock++);
+    }
+
+    public synchronized void remove(PageId pid) {
+        histories.remove(pid);
+    }
+
+    public synchronized PageId pickVictim(Predicate<PageId> evictable) {
+        PageId victim = null;
+        long victimKth = Long.MAX_VALUE;
+        long victimLast = Long.MAX_VALUE;
+        for (Map.Entry<PageId, History> e : histories.entrySet()) {
+            History history = e.getValue();
+            long kth = history.kth();
+            long last = history.last();
+            //K距离越大（kth越小）越先换出，同为无穷大时按LRU
+            if (kth < victimKth || (kth == victimKth && last < victimLast)) {
+                if (!evictable.test(e.getKey())) {
+                    continue;
+                }
+                victim = e.getKey();
+                victimKth = kth;
+                victimLast = last;
+            }
+        }
+        return victim;
+    }
+}
@@ -0,0 +1,376 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LockManager keeps the page lock table used by the BufferPool.
+ * <p>
+ * Every locked page has one LockEntry holding the transactions that were
+ * granted a shared lock, the transaction holding the exclusive lock (if any)
+ * and a FIFO queue of requests that are still waiting.  A blocked request
+ * waits on the monitor of its entry and is woken up as soon as a holder
+ * releases the page, instead of polling.
+ * <p>
+ * Deadlocks are resolved either by a per-request timeout or by a waits-for
+ * graph that is updated whenever a request blocks.  With the graph, a cycle
+ * is detected at the moment it is closed and one transaction of the cycle is
+ * aborted immediately: either the requester itself or the youngest
+ * transaction of the cycle.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** A (possibly not yet granted) lock request of one transaction. */
+    private static class LockRequest {
+        final TransactionId tid;
+        final boolean exclusive;
+
+        LockRequest(TransactionId tid, boolean exclusive) {
+            this.tid = tid;
+            this.exclusive = exclusive;
+        }
+    }
+
+    /** Lock state of a single page, guarded by its own monitor. */
+    private static class LockEntry {
+        final Set<TransactionId> sharedHolders = new HashSet<>();
+        TransactionId excluHolder = null;
+        final LinkedList<LockRequest> waitQueue = new LinkedList<>();
+        boolean removed = false;//已从锁表中移除，拿到它的请求需要重新取
+
+        boolean isFree() {
+            return excluHolder == null && sharedHolders.isEmpty() && waitQueue.isEmpty();
+        }
+    }
+
+    private final Map<PageId, LockEntry> lockTable = new ConcurrentHashMap<>();
+    //每个事务持有锁的页，提交或回滚时不用扫描整个锁表
+    private final Map<TransactionId, Set<PageId>> txnLocks = new ConcurrentHashMap<>();
+    private final long timeLimit;
+    private final boolean isTimed;
+    private final boolean abortSelf;
+
+    //依赖图，以下三个都由waitsFor的监视器保护
+    private final Map<TransactionId, Set<TransactionId>> waitsFor = new HashMap<>();
+    private final Map<TransactionId, Thread> waitingThreads = new HashMap<>();
+    private final Set<TransactionId> victims = new HashSet<>();
+
+    /**
+     * @param timeLimit how long (in ms) a request may wait before the
+     *                  requesting transaction is aborted, only used if isTimed
+     * @param isTimed   true to resolve deadlocks by timeout, false to use the
+     *                  waits-for graph
+     * @param abortSelf when a cycle is found, true aborts the requester,
+     *                  false aborts the youngest transaction of the cycle
+     */
+    public LockManager(long timeLimit, boolean isTimed, boolean abortSelf) {
+        this.timeLimit = timeLimit;
+        this.isTimed = isTimed;
+        this.abortSelf = abortSelf;
+    }
+
+    private LockEntry getEntry(PageId pid) {
+        return lockTable.computeIfAbsent(pid, k -> new LockEntry());
+    }
+
+    /**
+     * Must be called with the monitor of entry held.
+     * Removes the entry from the table once nobody holds or waits for it.
+     */
+    private void tryRemove(PageId pid, LockEntry entry) {
+        if (entry.isFree()) {
+            entry.removed = true;
+            lockTable.remove(pid, entry);
+        }
+    }
+
+    /**
+     * Must be called with the monitor of entry held.
+     * @return true if the request can be granted now
+     */
+    private boolean grantable(LockEntry entry, LockRequest request) {
+        TransactionId tid = request.tid;
+        if (entry.excluHolder != null) {
+            return entry.excluHolder.equals(tid);
+        }
+        if (request.exclusive) {
+            //升级锁：只有自己持有共享锁时可以直接升级，不用排队
+            if (entry.sharedHolders.contains(tid)) {
+                return entry.sharedHolders.size() == 1;
+            }
+            if (!entry.sharedHolders.isEmpty()) {
+                return false;
+            }
+        } else if (entry.sharedHolders.contains(tid)) {
+            return true;
+        }
+        //FIFO：前面没有等待者才能授予
+        return entry.waitQueue.isEmpty() || entry.waitQueue.getFirst() == request;
+    }
+
+    /**
+     * Must be called with the monitor of entry held.
+     */
+    private void grant(PageId pid, LockEntry entry, LockRequest request) {
+        txnLocks.computeIfAbsent(request.tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+        if (request.exclusive) {
+            entry.sharedHolders.remove(request.tid);
+            entry.excluHolder = request.tid;
+        } else if (entry.excluHolder == null) {
+            entry.sharedHolders.add(request.tid);
+        }
+    }
+
+    /**
+     * Acquire a lock on the specified page, blocking until it is granted.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     * @throws TransactionAbortedException if the request waited longer than
+     *         the time limit (most likely a deadlock)
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        LockRequest request = new LockRequest(tid, perm.equals(Permissions.READ_WRITE));
+        while (true) {
+            LockEntry entry = getEntry(pid);
+            synchronized (entry) {
+                if (entry.removed) {
+                    continue;
+                }
+                if (grantable(entry, request)) {
+                    grant(pid, entry, request);
+                    return;
+                }
+                waitFor(pid, entry, request);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Must be called with the monitor of entry held.
+     * Queues the request and waits on the entry until it is granted.
+     */
+    private void waitFor(PageId pid, LockEntry entry, LockRequest request)
+            throws TransactionAbortedException {
+        if (request.exclusive && entry.sharedHolders.contains(request.tid)) {
+            //升级请求排在最前面，否则会被后来的排他请求饿死
+            entry.waitQueue.addFirst(request);
+        } else {
+            entry.waitQueue.addLast(request);
+        }
+        long deadline = System.currentTimeMillis() + timeLimit;
+        boolean granted = false;
+        try {
+            while (!grantable(entry, request)) {
+                long remaining = 0;
+                if (isTimed) {
+                    remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new TransactionAbortedException();
+                    }
+                } else {
+                    //每次阻塞时持有者可能已变化，重新加边并检测环
+                    updateWaitsFor(request.tid, blockers(entry, request));
+                }
+                try {
+                    entry.wait(remaining);
+                } catch (InterruptedException e) {
+                    throw new TransactionAbortedException();
+                }
+            }
+            granted = true;
+        } finally {
+            //不论是否授予都要出队，队首变化后后面的请求可能也可以继续
+            entry.waitQueue.remove(request);
+            if (!isTimed && stopWaiting(request.tid) && granted) {
+                //已被别人选为牺牲者，锁虽然拿到了也要放弃
+                granted = false;
+                entry.notifyAll();
+                tryRemove(pid, entry);
+                throw new TransactionAbortedException();
+            }
+            if (granted) {
+                grant(pid, entry, request);
+            }
+            entry.notifyAll();
+            tryRemove(pid, entry);
+        }
+    }
+
+    /**
+     * Must be called with the monitor of entry held.
+     * @return the transactions the request has to wait for: the conflicting
+     *         holders and everyone queued in front of it
+     */
+    private Set<TransactionId> blockers(LockEntry entry, LockRequest request) {
+        Set<TransactionId> result = new HashSet<>();
+        if (entry.excluHolder != null) {
+            result.add(entry.excluHolder);
+        }
+        if (request.exclusive) {
+            result.addAll(entry.sharedHolders);
+        }
+        for (LockRequest r : entry.waitQueue) {
+            if (r == request) {
+                break;
+            }
+            result.add(r.tid);
+        }
+        result.remove(request.tid);
+        return result;
+    }
+
+    /**
+     * Replace the outgoing edges of tid in the waits-for graph and check
+     * whether they close a cycle.
+     *
+     * @throws TransactionAbortedException if tid itself was chosen as victim
+     */
+    private void updateWaitsFor(TransactionId tid, Set<TransactionId> blockers)
+            throws TransactionAbortedException {
+        synchronized (waitsFor) {
+            if (victims.contains(tid)) {
+                throw new TransactionAbortedException();
+            }
+            waitsFor.put(tid, blockers);
+            waitingThreads.put(tid, Thread.currentThread());
+            List<TransactionId> cycle = findCycle(tid);
+            if (cycle == null) {
+                return;
+            }
+            TransactionId victim = tid;
+            if (!abortSelf) {
+                for (TransactionId t : cycle) {
+                    if (t.getId() > victim.getId()) {
+                        victim = t;
+                    }
+                }
+            }
+            //环上的事务都在等待，牺牲者的边要去掉，否则其他事务还会检测到同一个环
+            victims.add(victim);
+            waitsFor.remove(victim);
+            if (victim.equals(tid)) {
+                throw new TransactionAbortedException();
+            }
+            waitingThreads.get(victim).interrupt();
+        }
+    }
+
+    /**
+     * Must be called with the monitor of waitsFor held.
+     * @return the transactions on a cycle through start, or null if none
+     */
+    private List<TransactionId> findCycle(TransactionId start) {
+        Map<TransactionId, TransactionId> parent = new HashMap<>();
+        Deque<TransactionId> stack = new ArrayDeque<>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            TransactionId cur = stack.pop();
+            Set<TransactionId> next = waitsFor.get(cur);
+            if (next == null) {
+                continue;
+            }
+            for (TransactionId t : next) {
+                if (t.equals(start)) {
+                    List<TransactionId> cycle = new ArrayList<>();
+                    for (TransactionId c = cur; c != null; c = parent.get(c)) {
+                        cycle.add(c);
+                    }
+                    return cycle;
+                }
+                if (!parent.containsKey(t)) {
+                    parent.put(t, cur);
+                    stack.push(t);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove tid from the waits-for graph once its request stopped waiting.
+     * @return true if tid was chosen as a deadlock victim
+     */
+    private boolean stopWaiting(TransactionId tid) {
+        synchronized (waitsFor) {
+            waitsFor.remove(tid);
+            waitingThreads.remove(tid);
+            if (victims.remove(tid)) {
+                //清除中断标志，避免影响之后的操作
+                Thread.interrupted();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Release the lock the transaction holds on the page, if any, and wake up
+     * the requests waiting for it.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        Set<PageId> pages = txnLocks.get(tid);
+        if (pages != null) {
+            pages.remove(pid);
+        }
+        unlock(tid, pid);
+    }
+
+    private void unlock(TransactionId tid, PageId pid) {
+        LockEntry entry = lockTable.get(pid);
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry) {
+            if (tid.equals(entry.excluHolder)) {
+                entry.excluHolder = null;
+            }
+            entry.sharedHolders.remove(tid);
+            entry.notifyAll();
+            tryRemove(pid, entry);
+        }
+    }
+
+    /**
+     * Release every lock held by the transaction.
+     *
+     * @return the pages the transaction held a lock on
+     */
+    public Set<PageId> releaseAll(TransactionId tid) {
+        Set<PageId> pages = txnLocks.remove(tid);
+        if (pages == null) {
+            return Collections.emptySet();
+        }
+        for (PageId pid : pages) {
+            unlock(tid, pid);
+        }
+        return pages;
+    }
+
+    /**
+     * @return the pages the transaction currently holds a lock on
+     */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        Set<PageId> pages = txnLocks.get(tid);
+        if (pages == null) {
+            return Collections.emptySet();
+        }
+        return new HashSet<>(pages);
+    }
+
+    /** Return true if the specified transaction has a lock on the specified page */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        LockEntry entry = lockTable.get(pid);
+        if (entry == null) {
+            return false;
+        }
+        synchronized (entry) {
+            return tid.equals(entry.excluHolder) || entry.sharedHolders.contains(tid);
+        }
+    }
+}
@@ -81,6 +81,17 @@ public class LogicalPlan {
         return this.tableMap;
     }
 
+    /** @return true if a filter was added on the table of alias, so that
+        {@link #physicalPlan} reads it through a selection */
+    public boolean hasFilter(String alias) {
+        for (LogicalFilterNode lf : filters) {
+            if (lf.tableAlias.equals(alias)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /** Add a new filter to the logical plan
      *   @param field The name of the over which the filter applies;
      *   this can be a fully qualified field (tablename.field or
@@ -338,7 +349,16 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (subplan instanceof SeqScan && ((SeqScan) subplan).getPredicate() == null && ftyp == Type.INT_TYPE) {
+                //int比较下推到扫描里，区域映射可以跳过不可能满足的页
+                try {
+                    subplanMap.put(lf.tableAlias, new SeqScan(t, ((SeqScan) subplan).getTableId(), lf.tableAlias, p));
+                } catch (TransactionAbortedException | DbException e) {
+                    throw new ParsingException(e);
+                }
+            } else {
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            }
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -0,0 +1,107 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * MappedFile is the memory-mapped read path of a table file.
+ * <p>
+ * The file is mapped read-only in segments of SEGMENT_SIZE bytes, so a page
+ * is copied out of the mapping with no system call.  When a read goes past
+ * the mapped size the file is checked for growth and only the last, partial
+ * segment and the new ones are mapped again.  Pages may cross a segment
+ * boundary, e.g. B+ tree pages which start after the root pointer page.
+ * <p>
+ * Writes still go through the file itself; the mapping is shared, so it sees
+ * them.  A mapped file must not be truncated.
+ *
+ * @Threadsafe
+ */
+public class MappedFile {
+
+    /** Size of one mapped segment, 64MB. */
+    public static final int SEGMENT_SIZE = 1 << 26;
+
+    private final File file;
+    private FileChannel channel = null;
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];//读时只取一次
+    private long mappedSize = 0;//只在锁里用
+
+    public MappedFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Copy dst.length bytes starting at position out of the mapping.  The
+     * part of dst past the end of the file is filled with zeros, as a read
+     * through the file channel leaves it.
+     *
+     * @return false if the file ends before position + dst.length
+     */
+    public boolean read(long position, byte[] dst) throws IOException {
+        //close()会换成空数组，所以只取一次并按这份数组判断长度
+        MappedByteBuffer[] segs = segments;
+        if (position + dst.length > sizeOf(segs)) {
+            remap();
+            segs = segments;
+        }
+        long end = Math.min(position + dst.length, sizeOf(segs));
+        int done = 0;
+        while (position + done < end) {
+            long pos = position + done;
+            //每次读用duplicate，不改共享buffer的position
+            ByteBuffer seg = segs[(int) (pos / SEGMENT_SIZE)].duplicate();
+            seg.position((int) (pos % SEGMENT_SIZE));
+            int n = (int) Math.min(end - pos, seg.remaining());
+            seg.get(dst, done, n);
+            done += n;
+        }
+        Arrays.fill(dst, done, dst.length, (byte) 0);
+        return done == dst.length;
+    }
+
+    /** @return the number of bytes mapped by segs */
+    private static long sizeOf(MappedByteBuffer[] segs) {
+        if (segs.length == 0) {
+            return 0;
+        }
+        return (long) (segs.length - 1) * SEGMENT_SIZE + segs[segs.length - 1].capacity();
+    }
+
+    /** Map the part of the file that was added since the last mapping. */
+    private synchronized void remap() throws IOException {
+        if (channel == null) {
+            channel = new RandomAccessFile(file, "r").getChannel();
+        }
+        long size = channel.size();
+        if (size <= mappedSize) {
+            return;
+        }
+        int n = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        MappedByteBuffer[] segs = Arrays.copyOf(segments, n);
+        for (int i = (int) (mappedSize / SEGMENT_SIZE); i < n; i++) {
+            long start = (long) i * SEGMENT_SIZE;
+            segs[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+        }
+        segments = segs;
+        mappedSize = size;
+    }
+
+    /**
+     * Drop the mapping and close the file.  The memory is unmapped once the
+     * segments are garbage collected.
+     */
+    public synchronized void close() throws IOException {
+        mappedSize = 0;
+        segments = new MappedByteBuffer[0];
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
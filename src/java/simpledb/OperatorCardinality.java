@@ -27,7 +27,24 @@ public class OperatorCardinality {
         } else if (o instanceof Join) {
             return updateJoinCardinality((Join) o, tableAliasToId, tableStats);
         } else if (o instanceof HashEquiJoin) {
-            return updateHashEquiJoinCardinality((HashEquiJoin) o,
+            HashEquiJoin j = (HashEquiJoin) o;
+            return updateHashEquiJoinCardinality(j, j.getJoinField1Name(),
+                    j.getJoinField2Name(), j.getJoinPredicate().getOperator(),
+                    tableAliasToId, tableStats);
+        } else if (o instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) o;
+            return updateHashEquiJoinCardinality(j, j.getJoinField1Name(),
+                    j.getJoinField2Name(), j.getJoinPredicate().getOperator(),
+                    tableAliasToId, tableStats);
+        } else if (o instanceof IndexNestedLoopJoin) {
+            IndexNestedLoopJoin j = (IndexNestedLoopJoin) o;
+            return updateHashEquiJoinCardinality(j, j.getJoinField1Name(),
+                    j.getJoinField2Name(), j.getJoinPredicate().getOperator(),
+                    tableAliasToId, tableStats);
+        } else if (o instanceof BlockNestedLoopJoin) {
+            BlockNestedLoopJoin j = (BlockNestedLoopJoin) o;
+            return updateHashEquiJoinCardinality(j, j.getJoinField1Name(),
+                    j.getJoinField2Name(), j.getJoinPredicate().getOperator(),
                     tableAliasToId, tableStats);
         } else if (o instanceof Aggregate) {
             return updateAggregateCardinality((Aggregate) o, tableAliasToId,
@@ -144,7 +161,13 @@ public class OperatorCardinality {
         return child1HasJoinPK || child2HasJoinPK;
     }
 
-    private static boolean updateHashEquiJoinCardinality(HashEquiJoin j,
+    /**
+     * Cardinality of a join other than Join, i.e. a HashEquiJoin, a
+     * SortMergeJoin, an IndexNestedLoopJoin or a BlockNestedLoopJoin, whose
+     * join fields are field1Name and field2Name.
+     */
+    private static boolean updateHashEquiJoinCardinality(Operator j,
+            String field1Name, String field2Name, Predicate.Op op,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
 
@@ -154,10 +177,10 @@ public class OperatorCardinality {
         int child1Card = 1;
         int child2Card = 1;
 
-        String[] tmp1 = j.getJoinField1Name().split("[.]");
+        String[] tmp1 = field1Name.split("[.]");
         String tableAlias1 = tmp1[0];
         String pureFieldName1 = tmp1[1];
-        String[] tmp2 = j.getJoinField2Name().split("[.]");
+        String[] tmp2 = field2Name.split("[.]");
         String tableAlias2 = tmp2[0];
         String pureFieldName2 = tmp2[1];
 
@@ -194,8 +217,8 @@ public class OperatorCardinality {
                     .getTableName()).estimateTableCardinality(1.0));
         }
 
-        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
-                .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
+        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(op,
+                tableAlias1, tableAlias2,
                 pureFieldName1, pureFieldName2, child1Card, child2Card,
                 child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
         return child1HasJoinPK || child2HasJoinPK;
@@ -0,0 +1,185 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * PageChecksums records a checksum of every page of a table file as it is
+ * written, so a page that comes back from disk different, e.g. half written
+ * by a crash, is detected when it is read instead of being decoded into
+ * garbage tuples.
+ * <p>
+ * The checksum is a CRC32C, which current JVMs compute with the CRC
+ * instructions of the processor; on a JVM older than 9 it falls back to a
+ * CRC32.  The page formats fill the whole page, so the checksums do not sit
+ * in a trailer on the page but in a side file next to the table file, path
+ * + ".crc", 4 bytes per page at the offset of the page number.  An entry of
+ * 0 means the checksum of the page is unknown, e.g. for pages written
+ * before the side file existed; those pages are not checked, and a page
+ * whose checksum is 0 is recorded as 1.  A crash between writing a page and
+ * its entry leaves the page reported as corrupt, which it may well be.
+ * <p>
+ * Pages are checked against the entries in memory without locking.  A
+ * writer holds the lock of this object while it writes a page and its
+ * entry, so a reader that sees a mismatch takes the lock, reads the page
+ * again and checks it against the entry on disk before it gives up: the
+ * first read may have raced with a write, or another file object may have
+ * written the page.
+ *
+ * @Threadsafe
+ */
+public class PageChecksums {
+
+    private static final ThreadLocal<Checksum> CRC = ThreadLocal.withInitial(PageChecksums::newChecksum);
+
+    private final File file;
+    private volatile int[] entries = new int[0];//按页号存，读的时候不加锁
+    private RandomAccessFile raf = null;
+
+    /**
+     * @param file the side file holding the checksums
+     */
+    public PageChecksums(File file) {
+        this.file = file;
+    }
+
+    private static Checksum newChecksum() {
+        try {
+            //CRC32C从Java 9开始才有，源码级别是1.8，只能反射创建
+            return (Checksum) Class.forName("java.util.zip.CRC32C").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            return new CRC32();
+        }
+    }
+
+    /** @return the checksum of a page, never 0 */
+    public static int checksum(byte[] data) {
+        return checksum(data, 0, data.length);
+    }
+
+    /** @return the checksum of the page at data[off..off+len), never 0 */
+    public static int checksum(byte[] data, int off, int len) {
+        Checksum crc = CRC.get();
+        crc.reset();
+        crc.update(data, off, len);
+        int value = (int) crc.getValue();
+        return value == 0 ? 1 : value;
+    }
+
+    /** @return the checksum side file of a table file */
+    public static File sideFile(File file) {
+        return new File(file.getPath() + ".crc");
+    }
+
+    /**
+     * Read the checksums from the side file.  Tools that write a table file
+     * without going through this class delete its side file, see
+     * {@link HeapFileEncoder}.
+     *
+     * @return false if there was no side file
+     */
+    public synchronized boolean load() throws IOException {
+        if (!file.exists()) {
+            return false;
+        }
+        byte[] data = new byte[(int) (file.length() / 4 * 4)];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int off = 0;
+            while (off < data.length) {
+                int n = in.read(data, off, data.length - off);
+                if (n < 0) {
+                    return false;
+                }
+                off += n;
+            }
+        }
+        int[] e = new int[data.length / 4];
+        ByteBuffer.wrap(data).asIntBuffer().get(e);
+        entries = e;
+        return true;
+    }
+
+    private RandomAccessFile open() throws IOException {
+        if (raf == null) {
+            raf = new RandomAccessFile(file, "rw");
+        }
+        return raf;
+    }
+
+    /**
+     * @return true if page pgNo matches its checksum in memory or has none;
+     *         a false answer is confirmed with {@link #recheck}
+     */
+    public boolean matches(int pgNo, byte[] data) {
+        int[] e = entries;
+        int expected = pgNo < e.length ? e[pgNo] : 0;
+        return expected == 0 || expected == checksum(data);
+    }
+
+    /**
+     * Check page pgNo against its checksum in the side file, the caller
+     * holding the lock of this object and having read the page again under
+     * it.
+     *
+     * @return true if the page matches or has no checksum
+     */
+    public synchronized boolean recheck(int pgNo, byte[] data) throws IOException {
+        int expected = 0;
+        RandomAccessFile f = open();
+        if ((long) pgNo * 4 + 4 <= f.length()) {
+            f.seek((long) pgNo * 4);
+            expected = f.readInt();
+        }
+        if (expected != 0 && pgNo < entries.length) {
+            entries[pgNo] = expected;
+        }
+        return expected == 0 || expected == checksum(data);
+    }
+
+    /**
+     * Record the checksum of page pgNo, in memory and in the side file.  The
+     * caller holds the lock of this object while it writes the page.
+     */
+    public synchronized void update(int pgNo, byte[] data) throws IOException {
+        int value = checksum(data);
+        int[] e = entries;
+        if (pgNo >= e.length) {
+            e = Arrays.copyOf(e, Math.max(pgNo + 1, e.length * 2));
+        }
+        e[pgNo] = value;
+        entries = e;
+        //中间没写过的页在文件里补成0，即未知
+        RandomAccessFile f = open();
+        f.seek((long) pgNo * 4);
+        f.writeInt(value);
+    }
+
+    /**
+     * Forget the checksums of the pages from pages on, after the table file
+     * was truncated.  The caller holds the lock of this object.
+     */
+    public synchronized void truncate(int pages) throws IOException {
+        int[] e = entries;
+        if (pages < e.length) {
+            e = e.clone();
+            Arrays.fill(e, pages, e.length, 0);
+            entries = e;
+        }
+        RandomAccessFile f = open();
+        f.setLength(Math.min(f.length(), (long) pages * 4));
+    }
+
+    /** Close the side file; it is reopened by the next access. */
+    public synchronized void close() throws IOException {
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+    }
+}
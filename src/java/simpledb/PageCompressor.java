@@ -0,0 +1,149 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * PageCompressor is a small LZ77 codec for pages, in the spirit of LZ4: fast
+ * to decompress, and good at the long runs of zero bytes that padded
+ * strings and empty slots leave on heap and B+ tree pages.
+ * <p>
+ * The compressed form is a list of sequences.  Each starts with a token byte
+ * whose high nibble is the number of literal bytes and whose low nibble is
+ * the match length minus 4; a nibble of 15 is followed by more length bytes,
+ * each added to it, until one is not 255.  The literals come next, then the
+ * 2 byte little-endian distance back to the match.  The last sequence has
+ * only literals.  Matches may overlap the bytes they produce, so a run of
+ * one byte value is a single sequence.
+ */
+public class PageCompressor {
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xffff;
+    private static final int HASH_BITS = 12;
+
+    private PageCompressor() {
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+    }
+
+    private static int hash(int v) {
+        return (v * -1640531535) >>> (32 - HASH_BITS);
+    }
+
+    private static int writeLength(byte[] out, int op, int len) {
+        while (len >= 255) {
+            out[op++] = (byte) 255;
+            len -= 255;
+        }
+        out[op++] = (byte) len;
+        return op;
+    }
+
+    /**
+     * @return the compressed form of src; at most a little longer than src
+     *         when src does not compress
+     */
+    public static byte[] compress(byte[] src) {
+        int n = src.length;
+        byte[] out = new byte[n + n / 255 + 16];
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+        int op = 0;
+        int anchor = 0;
+        int ip = 0;
+        while (ip + MIN_MATCH <= n) {
+            int v = readInt(src, ip);
+            int h = hash(v);
+            int ref = table[h];
+            table[h] = ip;
+            if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != v) {
+                ip++;
+                continue;
+            }
+            int len = MIN_MATCH;
+            while (ip + len < n && src[ref + len] == src[ip + len]) {
+                len++;
+            }
+            int lit = ip - anchor;
+            int match = len - MIN_MATCH;
+            out[op++] = (byte) (Math.min(lit, 15) << 4 | Math.min(match, 15));
+            if (lit >= 15) {
+                op = writeLength(out, op, lit - 15);
+            }
+            System.arraycopy(src, anchor, out, op, lit);
+            op += lit;
+            int offset = ip - ref;
+            out[op++] = (byte) offset;
+            out[op++] = (byte) (offset >> 8);
+            if (match >= 15) {
+                op = writeLength(out, op, match - 15);
+            }
+            ip += len;
+            anchor = ip;
+        }
+        //最后一段只有字面量
+        int lit = n - anchor;
+        out[op++] = (byte) (Math.min(lit, 15) << 4);
+        if (lit >= 15) {
+            op = writeLength(out, op, lit - 15);
+        }
+        System.arraycopy(src, anchor, out, op, lit);
+        op += lit;
+        return Arrays.copyOf(out, op);
+    }
+
+    /**
+     * Decompress the first srcLen bytes of src into dst.
+     *
+     * @return the number of bytes written to dst
+     * @throws IllegalArgumentException if src is not a compressed page that
+     *         fits into dst
+     */
+    public static int decompress(byte[] src, int srcLen, byte[] dst) {
+        int ip = 0;
+        int op = 0;
+        try {
+            while (ip < srcLen) {
+                int token = src[ip++] & 0xff;
+                int lit = token >>> 4;
+                if (lit == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        lit += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, ip, dst, op, lit);
+                ip += lit;
+                op += lit;
+                if (ip >= srcLen) {
+                    break;
+                }
+                int offset = (src[ip] & 0xff) | (src[ip + 1] & 0xff) << 8;
+                ip += 2;
+                int len = token & 15;
+                if (len == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        len += b;
+                    } while (b == 255);
+                }
+                len += MIN_MATCH;
+                int ref = op - offset;
+                if (offset == 0 || ref < 0 || op + len > dst.length) {
+                    throw new IllegalArgumentException("corrupt compressed page");
+                }
+                //可能和正在写的字节重叠，只能逐字节复制
+                for (int i = 0; i < len; i++) {
+                    dst[op++] = dst[ref++];
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("corrupt compressed page", e);
+        }
+        return op;
+    }
+}
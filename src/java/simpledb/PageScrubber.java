@@ -0,0 +1,174 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PageScrubber is a low priority background thread that reads every page of
+ * every table in the catalog from disk and checks it against its checksum,
+ * so corruption of pages nobody reads, which would otherwise only show up
+ * when they are needed, is found early.  The pages are read straight from
+ * the files, bypassing the buffer pool, so scrubbing does not evict hot
+ * pages; the rate of page reads is capped so it does not starve queries of
+ * I/O either.
+ * <p>
+ * Corrupt pages are printed and kept in {@link #getCorruptPages}.  The
+ * scrubber goes over the catalog again and again until it is shut down.
+ *
+ * @see PageChecksums
+ */
+public class PageScrubber extends Thread {
+
+    /** A table file whose pages the scrubber can check. */
+    public interface Scrubbable {
+        /**
+         * Read page pgNo from disk and check it against its checksum.
+         *
+         * @return false if the file has no page pgNo
+         * @throws ChecksumException if the page does not match its checksum
+         */
+        boolean verifyPage(int pgNo) throws IOException;
+    }
+
+    private static final long IDLE_MILLIS = 1000;
+
+    private final long nanosPerPage;
+    private volatile boolean stopped = false;
+    private final Object sleeper = new Object();
+    private final AtomicLong pagesChecked = new AtomicLong();
+    private final AtomicLong passes = new AtomicLong();
+    private final List<ChecksumException> corrupt = new ArrayList<>();
+
+    /**
+     * @param pagesPerSecond the most pages to read per second
+     */
+    public PageScrubber(int pagesPerSecond) {
+        super("PageScrubber");
+        if (pagesPerSecond <= 0) {
+            throw new IllegalArgumentException("pagesPerSecond must be positive");
+        }
+        this.nanosPerPage = 1000000000L / pagesPerSecond;
+        setDaemon(true);
+        setPriority(Thread.MIN_PRIORITY);
+    }
+
+    @Override
+    public void run() {
+        long next = System.nanoTime();
+        while (!stopped) {
+            long before = pagesChecked.get();
+            //先拷贝表号，扫描期间目录可能被修改
+            List<Integer> tables = new ArrayList<>();
+            for (Iterator<Integer> it = Database.getCatalog().tableIdIterator(); it.hasNext(); ) {
+                tables.add(it.next());
+            }
+            for (int tableid : tables) {
+                DbFile file;
+                try {
+                    file = Database.getCatalog().getDatabaseFile(tableid);
+                } catch (RuntimeException e) {
+                    continue;//扫描期间被删掉的表
+                }
+                if (!(file instanceof Scrubbable)) {
+                    continue;
+                }
+                for (int pgNo = 0; !stopped; pgNo++) {
+                    next = waitTurn(next);
+                    try {
+                        if (!((Scrubbable) file).verifyPage(pgNo)) {
+                            break;
+                        }
+                        pagesChecked.incrementAndGet();
+                    } catch (ChecksumException e) {
+                        pagesChecked.incrementAndGet();
+                        report(e);
+                    } catch (IOException | RuntimeException e) {
+                        //文件读不了就跳过这张表，下一轮再试
+                        e.printStackTrace();
+                        break;
+                    }
+                }
+                if (stopped) {
+                    return;
+                }
+            }
+            passes.incrementAndGet();
+            if (pagesChecked.get() == before) {
+                //没有页可查，不要空转
+                pause(IDLE_MILLIS * 1000000);
+                next = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Wait until the next page may be read.
+     *
+     * @return the time the page after it may be read
+     */
+    private long waitTurn(long next) {
+        long now = System.nanoTime();
+        if (next - now > 0) {
+            pause(next - now);
+        }
+        else if (now - next > 1000000000L) {
+            //落后太多时不要补读，免得一下子读一大批
+            next = now;
+        }
+        return next + nanosPerPage;
+    }
+
+    /**
+     * Sleep until nanos pass or the scrubber is shut down.  Interrupting the
+     * thread instead would close the file channel of a read in progress.
+     */
+    private void pause(long nanos) {
+        synchronized (sleeper) {
+            if (stopped) {
+                return;
+            }
+            try {
+                sleeper.wait(nanos / 1000000, (int) (nanos % 1000000));
+            } catch (InterruptedException e) {
+                stopped = true;
+            }
+        }
+    }
+
+    private synchronized void report(ChecksumException e) {
+        for (ChecksumException c : corrupt) {
+            if (c.getFile().equals(e.getFile()) && c.getPageNumber() == e.getPageNumber()) {
+                return;
+            }
+        }
+        System.err.println("PageScrubber: " + e.getMessage());
+        corrupt.add(e);
+    }
+
+    /** @return the corrupt pages found so far, each once */
+    public synchronized List<ChecksumException> getCorruptPages() {
+        return new ArrayList<>(corrupt);
+    }
+
+    /** @return the number of pages checked so far */
+    public long getPagesChecked() {
+        return pagesChecked.get();
+    }
+
+    /** @return the number of completed passes over the catalog */
+    public long getPasses() {
+        return passes.get();
+    }
+
+    /** Stop the scrubber and wait for it to exit. */
+    public void shutdown() throws InterruptedException {
+        synchronized (sleeper) {
+            stopped = true;
+            sleeper.notifyAll();
+        }
+        join();
+    }
+}
@@ -0,0 +1,30 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * PaxHeapFile is a HeapFile whose pages are PaxHeapPages: each page stores
+ * the values of every column contiguously, so a {@link ColumnScan} reads the
+ * columns it needs without decoding whole tuples.  Meant for analytic tables
+ * that are aggregated or filtered a column at a time.
+ *
+ * @see PaxHeapPage
+ */
+public class PaxHeapFile extends HeapFile {
+
+    /**
+     * Constructs a PAX heap file backed by the specified file.
+     *
+     * @param f  the file that stores the on-disk backing store for this heap file.
+     * @param td the schema of the tuples in the file
+     */
+    public PaxHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    @Override
+    protected TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new PaxHeapPage(pid, data);
+    }
+}
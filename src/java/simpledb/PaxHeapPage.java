@@ -0,0 +1,243 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * PaxHeapPage is a heap page in the PAX layout: the same slots and header
+ * bitmap as a HeapPage, but the values of each column are stored together in
+ * a mini-page, so reading one column of a page touches one contiguous range
+ * of bytes.
+ * <p>
+ * The page holds as many tuples as a HeapPage of the same schema.  After the
+ * header bitmap, the mini-page of column c starts at
+ * header + numSlots * (offset of c in a serialized tuple), and holds the
+ * value of c of slot i at i * (size of c) within it.
+ *
+ * @see PaxHeapFile
+ * @see ColumnScan
+ */
+public class PaxHeapPage implements TuplePage {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int numSlots;
+    final int headerSize;
+    final byte[] buf;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+    private volatile boolean dirty = false;
+    private volatile TransactionId dirtier = null;
+
+    /**
+     * Create a PaxHeapPage from a set of bytes of data read from disk.
+     * The data is copied, the page is changed in place.
+     */
+    public PaxHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        this.headerSize = (numSlots + 7) / 8;
+        this.buf = data.clone();
+        setBeforeImage();
+    }
+
+    /** @return where the value of column col of slot starts in the page */
+    private int valueOffset(int col, int slot) {
+        return headerSize + numSlots * td.getOffset(col) + slot * td.getFieldType(col).getLen();
+    }
+
+    public boolean isSlotUsed(int i) {
+        return ((buf[i / 8] >> (i % 8)) & 1) == 1;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        byte b = (byte) (1 << (i % 8));
+        if (value) {
+            buf[i / 8] = (byte) (buf[i / 8] | b);
+        } else {
+            buf[i / 8] = (byte) (buf[i / 8] & ~b);
+        }
+    }
+
+    /**
+     * Copy the values of an int column of all used slots, in slot order, into
+     * dst, which must have room for numSlots values.
+     *
+     * @return the number of values copied
+     */
+    public int getIntColumn(int col, int[] dst) {
+        if (td.getFieldType(col) != Type.INT_TYPE) {
+            throw new IllegalArgumentException("column " + col + " is not an int column");
+        }
+        int base = valueOffset(col, 0);
+        int n = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                dst[n++] = Type.readInt(buf, base + i * 4);
+            }
+        }
+        return n;
+    }
+
+    /** @return the number of tuple slots of this page */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    private Tuple readTuple(int slot) {
+        Tuple t = new Tuple(td);
+        for (int c = 0; c < td.numFields(); c++) {
+            t.setField(c, td.getFieldType(c).decode(buf, valueOffset(c, slot)));
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getFreeSpace() {
+        int result = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                result++;
+        }
+        return result;
+    }
+
+    /**
+     * Adds the specified tuple to the first empty slot, writing each field
+     * into the mini-page of its column.
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *         is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+                DataOutputStream dos = new DataOutputStream(baos);
+                try {
+                    for (int c = 0; c < td.numFields(); c++) {
+                        baos.reset();
+                        t.getField(c).serialize(dos);
+                        dos.flush();
+                        System.arraycopy(baos.toByteArray(), 0, buf, valueOffset(c, i),
+                                td.getFieldType(c).getLen());
+                    }
+                } catch (IOException e) {
+                    throw new DbException("could not serialize tuple: " + e.getMessage());
+                }
+                markSlotUsed(i, true);
+                t.setRecordId(new RecordId(pid, i));
+                return;
+            }
+        }
+        throw new DbException("page is full");
+    }
+
+    /**
+     * Delete the specified tuple from the page and clear its values.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("tuple is not on this page");
+        }
+        int slot = rid.getTupleNumber();
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot)) {
+            throw new DbException("slot " + slot + " is empty");
+        }
+        markSlotUsed(slot, false);
+        for (int c = 0; c < td.numFields(); c++) {
+            int off = valueOffset(c, slot);
+            Arrays.fill(buf, off, off + td.getFieldType(c).getLen(), (byte) 0);
+        }
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     * this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            int slot = advance(0);
+
+            private int advance(int from) {
+                while (from < numSlots && !isSlotUsed(from)) {
+                    from++;
+                }
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return slot < numSlots;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = readTuple(slot);
+                slot = advance(slot + 1);
+                return t;
+            }
+        };
+    }
+
+    public byte[] getPageData() {
+        return buf.clone();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public PaxHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new PaxHeapPage(pid, oldDataRef);
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty) this.dirtier = tid;
+    }
+
+    public TransactionId isDirty() {
+        if (this.dirty)
+            return this.dirtier;
+        else
+            return null;
+    }
+}
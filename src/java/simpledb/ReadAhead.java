@@ -0,0 +1,102 @@
+package simpledb;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * ReadAhead prefetches the pages a sequential scan is about to read into the
+ * BufferPool on a background I/O thread, so a cold scan does not wait for
+ * one page read after another.
+ * <p>
+ * The scan reports every page it moves to with {@link #accessed}.  As long as
+ * each page is the successor of the previous one the prefetch window doubles,
+ * up to the maximum; any other access resets it.  A new batch is scheduled
+ * once half of the pages fetched ahead have been consumed, and it follows the
+ * successor function from the current page, so it works for heap files
+ * (next page number) as well as B+ tree leaves (right sibling).
+ * <p>
+ * Prefetching takes no locks: pages are only loaded into the pool, the scan
+ * still locks them through getPage.  One ReadAhead belongs to one scan.
+ *
+ * @see BufferPool#setReadAhead(int)
+ */
+public class ReadAhead {
+
+    private static final int IO_THREADS = 4;
+
+    //所有缓冲池共用的后台I/O线程，守护线程，不影响退出
+    private static final ExecutorService ioExecutor = Executors.newFixedThreadPool(IO_THREADS, r -> {
+        Thread t = new Thread(r, "simpledb-read-ahead");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final BufferPool bufferPool;
+    private final BufferAccessStrategy strategy;
+    private final Function<Page, PageId> next;
+    private final int maxWindow;
+
+    private PageId expected = null;//顺序访问时下一次应该访问的页
+    private int window = 0;//当前预读窗口
+    private int ahead = 0;//已经预读到当前页之后的页数
+
+    /**
+     * @param bufferPool the pool to prefetch into
+     * @param strategy   the ring of the scan, or null
+     * @param next       returns the page following the given one, or null at the end
+     * @param maxWindow  the maximum number of pages to read ahead
+     */
+    public ReadAhead(BufferPool bufferPool, BufferAccessStrategy strategy,
+                     Function<Page, PageId> next, int maxWindow) {
+        this.bufferPool = bufferPool;
+        this.strategy = strategy;
+        this.next = next;
+        //用环时，预读的页不能把还没扫到的环内页挤掉
+        this.maxWindow = strategy == null ? maxWindow : Math.min(maxWindow, strategy.size() / 2);
+    }
+
+    /**
+     * Report that the scan moved to the given page, and schedule the
+     * prefetch of the following pages if the access looks sequential.
+     */
+    public void accessed(Page page) {
+        if (page.getId().equals(expected)) {
+            window = Math.min(maxWindow, Math.max(2, window * 2));
+            ahead = Math.max(0, ahead - 1);
+        } else {
+            window = 0;
+            ahead = 0;
+        }
+        expected = next.apply(page);
+        if (expected == null || window == 0 || ahead > window / 2) {
+            return;
+        }
+        final Page from = page;
+        final int count = window;
+        ahead = window;
+        ioExecutor.execute(() -> prefetch(from, count));
+    }
+
+    /**
+     * Runs on the I/O thread: load up to count successors of the page.
+     * Pages that are already cached only cost a lookup.
+     */
+    private void prefetch(Page from, int count) {
+        Page p = from;
+        try {
+            for (int i = 0; i < count; i++) {
+                PageId pid = next.apply(p);
+                if (pid == null) {
+                    return;
+                }
+                p = bufferPool.prefetchPage(pid, strategy);
+                if (p == null) {
+                    return;
+                }
+            }
+        } catch (RuntimeException e) {
+            //表已被删除等情况，预读只是提示，放弃即可
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package simpledb;
+
+import java.util.function.Predicate;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool evicts when it is full.
+ * <p>
+ * The BufferPool reports every access to a resident page through
+ * {@link #recordAccess}; this is on the cache hit path, so implementations
+ * should make it O(1).  Only {@link #pickVictim} is allowed to do more work.
+ *
+ * @see ClockReplacer
+ * @see LRUKReplacer
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Record that the page was just fetched through the buffer pool.
+     * Pages that are not tracked yet are added.
+     */
+    public void recordAccess(PageId pid);
+
+    /**
+     * Forget the page, because it was evicted or discarded from the buffer
+     * pool.  Does nothing if the page is not tracked.
+     */
+    public void remove(PageId pid);
+
+    /**
+     * Choose the page to evict.  The page is not removed from the policy;
+     * the caller does so with {@link #remove} once the page is gone.
+     *
+     * @param evictable pages rejected by this predicate (e.g. dirty pages)
+     *                  must not be chosen
+     * @return the page to evict, or null if no tracked page can be evicted
+     */
+    public PageId pickVictim(Predicate<PageId> evictable);
+}
@@ -15,6 +15,8 @@ public class SeqScan implements OpIterator {
     private int tabId;
     //最好别叫tableId，容易跟初始化参数混淆
     private String tabAlias;
+    private Predicate predicate;//下推到扫描的谓词，没有时为null
+    private Tuple pending;//满足谓词的下一个元组
     public DbFileIterator dbFileIterator;
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -33,10 +35,44 @@ public class SeqScan implements OpIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) throws TransactionAbortedException, DbException {
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan that only returns the tuples satisfying a
+     * predicate.  On a HeapFile, pages whose zone map shows they hold no
+     * matching tuple are not read at all.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table.
+     * @param p
+     *            the predicate over the fields of the table, or null to
+     *            return all tuples.
+     * @see ZoneMap
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, Predicate p) throws TransactionAbortedException, DbException {
         transactionId = tid;
         tabId =tableid;
         tabAlias = tableAlias;
+        predicate = p;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return transactionId;
+    }
 
+    /**
+     * @return the predicate pushed down into this scan, or null
+     */
+    public Predicate getPredicate() {
+        return predicate;
     }
 
     /**
@@ -49,6 +85,13 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(tabId);
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return tabId;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -79,7 +122,18 @@ public class SeqScan implements OpIterator {
     }
 
     public void open() throws DbException, TransactionAbortedException {
-        dbFileIterator =  Database.getCatalog().getDatabaseFile(tabId).iterator(transactionId);
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(tabId);
+        if(dbFile instanceof HeapFile){
+            //大表通过私有的环读，避免把缓冲池里别的查询的热页冲掉
+            HeapFile heapFile = (HeapFile) dbFile;
+            BufferAccessStrategy strategy = BufferAccessStrategy.forBulkRead(heapFile.numPages(),
+                    Database.getBufferPool().getNumPages());
+            dbFileIterator = heapFile.iterator(transactionId,strategy,predicate);
+        }
+        else{
+            dbFileIterator = dbFile.iterator(transactionId);
+        }
+        pending = null;
         dbFileIterator.open();
     }
 
@@ -119,20 +173,40 @@ public class SeqScan implements OpIterator {
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
-        return dbFileIterator.hasNext();
+        if(predicate==null){
+            return dbFileIterator.hasNext();
+        }
+        //跳页只是粗筛，读到的页里仍要逐个元组过滤
+        while(pending==null&&dbFileIterator.hasNext()){
+            Tuple t = dbFileIterator.next();
+            if(predicate.filter(t)){
+                pending = t;
+            }
+        }
+        return pending!=null;
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-       return dbFileIterator.next();
+        if(predicate==null){
+            return dbFileIterator.next();
+        }
+        if(!hasNext()){
+            throw new NoSuchElementException();
+        }
+        Tuple t = pending;
+        pending = null;
+        return t;
     }
 
     public void close() {
+        pending = null;
         dbFileIterator.close();
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        pending = null;
         dbFileIterator.rewind();
     }
 }
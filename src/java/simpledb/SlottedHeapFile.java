@@ -0,0 +1,45 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages are SlottedHeapPages, so tuples
+ * are stored as variable-length records and strings take only as many bytes
+ * as they have characters instead of Type.STRING_LEN.  Tables of short
+ * strings fit on far fewer pages.
+ * <p>
+ * Page I/O, the free-space map and scans are those of HeapFile; the free
+ * space is counted in bytes.
+ *
+ * @see SlottedHeapPage
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f  the file that stores the on-disk backing store for this heap file.
+     * @param td the schema of the tuples in the file
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    @Override
+    protected TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new SlottedHeapPage(pid, data);
+    }
+
+    /** @return the free bytes of an empty page */
+    @Override
+    protected int pageCapacity() {
+        return BufferPool.getPageSize() - SlottedHeapPage.HEADER_SIZE;
+    }
+
+    /** @return the bytes of the record of t plus a new slot directory entry */
+    @Override
+    protected int spaceNeeded(Tuple t) {
+        return SlottedHeapPage.recordSize(t) + SlottedHeapPage.SLOT_SIZE;
+    }
+}
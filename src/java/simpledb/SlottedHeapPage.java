@@ -0,0 +1,348 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * SlottedHeapPage is a heap page that stores tuples as variable-length
+ * records, so strings only take as many bytes as they have characters.
+ * <p>
+ * The page starts with a 4 byte header: the number of slots and the offset
+ * where the record area begins, both unsigned 16 bit numbers (an offset of
+ * 0 stands for the page size, so an all-zero page is empty).  The slot
+ * directory follows, one 4 byte entry per slot holding the offset and length
+ * of its record, offset 0 marking an empty slot.  Records are packed from
+ * the end of the page towards the directory.  An int field takes 4 bytes, a
+ * string field a 2 byte length followed by its characters.
+ * <p>
+ * The slot number of a tuple never changes, so RecordIds stay valid when the
+ * records are compacted to make room for an insert.  Pages may be at most
+ * 64KB.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedHeapPage implements TuplePage {
+
+    /** Bytes of the page header. */
+    public static final int HEADER_SIZE = 4;
+    /** Bytes of one slot directory entry. */
+    public static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final byte[] buf;
+    final int pageSize;
+    private int liveBytes = 0;//所有记录加起来的字节数
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+    private volatile boolean dirty = false;
+    private volatile TransactionId dirtier = null;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk.
+     * The data is copied, the page is changed in place.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = data.length;
+        if (pageSize > 1 << 16) {
+            throw new IOException("slotted pages may be at most 64KB");
+        }
+        this.buf = data.clone();
+        int n = numSlots();
+        if (HEADER_SIZE + n * SLOT_SIZE > freeEnd()) {
+            throw new IOException("corrupt slotted page " + id.getPageNumber());
+        }
+        for (int i = 0; i < n; i++) {
+            liveBytes += slotLength(i);
+        }
+        setBeforeImage();
+    }
+
+    private int getU16(int off) {
+        return ((buf[off] & 0xff) << 8) | (buf[off + 1] & 0xff);
+    }
+
+    private void putU16(int off, int v) {
+        buf[off] = (byte) (v >> 8);
+        buf[off + 1] = (byte) v;
+    }
+
+    private int numSlots() {
+        return getU16(0);
+    }
+
+    private int freeEnd() {
+        int v = getU16(2);
+        return v == 0 ? pageSize : v;
+    }
+
+    private void setFreeEnd(int v) {
+        putU16(2, v == pageSize ? 0 : v);
+    }
+
+    private int slotOffset(int slot) {
+        return getU16(HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private int slotLength(int slot) {
+        return getU16(HEADER_SIZE + slot * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        putU16(HEADER_SIZE + slot * SLOT_SIZE, offset);
+        putU16(HEADER_SIZE + slot * SLOT_SIZE + 2, length);
+    }
+
+    /**
+     * @return the number of bytes the record of t takes on a slotted page,
+     *         not counting its slot directory entry
+     */
+    public static int recordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                String s = ((StringField) t.getField(i)).getValue();
+                size += 2 + Math.min(s.length(), Type.STRING_LEN);
+            } else {
+                size += td.getFieldType(i).getLen();
+            }
+        }
+        return size;
+    }
+
+    /** Write the record of t at offset; the same format recordSize measures. */
+    private void writeRecord(Tuple t, int offset) {
+        int p = offset;
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                String s = ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                putU16(p, len);
+                //和StringField.serialize一样只写每个字符的低字节
+                for (int j = 0; j < len; j++) {
+                    buf[p + 2 + j] = (byte) s.charAt(j);
+                }
+                p += 2 + len;
+            } else {
+                int v = ((IntField) f).getValue();
+                buf[p] = (byte) (v >> 24);
+                buf[p + 1] = (byte) (v >> 16);
+                buf[p + 2] = (byte) (v >> 8);
+                buf[p + 3] = (byte) v;
+                p += 4;
+            }
+        }
+    }
+
+    private Tuple readRecord(int slot) {
+        Tuple t = new Tuple(td);
+        int p = slotOffset(slot);
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                int len = getU16(p);
+                t.setField(i, new StringField(new String(buf, p + 2, len), Type.STRING_LEN));
+                p += 2 + len;
+            } else {
+                t.setField(i, new IntField(Type.readInt(buf, p)));
+                p += 4;
+            }
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    /**
+     * Move all records to the end of the page so the free space between the
+     * slot directory and the records is contiguous.
+     */
+    private void compact() {
+        int n = numSlots();
+        byte[] old = buf.clone();
+        int end = pageSize;
+        for (int i = 0; i < n; i++) {
+            int off = slotOffset(i);
+            if (off == 0) {
+                continue;
+            }
+            int len = slotLength(i);
+            end -= len;
+            System.arraycopy(old, off, buf, end, len);
+            setSlot(i, end, len);
+        }
+        int dirEnd = HEADER_SIZE + n * SLOT_SIZE;
+        Arrays.fill(buf, dirEnd, end, (byte) 0);
+        setFreeEnd(end);
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the free bytes of this page, counting the space compaction
+     *         would reclaim
+     */
+    public int getFreeSpace() {
+        return pageSize - HEADER_SIZE - numSlots() * SLOT_SIZE - liveBytes;
+    }
+
+    /**
+     * Adds the specified tuple to the page, reusing an empty slot if there is
+     * one, and compacts the page first if the free space is fragmented.
+     * @throws DbException if the page does not have room for the tuple or
+     *         tupledesc is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        int size = recordSize(t);
+        int n = numSlots();
+        int slot = -1;
+        for (int i = 0; i < n; i++) {
+            if (slotOffset(i) == 0) {
+                slot = i;
+                break;
+            }
+        }
+        int newSlots = slot < 0 ? 1 : 0;
+        if (getFreeSpace() < size + newSlots * SLOT_SIZE) {
+            throw new DbException("page is full");
+        }
+        if (freeEnd() - (HEADER_SIZE + (n + newSlots) * SLOT_SIZE) < size) {
+            compact();
+        }
+        if (slot < 0) {
+            slot = n;
+            putU16(0, n + 1);
+        }
+        int offset = freeEnd() - size;
+        writeRecord(t, offset);
+        setSlot(slot, offset, size);
+        setFreeEnd(offset);
+        liveBytes += size;
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Delete the specified tuple from the page.  Trailing empty slots are
+     * removed from the slot directory.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("tuple is not on this page");
+        }
+        int slot = rid.getTupleNumber();
+        if (slot < 0 || slot >= numSlots() || slotOffset(slot) == 0) {
+            throw new DbException("slot " + slot + " is empty");
+        }
+        int off = slotOffset(slot);
+        int len = slotLength(slot);
+        Arrays.fill(buf, off, off + len, (byte) 0);
+        if (off == freeEnd()) {
+            setFreeEnd(off + len);
+        }
+        liveBytes -= len;
+        setSlot(slot, 0, 0);
+        int n = numSlots();
+        while (n > 0 && slotOffset(n - 1) == 0) {
+            n--;
+        }
+        putU16(0, n);
+    }
+
+    /**
+     * @return the number of tuples on this page
+     */
+    public int getNumTuples() {
+        int count = 0;
+        for (int i = 0; i < numSlots(); i++) {
+            if (slotOffset(i) != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     * this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            int slot = advance(0);
+
+            private int advance(int from) {
+                while (from < numSlots() && slotOffset(from) == 0) {
+                    from++;
+                }
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return slot < numSlots();
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = readRecord(slot);
+                slot = advance(slot + 1);
+                return t;
+            }
+        };
+    }
+
+    public byte[] getPageData() {
+        return buf.clone();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new SlottedHeapPage(pid, oldDataRef);
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty) this.dirtier = tid;
+    }
+
+    public TransactionId isDirty() {
+        if (this.dirty)
+            return this.dirtier;
+        else
+            return null;
+    }
+}
@@ -0,0 +1,256 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * SortMergeJoin implements an equi-join by merging its children in order of
+ * their join fields.  A child that already returns its tuples in that order
+ * (see {@link #isSortedOn}), e.g. a scan of a B+ tree file on its key, is
+ * read as it is; any other child is sorted first, externally if it is
+ * larger than the memory budget.
+ * <p>
+ * For each key, the left tuples with that key are kept, in memory up to the
+ * budget and in a temporary file beyond it, and joined with every right
+ * tuple with that key as those are read.  The output is in order of the
+ * join key.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The default number of tuples kept in memory by each sort and for the duplicates of a key. */
+    public static final int DEFAULT_MEMORY_TUPLES = HashEquiJoin.MAP_SIZE;
+
+    private JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int memoryTuples;
+    transient private OpIterator left, right;//按连接字段有序的两边
+    transient private Tuple leftNext, rightNext;
+    transient private Tuple t2;//正在和这一组连接的右边元组
+    transient private ArrayList<Tuple> group;//左边连接字段相同的一组
+    transient private Field groupKey;
+    transient private TupleSpillFile groupSpill;//组太大时写到文件里
+    transient private OpIterator groupScan;
+    private int groupPos;
+
+    /**
+     * @param p            the predicate to join the children on; it must be an
+     *                     equality
+     * @param child1       iterator for the left(outer) relation to join
+     * @param child2       iterator for the right(inner) relation to join
+     * @param memoryTuples the number of tuples kept in memory by each sort,
+     *                     and of the left tuples with one key
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int memoryTuples) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("a merge join needs an equality, not " + p.getOperator());
+        }
+        if (memoryTuples < 1) {
+            throw new IllegalArgumentException("the budget is at least one tuple");
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.memoryTuples = memoryTuples;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_TUPLES);
+    }
+
+    /**
+     * @return true if it is known to return its tuples in ascending order of
+     *         field: a scan of a B+ tree file on its key, a filter of such a
+     *         scan, an ascending OrderBy on field, or a SortMergeJoin on field
+     */
+    public static boolean isSortedOn(OpIterator it, int field) {
+        if (it instanceof SeqScan) {
+            return isKey(((SeqScan) it).getTableId(), field);
+        } else if (it instanceof BTreeScan) {
+            return isKey(((BTreeScan) it).getTableId(), field);
+        } else if (it instanceof Filter) {
+            return isSortedOn(((Filter) it).getChildren()[0], field);
+        } else if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy) it;
+            return o.isASC() && o.getOrderByField() == field;
+        } else if (it instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) it;
+            return field == j.pred.getField1()
+                    || field == j.child1.getTupleDesc().numFields() + j.pred.getField2();
+        }
+        return false;
+    }
+
+    private static boolean isKey(int tableId, int field) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        left = isSortedOn(child1, pred.getField1()) ? child1
+                : new ExternalSort(child1, pred.getField1(), memoryTuples);
+        right = isSortedOn(child2, pred.getField2()) ? child2
+                : new ExternalSort(child2, pred.getField2(), memoryTuples);
+        left.open();
+        right.open();
+        group = new ArrayList<Tuple>();
+        start();
+        super.open();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        clearGroup();
+        t2 = null;
+        leftNext = left.hasNext() ? left.next() : null;
+        rightNext = right.hasNext() ? right.next() : null;
+    }
+
+    public void close() {
+        super.close();
+        clearGroup();
+        if (left != null) {
+            left.close();
+            right.close();
+        }
+        left = null;
+        right = null;
+        leftNext = null;
+        rightNext = null;
+        t2 = null;
+        group = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        left.rewind();
+        right.rewind();
+        start();
+    }
+
+    private void clearGroup() {
+        if (group != null) {
+            group.clear();
+        }
+        if (groupScan != null) {
+            groupScan.close();
+            groupScan = null;
+        }
+        if (groupSpill != null) {
+            groupSpill.delete();
+            groupSpill = null;
+        }
+    }
+
+    /** Read the left tuples with the key of leftNext into the group. */
+    private void loadGroup() throws DbException, TransactionAbortedException {
+        clearGroup();
+        Field key = leftNext.getField(pred.getField1());
+        groupKey = key;
+        do {
+            if (group.size() == memoryTuples) {
+                // 重复的太多，这一组转到文件里
+                try {
+                    groupSpill = new TupleSpillFile(child1.getTupleDesc());
+                    for (Tuple t : group) {
+                        groupSpill.add(t);
+                    }
+                } catch (IOException e) {
+                    throw new DbException("cannot write spill file: " + e);
+                }
+                group.clear();
+            }
+            if (groupSpill != null) {
+                try {
+                    groupSpill.add(leftNext);
+                } catch (IOException e) {
+                    throw new DbException("cannot write spill file: " + e);
+                }
+            } else {
+                group.add(leftNext);
+            }
+            leftNext = left.hasNext() ? left.next() : null;
+        } while (leftNext != null && ExternalSort.compare(leftNext.getField(pred.getField1()), key) == 0);
+        if (groupSpill != null) {
+            groupScan = groupSpill.scan();
+            groupScan.open();
+        }
+    }
+
+    /** Start joining the group with rightNext. */
+    private void nextRight() throws DbException, TransactionAbortedException {
+        t2 = rightNext;
+        rightNext = right.hasNext() ? right.next() : null;
+        if (groupScan != null) {
+            groupScan.rewind();
+        }
+        groupPos = 0;
+    }
+
+    private Tuple nextInGroup() throws DbException, TransactionAbortedException {
+        if (groupScan != null) {
+            return groupScan.hasNext() ? groupScan.next() : null;
+        }
+        return groupPos < group.size() ? group.get(groupPos++) : null;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (t2 != null) {
+                Tuple t1 = nextInGroup();
+                if (t1 != null) {
+                    return Join.merge(comboTD, t1, t2);
+                }
+                t2 = null;
+                // 下一个右边元组还是同一个键，再和这一组连一遍
+                if (rightNext != null && ExternalSort.compare(rightNext.getField(pred.getField2()),
+                        groupKey) == 0) {
+                    nextRight();
+                    continue;
+                }
+                clearGroup();
+            }
+            if (leftNext == null || rightNext == null) {
+                return null;
+            }
+            int c = ExternalSort.compare(leftNext.getField(pred.getField1()), rightNext.getField(pred.getField2()));
+            if (c < 0) {
+                leftNext = left.hasNext() ? left.next() : null;
+            } else if (c > 0) {
+                rightNext = right.hasNext() ? right.next() : null;
+            } else {
+                loadGroup();
+                nextRight();
+            }
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -17,6 +19,9 @@ public class  Tuple implements Serializable {
     private Field[] fields;
     //选数组，查询多，方便直接用索引
     private RecordId recordId;
+    //延迟解码：字段在用到时才从data中按layout的偏移解析；data是这个元组自己的一份，不引用整页
+    private transient byte[] data;
+    private transient TupleDesc layout;
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -29,6 +34,22 @@ public class  Tuple implements Serializable {
         fields = new Field[td.numFields()];
     }
 
+    /**
+     * Create a tuple from a serialized tuple, e.g. a slot of a HeapPage.
+     * Only the bytes of the tuple are copied, so a tuple kept by an operator
+     * does not keep the whole page alive; fields are decoded from the copy
+     * the first time they are read.
+     *
+     * @param td     the schema of the serialized tuple
+     * @param data   the bytes holding the tuple
+     * @param offset where the tuple starts in data
+     */
+    Tuple(TupleDesc td, byte[] data, int offset) {
+        this(td);
+        this.data = Arrays.copyOfRange(data, offset, offset + td.getSize());
+        this.layout = td;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -76,11 +97,29 @@ public class  Tuple implements Serializable {
      */
     public Field getField(int i) {
         if(i>=0&&i<fields.length){//valid
-            return fields[i];
+            Field f = fields[i];
+            if(f==null&&data!=null){
+                //元组可能被几个线程同时读：字段是不可变的，重复解码写进去的是相等的值，无害
+                f = layout.getFieldType(i).decode(data,layout.getOffset(i));
+                fields[i] = f;
+            }
+            return f;
         }
         throw new NoSuchElementException();
     }
 
+    /**
+     * @return the value of int field i, read straight from the serialized
+     *         tuple if it has not been decoded yet, so no IntField is made
+     */
+    int getInt(int i) {
+        Field f = fields[i];
+        if(f==null&&data!=null){
+            return Type.readInt(data,layout.getOffset(i));
+        }
+        return ((IntField)getField(i)).getValue();
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -94,7 +133,7 @@ public class  Tuple implements Serializable {
             return "";
         String s = new String();
         for(int i=0;i<fields.length;i++){
-           s+=fields[i].toString()+"\\";
+           s+=getField(i).toString()+"\\";
         }
         s =  s.substring(0,s.length());
         return s;
@@ -117,7 +156,7 @@ public class  Tuple implements Serializable {
             @Override
             public Field next() {
                 if(hasNext()){
-                    return fields[position++];
+                    return getField(position++);
                 }
                 throw new NoSuchElementException();
             }
@@ -125,6 +164,14 @@ public class  Tuple implements Serializable {
         return new FieldIterator();
     }
 
+    /** Decode the remaining fields before the tuple is serialized without its data */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        for(int i=0;i<fields.length;i++){
+            getField(i);
+        }
+        out.defaultWriteObject();
+    }
+
     /**
      * reset the TupleDesc of this tuple (only affecting the TupleDesc)
      * */
@@ -0,0 +1,206 @@
+package simpledb;
+
+/**
+ * TupleBatch holds up to a fixed number of rows column by column, the unit
+ * {@link BatchOpIterator}s pass between each other instead of one Tuple at a
+ * time.  Int columns are primitive int arrays and string columns String
+ * arrays, indexed by row.
+ * <p>
+ * A selection vector lists, in order, the rows that are still part of the
+ * batch; a filter narrows it instead of moving the rows.  Consumers read
+ * only the selected rows: for the i-th of {@link #numSelected} rows, the row
+ * is getSelection()[i].
+ */
+public class TupleBatch {
+
+    /** Default number of rows of a batch. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] ints;//每个int列一个数组，不是int列为null
+    private final String[][] strings;//每个字符串列一个数组，不是字符串列为null
+    private final int[] selection;
+    private int size;
+    private int selected;
+
+    /**
+     * Create an empty batch of the given schema and capacity.
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this(td, capacity, new int[td.numFields()][], new String[td.numFields()][], new int[capacity]);
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[i] = new int[capacity];
+            } else {
+                strings[i] = new String[capacity];
+            }
+        }
+    }
+
+    /**
+     * Create an empty batch of the given schema and the default capacity.
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    private TupleBatch(TupleDesc td, int capacity, int[][] ints, String[][] strings, int[] selection) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = ints;
+        this.strings = strings;
+        this.selection = selection;
+    }
+
+    /** @return the schema of the rows */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the most rows this batch holds */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return the number of rows filled in, selected or not */
+    public int size() {
+        return size;
+    }
+
+    /** @return the values of int column i, indexed by row */
+    public int[] getInts(int i) {
+        return ints[i];
+    }
+
+    /** @return the values of string column i, indexed by row */
+    public String[] getStrings(int i) {
+        return strings[i];
+    }
+
+    /**
+     * @return the selection vector; its first {@link #numSelected} entries
+     *         are the selected rows in increasing order
+     */
+    public int[] getSelection() {
+        return selection;
+    }
+
+    /** @return the number of selected rows */
+    public int numSelected() {
+        return selected;
+    }
+
+    /**
+     * Keep only the first n entries of the selection vector, after the
+     * caller has written the rows it keeps there.
+     */
+    public void setNumSelected(int n) {
+        selected = n;
+    }
+
+    /**
+     * Set the number of rows filled in, after the caller has written their
+     * values into the columns, and select all of them.
+     */
+    public void setSize(int n) {
+        if (n > capacity) {
+            throw new IllegalArgumentException("batch holds at most " + capacity + " rows");
+        }
+        for (int r = 0; r < n; r++) {
+            selection[r] = r;
+        }
+        size = n;
+        selected = n;
+    }
+
+    /** Remove all rows. */
+    public void clear() {
+        size = 0;
+        selected = 0;
+    }
+
+    /** @return true if no more rows fit */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Append the values of t as a new selected row.
+     *
+     * @throws IllegalStateException if the batch is full
+     */
+    public void addTuple(Tuple t) {
+        if (size == capacity) {
+            throw new IllegalStateException("batch is full");
+        }
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null) {
+                ints[i][size] = t.getInt(i);
+            } else {
+                strings[i][size] = ((StringField) t.getField(i)).getValue();
+            }
+        }
+        selection[selected++] = size++;
+    }
+
+    /**
+     * Append a tuple serialized in the layout of the schema of this batch,
+     * e.g. a slot of a HeapPage, as a new selected row.  Int values are read
+     * straight from data, without making Field objects.
+     *
+     * @param data   the bytes holding the tuple
+     * @param offset where the tuple starts in data
+     * @throws IllegalStateException if the batch is full
+     */
+    public void addSerialized(byte[] data, int offset) {
+        if (size == capacity) {
+            throw new IllegalStateException("batch is full");
+        }
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null) {
+                ints[i][size] = Type.readInt(data, offset + td.getOffset(i));
+            } else {
+                strings[i][size] = ((StringField) td.getFieldType(i).decode(data, offset + td.getOffset(i))).getValue();
+            }
+        }
+        selection[selected++] = size++;
+    }
+
+    /** @return the value of column i of row as a Field */
+    public Field getField(int row, int i) {
+        if (ints[i] != null) {
+            return new IntField(ints[i][row]);
+        }
+        return new StringField(strings[i][row], Type.STRING_LEN);
+    }
+
+    /** @return row as a new Tuple */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < ints.length; i++) {
+            t.setField(i, getField(row, i));
+        }
+        return t;
+    }
+
+    /**
+     * A batch of some of the columns of this one, sharing their arrays and
+     * the selection vector.
+     *
+     * @param td     the schema of the projected columns
+     * @param fields the columns of this batch to keep, in output order
+     */
+    public TupleBatch project(TupleDesc td, int[] fields) {
+        int[][] pi = new int[fields.length][];
+        String[][] ps = new String[fields.length][];
+        for (int i = 0; i < fields.length; i++) {
+            pi[i] = ints[fields[i]];
+            ps[i] = strings[fields[i]];
+        }
+        TupleBatch b = new TupleBatch(td, capacity, pi, ps, selection);
+        b.size = size;
+        b.selected = selected;
+        return b;
+    }
+}
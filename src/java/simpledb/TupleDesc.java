@@ -10,6 +10,7 @@ public class TupleDesc implements Serializable {
 
     private int numFields;
     private List<TDItem> tdItems = new ArrayList<TDItem>();
+    private transient int[] offsets;//每个字段在序列化元组中的偏移
     /**
      * A help class to facilitate organizing the information of each field
      * */
@@ -187,6 +188,23 @@ public class TupleDesc implements Serializable {
         return result;
     }
 
+    /**
+     * @return the offset (in bytes) of the ith field within a serialized
+     *         tuple of this TupleDesc
+     */
+    public int getOffset(int i) {
+        int[] o = offsets;
+        if(o==null){
+            //第一次用时计算，之后每次O(1)
+            o = new int[tdItems.size()];
+            for(int j=1;j<o.length;j++){
+                o[j] = o[j-1]+tdItems.get(j-1).fieldType.getLen();
+            }
+            offsets = o;
+        }
+        return o[i];
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -0,0 +1,37 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * TuplePage is a page of a HeapFile: an unordered set of tuples that can be
+ * inserted and deleted in place.  The page format decides how much room a
+ * tuple takes, see {@link HeapFile#spaceNeeded}.
+ *
+ * @see HeapPage
+ * @see SlottedHeapPage
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * Adds the specified tuple to the page and sets its RecordId.
+     * @throws DbException if the page has no room for the tuple or the
+     *         tupledesc does not match
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes the specified tuple from the page.
+     * @throws DbException if the tuple is not on this page
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return the room left on this page, in the unit of HeapFile.spaceNeeded
+     */
+    public int getFreeSpace();
+
+    /**
+     * @return an iterator over all tuples on this page
+     */
+    public Iterator<Tuple> iterator();
+}
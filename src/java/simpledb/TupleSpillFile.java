@@ -0,0 +1,136 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+
+/**
+ * TupleSpillFile is a temporary file of tuples that an operator writes once
+ * and then reads back, e.g. a partition of a hash join that does not fit
+ * in memory.  Tuples are written field by field, in the order they are
+ * added; {@link #scan} reads them back as an OpIterator, any number of
+ * times.  The file is only deleted by {@link #delete}, so its owner must
+ * call it on every path, errors included.
+ */
+class TupleSpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private long size;
+
+    TupleSpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("spill", ".tmp");
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    }
+
+    /** Append t; only allowed before the first scan. */
+    void add(Tuple t) throws IOException {
+        for (int i = 0; i < td.numFields(); i++) {
+            t.getField(i).serialize(out);
+        }
+        size++;
+    }
+
+    /** @return the number of tuples added */
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return an iterator over the tuples of this file, in the order they
+     *         were added; no more tuples can be added once it is opened
+     */
+    OpIterator scan() {
+        return new Scan();
+    }
+
+    /** Delete the file; open scans of it must not be used any more. */
+    void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // 文件马上就删了，关不上也无所谓
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    private void finish() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    private class Scan extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient DataInputStream in;
+        private long read;
+
+        public void open() throws DbException, TransactionAbortedException {
+            try {
+                finish();
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            } catch (IOException e) {
+                throw new DbException("cannot read spill file " + file + ": " + e);
+            }
+            read = 0;
+            super.open();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (read == size) {
+                return null;
+            }
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    t.setField(i, td.getFieldType(i).parse(in));
+                }
+            } catch (ParseException e) {
+                throw new DbException("corrupt spill file " + file + ": " + e);
+            }
+            read++;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            closeStream();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            closeStream();
+        }
+
+        private void closeStream() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // 只读的流，忽略
+                }
+                in = null;
+            }
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        @Override
+        public OpIterator[] getChildren() {
+            return new OpIterator[0];
+        }
+
+        @Override
+        public void setChildren(OpIterator[] children) {
+        }
+    }
+}
@@ -107,6 +107,8 @@ public class Utility {
         FileOutputStream fos = new FileOutputStream(f);
         fos.write(new byte[0]);
         fos.close();
+        PageChecksums.sideFile(f).delete();
+        FileExtent.usedPagesFile(f).delete();
 
         HeapFile hf = openHeapFile(cols, f);
         HeapPageId pid = new HeapPageId(hf.getId(), 0);
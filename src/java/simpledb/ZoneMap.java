@@ -0,0 +1,245 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * ZoneMap records the smallest and largest value of every int column on
+ * every page of a HeapFile, so a scan with a predicate on an int column can
+ * skip the pages whose range cannot match.  On tables whose rows arrive in
+ * the order of a column, such as ids or timestamps, a narrow range predicate
+ * then reads only a few pages.
+ * <p>
+ * Each page has one entry of a min and a max per int column.  The entries
+ * are kept in a side file next to the heap file at the offset of the page
+ * number; a flushed page rewrites only its own entry.  A page without tuples
+ * has min greater than max, and a page the map knows nothing about has the
+ * whole int range, so it is never skipped.
+ * <p>
+ * The ranges only need to contain the values on a page, not be exact:
+ * inserts widen the range of their page right away, so a transaction sees
+ * its own uncommitted tuples, and flushing a page narrows its range to the
+ * values actually on it.  Deletes and aborts just leave the range too wide
+ * until then.
+ *
+ * @Threadsafe
+ */
+public class ZoneMap {
+
+    private final File file;
+    private final int[] columnIndex;//表中第i列是第几个int列，不是int列为-1
+    private final int numColumns;
+    private int[] bounds = new int[0];//每页numColumns对min,max
+    private int numPages = 0;
+    private RandomAccessFile raf = null;
+
+    /**
+     * @param file the side file holding the map
+     * @param td   the schema of the heap file; only its int columns are kept
+     */
+    public ZoneMap(File file, TupleDesc td) {
+        this.file = file;
+        this.columnIndex = new int[td.numFields()];
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            columnIndex[i] = td.getFieldType(i) == Type.INT_TYPE ? n++ : -1;
+        }
+        this.numColumns = n;
+    }
+
+    /** @return true if a table of this schema has columns a zone map covers */
+    public static boolean covers(TupleDesc td) {
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int entrySize() {
+        return numColumns * 2;
+    }
+
+    /**
+     * Read the map from its side file.
+     *
+     * @param dataModified the modification time of the heap file
+     * @return false if the side file is missing, does not describe exactly
+     *         numPages pages or is older than the heap file, in which case
+     *         the map has to be rebuilt
+     */
+    public synchronized boolean load(int numPages, long dataModified) throws IOException {
+        long bytes = (long) numPages * entrySize() * 4;
+        if (!file.exists() || file.length() != bytes || file.lastModified() < dataModified) {
+            return false;
+        }
+        byte[] data = new byte[(int) bytes];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int off = 0;
+            while (off < data.length) {
+                int n = in.read(data, off, data.length - off);
+                if (n < 0) {
+                    return false;
+                }
+                off += n;
+            }
+        }
+        int[] b = new int[numPages * entrySize()];
+        ByteBuffer.wrap(data).asIntBuffer().get(b);
+        bounds = b;
+        this.numPages = numPages;
+        return true;
+    }
+
+    private void ensurePage(int pgNo) {
+        int need = (pgNo + 1) * entrySize();
+        if (need > bounds.length) {
+            int old = bounds.length;
+            bounds = Arrays.copyOf(bounds, Math.max(need, old * 2));
+            //还没见过的页不能跳过
+            for (int i = old; i < bounds.length; i += 2) {
+                bounds[i] = Integer.MIN_VALUE;
+                bounds[i + 1] = Integer.MAX_VALUE;
+            }
+        }
+        numPages = Math.max(numPages, pgNo + 1);
+    }
+
+    /** Widen the ranges of a page to include the values of t. */
+    public synchronized void include(int pgNo, Tuple t) {
+        ensurePage(pgNo);
+        int base = pgNo * entrySize();
+        for (int i = 0; i < columnIndex.length; i++) {
+            if (columnIndex[i] < 0) {
+                continue;
+            }
+            int v = ((IntField) t.getField(i)).getValue();
+            int k = base + columnIndex[i] * 2;
+            bounds[k] = Math.min(bounds[k], v);
+            bounds[k + 1] = Math.max(bounds[k + 1], v);
+        }
+    }
+
+    /** Set the ranges of a page to exactly those of the given tuples. */
+    public synchronized void update(int pgNo, Iterator<Tuple> tuples) {
+        ensurePage(pgNo);
+        int base = pgNo * entrySize();
+        for (int c = 0; c < numColumns; c++) {
+            bounds[base + c * 2] = Integer.MAX_VALUE;
+            bounds[base + c * 2 + 1] = Integer.MIN_VALUE;
+        }
+        while (tuples.hasNext()) {
+            include(pgNo, tuples.next());
+        }
+    }
+
+    /**
+     * @return false if no tuple on the page can satisfy
+     *         "field op operand"; true if some may
+     */
+    public synchronized boolean mayMatch(int pgNo, int field, Predicate.Op op, int operand) {
+        if (pgNo >= numPages || columnIndex[field] < 0) {
+            return true;
+        }
+        int k = pgNo * entrySize() + columnIndex[field] * 2;
+        int min = bounds[k];
+        int max = bounds[k + 1];
+        if (min > max) {
+            //页上没有元组
+            return false;
+        }
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return min <= operand && operand <= max;
+            case NOT_EQUALS:
+                return !(min == operand && max == operand);
+            case GREATER_THAN:
+                return max > operand;
+            case GREATER_THAN_OR_EQ:
+                return max >= operand;
+            case LESS_THAN:
+                return min < operand;
+            case LESS_THAN_OR_EQ:
+                return min <= operand;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * @return false if no tuple on the page can satisfy p; p must compare
+     *         against an IntField to be of any use
+     */
+    public boolean mayMatch(int pgNo, Predicate p) {
+        if (!(p.getOperand() instanceof IntField)) {
+            return true;
+        }
+        return mayMatch(pgNo, p.getField(), p.getOp(), ((IntField) p.getOperand()).getValue());
+    }
+
+    private void write(int fromPage, int toPage) throws IOException {
+        if (raf == null) {
+            raf = new RandomAccessFile(file, "rw");
+        }
+        int entry = entrySize();
+        ByteBuffer buf = ByteBuffer.allocate((toPage - fromPage) * entry * 4);
+        buf.asIntBuffer().put(bounds, fromPage * entry, (toPage - fromPage) * entry);
+        raf.seek((long) fromPage * entry * 4);
+        raf.write(buf.array());
+    }
+
+    /** Write the entry of one page to the side file. */
+    public synchronized void save(int pgNo) throws IOException {
+        ensurePage(pgNo);
+        if (raf == null) {
+            raf = new RandomAccessFile(file, "rw");
+        }
+        //文件比页号短时，把中间的页也补上
+        int from = (int) Math.min(raf.length() / (entrySize() * 4), pgNo);
+        write(from, pgNo + 1);
+    }
+
+    /** Write the whole map to the side file. */
+    public synchronized void saveAll() throws IOException {
+        if (raf == null) {
+            raf = new RandomAccessFile(file, "rw");
+        }
+        raf.setLength((long) numPages * entrySize() * 4);
+        write(0, numPages);
+    }
+
+    /**
+     * Forget the pages from numPages on, in memory and in the side file,
+     * after the heap file was truncated.
+     */
+    public synchronized void truncate(int numPages) throws IOException {
+        if (numPages >= this.numPages) {
+            return;
+        }
+        //截掉的页回到未知的范围，以后重新长出来时不会被跳过
+        for (int i = numPages * entrySize(); i < this.numPages * entrySize(); i += 2) {
+            bounds[i] = Integer.MIN_VALUE;
+            bounds[i + 1] = Integer.MAX_VALUE;
+        }
+        this.numPages = numPages;
+        if (raf == null) {
+            raf = new RandomAccessFile(file, "rw");
+        }
+        raf.setLength(Math.min(raf.length(), (long) numPages * entrySize() * 4));
+    }
+
+    /** Close the side file; it is reopened by the next save. */
+    public synchronized void close() throws IOException {
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeBulkLoaderTest extends SimpleDbTestBase {
+
+    private static File tempFile() throws IOException {
+        File f = File.createTempFile("bulk", ".dat");
+        f.deleteOnExit();
+        PageChecksums.sideFile(f).deleteOnExit();
+        return f;
+    }
+
+    private static void checkTree(BTreeFile bf, boolean checkOccupancy) throws Exception {
+        TransactionId tid = new TransactionId();
+        BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), checkOccupancy);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Many small runs, merged in more than one pass, give a valid tree
+     * holding every tuple, duplicate keys included.
+     */
+    @Test public void externalSort() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20000, 2000, null, tuples);
+        // 20000 / 150 runs is more than one merge pass
+        assertTrue(20000 / 150 > ExternalSort.MERGE_FAN_IN);
+        BTreeBulkLoader loader = new BTreeBulkLoader(hf.getTupleDesc(), 1, 1.0, 150);
+        BTreeFile bf = loader.load(hf, tempFile(), "bulk");
+        assertEquals(bf.getId(), Database.getCatalog().getTableId("bulk"));
+
+        checkTree(bf, true);
+        SystemTestUtil.matchTuples(bf, tuples);
+        for (int i = 0; i <= bf.numPages(); i++) {
+            assertTrue(bf.verifyPage(i));
+        }
+
+        int key = tuples.get(17).get(1);
+        int expected = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) == key) {
+                expected++;
+            }
+        }
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, new IntField(key)));
+        it.open();
+        int found = 0;
+        while (it.hasNext()) {
+            assertEquals(key, ((IntField) it.next().getField(1)).getValue());
+            found++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(expected, found);
+    }
+
+    /** A lower fill factor leaves room that later inserts use. */
+    @Test public void fillFactor() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10000, null, tuples);
+        BTreeFile full = new BTreeBulkLoader(hf.getTupleDesc(), 0).load(hf, tempFile(), "full");
+        BTreeFile half = new BTreeBulkLoader(hf.getTupleDesc(), 0, 0.5, 10000).load(hf, tempFile(), "half");
+        // 502 two-int tuples fit on a leaf
+        assertEquals(20 + 1, full.numPages());
+        assertEquals(39 + 1, half.numPages());
+        checkTree(half, true);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 400; i++) {
+            Database.getBufferPool().insertTuple(tid, half.getId(), BTreeUtility.getBTreeTuple(i * 25, 2));
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i * 25);
+            row.add(i * 25);
+            tuples.add(row);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(39 + 1, half.numPages());
+        checkTree(half, false);
+        SystemTestUtil.matchTuples(half, tuples);
+    }
+
+    /** An empty table gives an empty file that takes inserts. */
+    @Test public void empty() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        File f = tempFile();
+        BTreeFile bf = new BTreeBulkLoader(hf.getTupleDesc(), 0).load(hf, f, "empty");
+        assertEquals(0, f.length());
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(5, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        ArrayList<Integer> row = new ArrayList<Integer>();
+        row.add(5);
+        row.add(5);
+        tuples.add(row);
+        SystemTestUtil.matchTuples(bf, tuples);
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeBulkLoaderTest.class);
+    }
+}
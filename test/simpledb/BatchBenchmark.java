@@ -0,0 +1,54 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares the tuple-at-a-time and the vectorized pipelines on
+ * scan, filter and grouped SUM over a table that fits in the BufferPool,
+ * reporting the rows scanned per second of each.
+ * <p>
+ * Not a unit test; run it with
+ * <pre>java -cp bin/src:bin/test:lib/* simpledb.BatchBenchmark [rows] [rounds]</pre>
+ */
+public class BatchBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        // 三列int，第一列取值0..999用作分组
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, rows, 1000, null, null, null);
+        Predicate p = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(500));
+        for (int round = 0; round < rounds; round++) {
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            int tupleGroups = drain(new Aggregate(
+                    new Filter(p, new SeqScan(tid, f.getId(), "t")), 2, 0, Aggregator.Op.SUM));
+            long tupleNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int batchGroups = drain(BatchAdapter.toTuples(new BatchAggregate(
+                    new BatchFilter(p, new BatchSeqScan(tid, f.getId())), 2, 0, Aggregator.Op.SUM)));
+            long batchNanos = System.nanoTime() - start;
+            Database.getBufferPool().transactionComplete(tid);
+
+            if (tupleGroups != batchGroups) {
+                throw new IllegalStateException(tupleGroups + " groups vs " + batchGroups);
+            }
+            System.out.printf("round %2d: tuples %,12d rows/s   batches %,12d rows/s%n", round,
+                    rows * 1000000000L / tupleNanos, rows * 1000000000L / batchNanos);
+        }
+    }
+
+    /** @return the number of rows of it */
+    private static int drain(OpIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+}
@@ -0,0 +1,206 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BatchOpIteratorTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        // three int columns over several pages, values below 64 so groups repeat
+        hf = SystemTestUtil.createRandomHeapFile(3, 3000, 64, null, null, null);
+        tid = new TransactionId();
+    }
+
+    /** @return the rows of it as strings, sorted */
+    private static List<String> rows(OpIterator it) throws Exception {
+        List<String> rows = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            rows.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /** @return the int value of the one row of it */
+    private static int single(OpIterator it) throws Exception {
+        it.open();
+        int value = ((IntField) it.next().getField(0)).getValue();
+        assertFalse(it.hasNext());
+        it.close();
+        return value;
+    }
+
+    private static ArrayList<Integer> fields(Integer... ids) {
+        return new ArrayList<Integer>(Arrays.asList(ids));
+    }
+
+    /**
+     * A scan with a small batch size, a filter and a project return the
+     * same rows in the same order as the tuple operators.
+     */
+    @Test public void scanFilterProject() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate p = new Predicate(1, op, new IntField(20));
+            OpIterator expected = new Project(fields(2, 0),
+                    new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                    new Filter(p, new SeqScan(tid, hf.getId(), "t")));
+            BatchOpIterator batches = new BatchProject(fields(2, 0),
+                    new BatchFilter(p, new BatchSeqScan(tid, hf.getId(), "t", 100)));
+            assertEquals(expected.getTupleDesc(), batches.getTupleDesc());
+            OpIterator actual = BatchAdapter.toTuples(batches);
+            expected.open();
+            actual.open();
+            TestUtil.compareDbIterators(expected, actual);
+            actual.rewind();
+            expected.rewind();
+            TestUtil.compareDbIterators(expected, actual);
+            actual.close();
+            expected.close();
+        }
+    }
+
+    /**
+     * Every aggregate, grouped and not, gives the same rows as Aggregate,
+     * with batches smaller than the number of groups.
+     */
+    @Test public void aggregate() throws Exception {
+        Aggregator.Op[] ops = { Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+                Aggregator.Op.AVG, Aggregator.Op.COUNT };
+        for (Aggregator.Op op : ops) {
+            for (int gfield : new int[] { Aggregator.NO_GROUPING, 0 }) {
+                List<String> expected = rows(new Aggregate(new SeqScan(tid, hf.getId(), "t"), 1, gfield, op));
+                BatchOpIterator agg = new BatchAggregate(new BatchSeqScan(tid, hf.getId(), "t", 10), 1, gfield, op);
+                assertEquals(gfield == Aggregator.NO_GROUPING ? 1 : 64, expected.size());
+                assertEquals(expected, rows(BatchAdapter.toTuples(agg)));
+            }
+        }
+    }
+
+    /**
+     * Groups by a string column, with the batches fed by an OpIterator, and
+     * a filter that falls back to Field comparisons.
+     */
+    @Test public void stringColumns() throws Exception {
+        Object[] data = new Object[2 * 500];
+        for (int i = 0; i < 500; i++) {
+            data[2 * i] = "g" + (i % 7);
+            data[2 * i + 1] = i;
+        }
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new StringField("g2", Type.STRING_LEN));
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT }) {
+            List<String> expected = rows(new Aggregate(
+                    new Filter(p, TestUtil.createTupleList(2, data)), 1, 0, op));
+            BatchOpIterator agg = new BatchAggregate(
+                    new BatchFilter(p, BatchAdapter.toBatches(TestUtil.createTupleList(2, data), 64)), 1, 0, op);
+            assertEquals(4, expected.size());
+            assertEquals(expected, rows(BatchAdapter.toTuples(agg)));
+        }
+        BatchOpIterator count = new BatchAggregate(
+                BatchAdapter.toBatches(TestUtil.createTupleList(2, data)), 0, Aggregator.NO_GROUPING,
+                Aggregator.Op.COUNT);
+        assertEquals(500, single(BatchAdapter.toTuples(count)));
+    }
+
+    /** Without grouping an empty input still gives one row, like Aggregate. */
+    @Test public void emptyInput() throws Exception {
+        Predicate none = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0));
+        BatchOpIterator filter = new BatchFilter(none, new BatchSeqScan(tid, hf.getId()));
+        filter.open();
+        assertNull(filter.nextBatch());
+        filter.close();
+        BatchOpIterator count = new BatchAggregate(filter, 0, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+        assertEquals(0, single(BatchAdapter.toTuples(count)));
+        BatchOpIterator grouped = new BatchAggregate(filter, 0, 1, Aggregator.Op.COUNT);
+        assertTrue(rows(BatchAdapter.toTuples(grouped)).isEmpty());
+    }
+
+    /** Whole columns are copied out of PAX pages, across batch boundaries. */
+    @Test public void paxColumns() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        PaxHeapFile pax = new PaxHeapFile(f, td);
+        Database.getCatalog().addTable(pax, SystemTestUtil.getUUID());
+        TransactionId writer = new TransactionId();
+        for (int i = 0; i < 1200; i++) {
+            Database.getBufferPool().insertTuple(writer, pax.getId(), Utility.getHeapTuple(new int[] { i, -i }));
+        }
+        Database.getBufferPool().transactionComplete(writer);
+        assertTrue(pax.numPages() > 1);
+
+        BatchOpIterator scan = new BatchSeqScan(tid, pax.getId(), "p", 100);
+        OpIterator actual = BatchAdapter.toTuples(scan);
+        OpIterator expected = new SeqScan(tid, pax.getId(), "p");
+        expected.open();
+        actual.open();
+        TestUtil.compareDbIterators(expected, actual);
+        actual.close();
+        expected.close();
+    }
+
+    /**
+     * Heap page slots read from the page bytes and tuples inserted into a
+     * cached page both reach the batches, with string columns too.
+     */
+    @Test public void heapPageSlots() throws Exception {
+        Object[] data = new Object[2 * 400];
+        for (int i = 0; i < 400; i++) {
+            data[2 * i] = i;
+            data[2 * i + 1] = "s" + i;
+        }
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        HeapFile strings = new HeapFile(f, td);
+        Database.getCatalog().addTable(strings, SystemTestUtil.getUUID());
+        TransactionId writer = new TransactionId();
+        TupleIterator input = TestUtil.createTupleList(2, data);
+        input.open();
+        while (input.hasNext()) {
+            Database.getBufferPool().insertTuple(writer, strings.getId(), input.next());
+        }
+        Database.getBufferPool().transactionComplete(writer);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        // the writer's own scan also sees its uncommitted tuples on the cached page
+        Tuple inserted = new Tuple(td);
+        inserted.setField(0, new IntField(-1));
+        inserted.setField(1, new StringField("new", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, strings.getId(), inserted);
+
+        OpIterator actual = BatchAdapter.toTuples(new BatchSeqScan(tid, strings.getId(), "s", 7));
+        List<String> expected = rows(new SeqScan(tid, strings.getId(), "s"));
+        assertEquals(401, expected.size());
+        assertEquals(expected, rows(actual));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchOpIteratorTest.class);
+    }
+}
@@ -0,0 +1,76 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static simpledb.JoinTestUtil.scan;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.JoinTestUtil.CountingScan;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BlockNestedLoopJoinTest extends SimpleDbTestBase {
+
+  /** @return the number of rows of it, which must all satisfy pred */
+  private static int count(OpIterator it, JoinPredicate pred) throws Exception {
+    int n = 0;
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      Field left = t.getField(pred.getField1());
+      Field right = t.getField(2 + pred.getField2());
+      assertEquals(true, left.compare(pred.getOperator(), right));
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Every predicate and block size gives as many rows as Join, all of them
+   * satisfying the predicate.
+   */
+  @Test public void matchesJoin() throws Exception {
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.NOT_EQUALS }) {
+      JoinPredicate pred = new JoinPredicate(0, op, 1);
+      int expected = count(new Join(pred, scan(50, 7), scan(40, 40)), pred);
+      for (int block : new int[] { 1, 3, 49, 50, 1000 }) {
+        BlockNestedLoopJoin join = new BlockNestedLoopJoin(pred, scan(50, 7), scan(40, 40), block);
+        assertEquals(expected, count(join, pred));
+        join.rewind();
+        assertEquals(expected, count(join, pred));
+      }
+    }
+  }
+
+  /** The inner child is scanned once per block of outer tuples. */
+  @Test public void innerScansPerBlock() throws Exception {
+    JoinPredicate pred = new JoinPredicate(1, Predicate.Op.LESS_THAN, 1);
+    CountingScan inner = scan(30, 30);
+    BlockNestedLoopJoin join = new BlockNestedLoopJoin(pred, scan(100, 100), inner, 30);
+    // 外表每个i和内表大于i的行各连一次
+    assertEquals(30 * 29 / 2, count(join, pred));
+    assertEquals(3, inner.rewinds);
+
+    inner = scan(30, 30);
+    join = new BlockNestedLoopJoin(pred, scan(100, 100), inner);
+    assertEquals(BlockNestedLoopJoin.blockTuples(Utility.getTupleDesc(2), BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES),
+        join.getBlockTuples());
+    assertEquals(30 * 29 / 2, count(join, pred));
+    assertEquals(0, inner.rewinds);
+  }
+
+  /** An empty side gives no rows. */
+  @Test public void empty() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    assertEquals(0, count(new BlockNestedLoopJoin(pred, scan(0, 1), scan(10, 1), 4), pred));
+    assertEquals(0, count(new BlockNestedLoopJoin(pred, scan(10, 1), scan(0, 1), 4), pred));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BlockNestedLoopJoinTest.class);
+  }
+}
@@ -0,0 +1,88 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferAccessStrategyTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for BufferAccessStrategy.forBulkRead()
+     */
+    @Test public void forBulkRead() {
+        // tables that fit in the pool go through the shared pool
+        assertNull(BufferAccessStrategy.forBulkRead(10, 1000));
+        // tiny pools cannot spare a ring
+        assertNull(BufferAccessStrategy.forBulkRead(1000, 8));
+        assertNotNull(BufferAccessStrategy.forBulkRead(2000, 1000));
+    }
+
+    /**
+     * Each loader reserves its own slot, and recycles only the page that
+     * was read into that slot.
+     */
+    @Test public void reserveSlots() {
+        BufferAccessStrategy ring = new BufferAccessStrategy(2);
+        int a = ring.reserve();
+        int b = ring.reserve();
+        assertTrue(a != b);
+        assertNull(ring.victim(a));
+        ring.add(b, new HeapPageId(1, 1));
+        ring.add(a, new HeapPageId(1, 0));
+        int c = ring.reserve();
+        assertEquals(a, c);
+        assertEquals(new HeapPageId(1, 0), ring.victim(c));
+        assertNull(ring.victim(c));
+        assertEquals(new HeapPageId(1, 1), ring.victim(ring.reserve()));
+    }
+
+    /**
+     * A scan over a table larger than the pool must not push out a page that
+     * was cached before the scan.
+     */
+    @Test public void scanKeepsHotPages() throws Exception {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        // 504 two-int tuples fit on a page, so this is 60 pages
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 60, null, null);
+        BufferPool bp = Database.resetBufferPool(50);
+
+        TransactionId tid = new TransactionId();
+        HeapPageId hotPid = new HeapPageId(hot.getId(), 0);
+        bp.getPage(tid, hotPid, Permissions.READ_ONLY);
+
+        SeqScan scan = new SeqScan(tid, big.getId());
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        assertEquals(504 * 60, count);
+
+        assertNotNull(bp.getCachedPage(hotPid));
+        int scanPages = 0;
+        for (Page p : bp.getCachedPages()) {
+            if (p.getId().getTableId() == big.getId()) {
+                scanPages++;
+            }
+        }
+        // read-ahead is off, so only the ring holds pages of the scan
+        assertTrue(scanPages <= BufferAccessStrategy.forBulkRead(60, 50).size());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferAccessStrategyTest.class);
+    }
+}
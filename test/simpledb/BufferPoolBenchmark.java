@@ -0,0 +1,77 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures the throughput of BufferPool.getPage() hits with 1 to 32 threads.
+ * Every page of the table is cached before the measurement, so the numbers
+ * only show how well lookups on the page table scale.
+ * <p>
+ * Not a unit test; run it with
+ * <pre>java -cp bin/src:bin/test:lib/* simpledb.BufferPoolBenchmark [pages] [millis]</pre>
+ */
+public class BufferPoolBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+
+        // 504 two-int tuples fit on a page
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * pages, null, null);
+        BufferPool bp = Database.resetBufferPool(pages * 2);
+        TransactionId warm = new TransactionId();
+        for (int i = 0; i < pages; i++) {
+            bp.getPage(warm, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(warm);
+
+        for (int threads = 1; threads <= 32; threads *= 2) {
+            long ops = run(bp, f.getId(), pages, threads, millis);
+            System.out.printf("%2d threads: %,12d getPage/s%n", threads, ops * 1000 / millis);
+        }
+    }
+
+    private static long run(final BufferPool bp, final int tableId, final int pages,
+                            int threads, final long millis) throws InterruptedException {
+        final AtomicLong total = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            Thread w = new Thread(() -> {
+                Random r = new Random(seed);
+                TransactionId tid = new TransactionId();
+                long n = 0;
+                try {
+                    start.await();
+                    long end = System.currentTimeMillis() + millis;
+                    while (System.currentTimeMillis() < end) {
+                        // check the clock only every 1024 lookups
+                        for (int i = 0; i < 1024; i++) {
+                            bp.getPage(tid, new HeapPageId(tableId, r.nextInt(pages)),
+                                    Permissions.READ_ONLY);
+                        }
+                        n += 1024;
+                    }
+                    bp.transactionComplete(tid);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                total.addAndGet(n);
+            });
+            workers.add(w);
+            w.start();
+        }
+        start.countDown();
+        for (Thread w : workers) {
+            w.join();
+        }
+        return total.get();
+    }
+}
@@ -0,0 +1,152 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolLoadTest extends SimpleDbTestBase {
+
+    /** A HeapFile whose reads of page 1 wait until they are released. */
+    private static class SlowHeapFile extends HeapFile {
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger slowReads = new AtomicInteger();
+
+        SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        public Page readPage(PageId pid) {
+            if (pid.getPageNumber() == 1) {
+                slowReads.incrementAndGet();
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    /**
+     * While one page is read from disk, other pages of its stripe can still
+     * be found, and a second request for the page waits for the same read.
+     */
+    @Test public void readOutsideStripe() throws Exception {
+        // 504 two-int tuples fit on a page, so this is 2 pages
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 2, 100, null, null);
+        f.deleteOnExit();
+        SlowHeapFile hf = new SlowHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        // 这么小的池只有一段
+        BufferPool bp = Database.resetBufferPool(10);
+
+        TransactionId tid = new TransactionId();
+        HeapPageId pid0 = new HeapPageId(hf.getId(), 0);
+        HeapPageId pid1 = new HeapPageId(hf.getId(), 1);
+        bp.getPage(tid, pid0, Permissions.READ_ONLY);
+
+        AtomicReference<Page> first = new AtomicReference<Page>();
+        AtomicReference<Page> second = new AtomicReference<Page>();
+        Thread a = new Thread(() -> {
+            try {
+                first.set(bp.getPage(tid, pid1, Permissions.READ_ONLY));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        a.start();
+        assertTrue(hf.reading.await(10, TimeUnit.SECONDS));
+
+        // 命中不用等磁盘读完
+        assertNotNull(bp.getPage(tid, pid0, Permissions.READ_ONLY));
+        Thread b = new Thread(() -> {
+            try {
+                second.set(bp.getPage(tid, pid1, Permissions.READ_ONLY));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        b.start();
+
+        hf.release.countDown();
+        a.join(10000);
+        b.join(10000);
+        assertNotNull(first.get());
+        assertSame(first.get(), second.get());
+        assertEquals(1, hf.slowReads.get());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A loader that waits for the read of another one takes no slot of its
+     * ring, so the ring pages read before stay cached.
+     */
+    @Test public void waitKeepsRing() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 2, 100, null, null);
+        f.deleteOnExit();
+        SlowHeapFile hf = new SlowHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        BufferPool bp = Database.resetBufferPool(10);
+        BufferAccessStrategy ring = new BufferAccessStrategy(2);
+
+        TransactionId tid = new TransactionId();
+        HeapPageId pid0 = new HeapPageId(hf.getId(), 0);
+        HeapPageId pid1 = new HeapPageId(hf.getId(), 1);
+        bp.getPage(tid, pid0, Permissions.READ_ONLY, ring);
+
+        Thread a = new Thread(() -> {
+            try {
+                bp.getPage(tid, pid1, Permissions.READ_ONLY, ring);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        a.start();
+        assertTrue(hf.reading.await(10, TimeUnit.SECONDS));
+        Thread b = new Thread(() -> {
+            try {
+                bp.getPage(tid, pid1, Permissions.READ_ONLY, ring);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        b.start();
+        // 等b停在a的读上
+        long deadline = System.currentTimeMillis() + 10000;
+        while (b.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        hf.release.countDown();
+        a.join(10000);
+        b.join(10000);
+
+        assertNotNull(bp.getCachedPage(pid0));
+        assertNotNull(bp.getCachedPage(pid1));
+        assertEquals(1, hf.slowReads.get());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolLoadTest.class);
+    }
+}
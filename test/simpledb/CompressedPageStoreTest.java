@@ -0,0 +1,162 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedPageStoreTest extends SimpleDbTestBase {
+
+    private static byte[] roundTrip(byte[] page) {
+        byte[] compressed = PageCompressor.compress(page);
+        byte[] out = new byte[page.length];
+        assertEquals(page.length, PageCompressor.decompress(compressed, compressed.length, out));
+        assertArrayEquals(page, out);
+        return compressed;
+    }
+
+    /**
+     * Pages survive compression; padded strings shrink a lot and random
+     * bytes grow only a little.
+     */
+    @Test public void codec() throws Exception {
+        byte[] zeros = new byte[BufferPool.getPageSize()];
+        assertTrue(roundTrip(zeros).length < 32);
+
+        byte[] random = new byte[BufferPool.getPageSize()];
+        new Random(1).nextBytes(random);
+        assertTrue(roundTrip(random).length <= random.length + random.length / 255 + 16);
+
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+        HeapPage page = new HeapPage(new HeapPageId(-1, 0), HeapPage.createEmptyPageData());
+        for (int i = 0; page.getNumEmptySlots() > 0; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("name " + i, Type.STRING_LEN));
+            page.insertTuple(t);
+        }
+        byte[] data = page.getPageData();
+        assertTrue(roundTrip(data).length * 5 < data.length);
+    }
+
+    /**
+     * Pages read back as written, a page that grows moves to the end of the
+     * file, and the index survives reopening the store.
+     */
+    @Test public void store() throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        CompressedPageStore.indexFile(f).deleteOnExit();
+        CompressedPageStore store = new CompressedPageStore(f);
+        byte[] a = new byte[100];
+        a[3] = 7;
+        byte[] b = new byte[100];
+        new Random(2).nextBytes(b);
+        store.write(0, a);
+        store.write(2, a);
+        assertEquals(3, store.numPages());
+        long size = f.length();
+        store.write(0, b);
+        assertTrue(f.length() > size);
+        store.close();
+
+        store = new CompressedPageStore(f);
+        assertTrue(CompressedPageStore.isCompressed(f));
+        assertEquals(3, store.numPages());
+        byte[] out = new byte[100];
+        assertTrue(store.read(0, out));
+        assertArrayEquals(b, out);
+        assertTrue(store.read(1, out));
+        assertArrayEquals(new byte[100], out);
+        assertTrue(store.read(2, out));
+        assertArrayEquals(a, out);
+        assertFalse(store.read(3, out));
+        store.close();
+    }
+
+    /**
+     * A heap file converted to the compressed store takes less space, reads
+     * and updates the same tuples, and converts back.
+     */
+    @Test public void heapFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 5000, 100, null, tuples);
+        long rawSize = hf.getFile().length();
+        int pages = hf.numPages();
+        CompressedPageStore.indexFile(hf.getFile()).deleteOnExit();
+
+        hf.setCompressed(true);
+        assertTrue(hf.isCompressed());
+        assertTrue(hf.getFile().length() < rawSize);
+        assertEquals(pages, hf.numPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 600; i++) {
+            Tuple t = new Tuple(hf.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(-i));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i);
+            row.add(-i);
+            tuples.add(row);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertTrue(hf.numPages() > pages);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        hf.setCompressed(false);
+        assertFalse(CompressedPageStore.isCompressed(hf.getFile()));
+        assertEquals(hf.numPages() * (long) BufferPool.getPageSize(), hf.getFile().length());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * A compressed B+ tree keeps its root pointer page and grows through
+     * splits.
+     */
+    @Test public void bTreeFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 3000, null, tuples, 0);
+        CompressedPageStore.indexFile(bf.getFile()).deleteOnExit();
+        int pages = bf.numPages();
+        bf.setCompressed(true);
+        assertEquals(pages, bf.numPages());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(bf, tuples);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i);
+            row.add(i);
+            Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(row));
+            tuples.add(row);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        // the splits allocated their pages in the store
+        assertTrue(bf.numPages() > pages);
+        SystemTestUtil.matchTuples(bf, tuples);
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedPageStoreTest.class);
+    }
+}
@@ -0,0 +1,156 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FileExtentTest extends SimpleDbTestBase {
+
+    @After public void tearDown() {
+        FileExtent.setExtentPages(FileExtent.DEFAULT_EXTENT_PAGES);
+    }
+
+    /** Files grow to the end of the extent holding the needed byte. */
+    @Test public void grow() throws Exception {
+        File f = File.createTempFile("extent", ".dat");
+        f.deleteOnExit();
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            FileChannel ch = raf.getChannel();
+            FileExtent.setExtentPages(4);
+            assertEquals(4 * 100, FileExtent.grow(ch, 0, 1, 0, 100));
+            assertEquals(4 * 100, ch.size());
+            assertEquals(4 * 100, FileExtent.grow(ch, 400, 400, 0, 100));
+            assertEquals(8 * 100, FileExtent.grow(ch, 400, 401, 0, 100));
+            // the extents are aligned after the base bytes
+            assertEquals(10 + 12 * 100, FileExtent.grow(ch, 800, 10 + 801, 10, 100));
+            FileExtent.setExtentPages(1);
+            assertEquals(10 + 13 * 100, FileExtent.grow(ch, 1210, 10 + 1250, 10, 100));
+            assertEquals(1310, ch.size());
+        }
+    }
+
+    /** A heap file grows by extents but counts only the pages in use. */
+    @Test public void heapFile() throws Exception {
+        FileExtent.setExtentPages(16);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, tuples);
+        // 504 two-int tuples fit on a page
+        for (int i = 0; i < 2 * 504 + 1; i += 500) {
+            TransactionId tid = new TransactionId();
+            for (int j = i; j < Math.min(2 * 504 + 1, i + 500); j++) {
+                Tuple t = Utility.getHeapTuple(j, 2);
+                Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+                ArrayList<Integer> row = new ArrayList<Integer>();
+                row.add(j);
+                row.add(j);
+                tuples.add(row);
+            }
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        assertEquals(3, hf.numPages());
+        assertEquals(16L * BufferPool.getPageSize(), hf.getFile().length());
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        // another HeapFile on the file does not count the zeroed pages of
+        // the extent either
+        HeapFile reopened = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        assertEquals(3, reopened.numPages());
+        reopened.writePage(reopened.readPage(new HeapPageId(reopened.getId(), 0)));
+        assertEquals(3, reopened.numPages());
+    }
+
+    /** A HeapFile that counts the pages it reads. */
+    private static class CountingHeapFile extends HeapFile {
+        int reads;
+
+        CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        public Page readPage(PageId pid) {
+            reads++;
+            return super.readPage(pid);
+        }
+    }
+
+    /**
+     * A grown heap file opened again loads its free space and zone maps
+     * instead of rebuilding them from its pages.
+     */
+    @Test public void heapFileReopened() throws Exception {
+        FileExtent.setExtentPages(16);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        File f = hf.getFile();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        new File(f.getPath() + ".zm").deleteOnExit();
+        PageChecksums.sideFile(f).deleteOnExit();
+        FileExtent.usedPagesFile(f).deleteOnExit();
+        TransactionId tid = new TransactionId();
+        for (int j = 0; j < 2 * 504 + 1; j++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(j, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertNotNull(hf.getZoneMap());
+        assertEquals(3, hf.numPages());
+        hf.close();
+
+        CountingHeapFile reopened = new CountingHeapFile(f, hf.getTupleDesc());
+        Database.getCatalog().addTable(reopened, "reopened");
+        assertEquals(16L * BufferPool.getPageSize(), f.length());
+        assertEquals(3, reopened.numPages());
+        assertNotNull(reopened.getFreeSpaceMap());
+        assertNotNull(reopened.getZoneMap());
+        assertEquals(0, reopened.reads);
+        assertEquals(3, new File(f.getPath() + ".fsm").length());
+    }
+
+    /** A B+ tree file allocates new pages inside its extent. */
+    @Test public void bTreeFile() throws Exception {
+        FileExtent.setExtentPages(8);
+        File f = File.createTempFile("extent", ".dat");
+        f.deleteOnExit();
+        PageChecksums.sideFile(f).deleteOnExit();
+        FileExtent.usedPagesFile(f).deleteOnExit();
+        BTreeFile bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+        TransactionId tid = new TransactionId();
+        // 502 two-int tuples fit on a leaf, the next one splits it
+        for (int i = 0; i < 503; i++) {
+            Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, bf.numPages());
+        assertEquals(BTreeRootPtrPage.getPageSize() + 8L * BufferPool.getPageSize(), f.length());
+        assertTrue(bf.verifyPage(3));
+
+        // opened again, the file still counts 3 pages and allocates the next
+        // ones inside the same extent
+        BTreeFile reopened = new BTreeFile(f, 0, bf.getTupleDesc());
+        Database.getCatalog().addTable(reopened, "reopened");
+        assertEquals(3, reopened.numPages());
+        tid = new TransactionId();
+        for (int i = 503; i < 1006; i++) {
+            Database.getBufferPool().insertTuple(tid, reopened.getId(), BTreeUtility.getBTreeTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(reopened.numPages() > 3);
+        assertEquals(BTreeRootPtrPage.getPageSize() + 8L * BufferPool.getPageSize(), f.length());
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FileExtentTest.class);
+    }
+}
@@ -0,0 +1,113 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for FreeSpaceMap.update(), findPage() and the side file
+     */
+    @Test public void updateSaveLoad() throws Exception {
+        File f = File.createTempFile("table", ".fsm");
+        f.deleteOnExit();
+        FreeSpaceMap fsm = new FreeSpaceMap(f, 100);
+        fsm.update(0, 0);
+        fsm.update(1, 1);
+        fsm.update(2, 0);
+        fsm.update(3, 100);
+        assertEquals(1, fsm.findPage(0));
+        assertEquals(3, fsm.findPage(2));
+        assertEquals(-1, fsm.findPage(4));
+        fsm.saveAll();
+        fsm.update(1, 0);
+        fsm.save(1);
+        fsm.update(4, 50);
+        fsm.save(4);
+        fsm.close();
+
+        FreeSpaceMap loaded = new FreeSpaceMap(f, 100);
+        assertFalse(loaded.load(4));
+        assertTrue(loaded.load(5));
+        assertEquals(3, loaded.findPage(0));
+        assertEquals(4, loaded.findPage(4));
+    }
+
+    /**
+     * An insert goes straight to the page with room, without locking the
+     * full pages in front of it.
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        // 504 two-int tuples fit on a page, so the last of 5 pages has one free slot
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 5 - 1, null, null);
+        BufferPool bp = Database.resetBufferPool(50);
+        TransactionId tid = new TransactionId();
+
+        hf.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        for (int i = 0; i < 4; i++) {
+            assertFalse(bp.holdsLock(tid, new HeapPageId(hf.getId(), i)));
+        }
+        assertTrue(bp.holdsLock(tid, new HeapPageId(hf.getId(), 4)));
+        assertEquals(5, hf.numPages());
+
+        // now every page is full and the next insert appends a page
+        hf.insertTuple(tid, Utility.getHeapTuple(3, 2));
+        assertEquals(6, hf.numPages());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Saving a page past the end of the side file writes the pages in
+     * between as possibly free, not with their in-memory entries.
+     */
+    @Test public void saveFillsGap() throws Exception {
+        File f = File.createTempFile("table", ".fsm");
+        f.deleteOnExit();
+        FreeSpaceMap fsm = new FreeSpaceMap(f, 100);
+        fsm.update(0, 0);
+        fsm.update(1, 0);
+        fsm.update(2, 10);
+        fsm.save(2);
+        fsm.close();
+        byte[] data = TestUtil.readFileBytes(f.getPath());
+        assertEquals(3, data.length);
+        assertEquals((byte) 255, data[0]);
+        assertEquals((byte) 255, data[1]);
+        assertEquals((byte) 26, data[2]);
+    }
+
+    /**
+     * An aborted insert that filled a page leaves the page free in the map,
+     * so the next insert still finds it.
+     */
+    @Test public void abortRestoresFreeSpace() throws Exception {
+        // 504 two-int tuples fit on a page, so the last of 5 pages has one free slot
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 5 - 1, null, null);
+        BufferPool bp = Database.resetBufferPool(50);
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+        assertEquals(-1, hf.getFreeSpaceMap().findPage(0));
+        bp.transactionComplete(tid, false);
+        assertEquals(4, hf.getFreeSpaceMap().findPage(0));
+
+        tid = new TransactionId();
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+        bp.transactionComplete(tid);
+        assertEquals(5, hf.numPages());
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
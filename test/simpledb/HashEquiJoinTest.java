@@ -0,0 +1,122 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static simpledb.JoinTestUtil.rows;
+import static simpledb.JoinTestUtil.scan;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.JoinTestUtil.CountingScan;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+  private static List<String> expected(int rows1, int mod1, int rows2, int mod2) throws Exception {
+    return JoinTestUtil.expected(new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan(rows1, mod1), scan(rows2, mod2));
+  }
+
+  /**
+   * A build side many times the budget is partitioned, and the probe side
+   * is read only once.
+   */
+  @Test public void spill() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    List<String> expected = expected(3000, 500, 1500, 700);
+    for (int budget : new int[] { 1, 50, 400, 5000 }) {
+      CountingScan probe = scan(1500, 700);
+      HashEquiJoin join = new HashEquiJoin(pred, scan(3000, 500), probe, budget);
+      join.open();
+      assertEquals(expected, rows(join));
+      assertEquals(0, probe.rewinds);
+      join.rewind();
+      assertEquals(expected, rows(join));
+      join.close();
+    }
+  }
+
+  /**
+   * A key too common to be split by partitioning is joined in chunks, by
+   * reading its probe partition once per chunk.
+   */
+  @Test public void skewedKey() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    List<String> expected = expected(400, 1, 50, 5);
+    assertEquals(400 * 10, expected.size());
+    HashEquiJoin join = new HashEquiJoin(pred, scan(400, 1), scan(50, 5), 30);
+    join.open();
+    assertEquals(expected, rows(join));
+    join.close();
+  }
+
+  /**
+   * Keys that differ only in their high bits are spread over all the
+   * partitions at every level, and joined correctly.
+   */
+  @Test public void highBitKeys() throws Exception {
+    for (int level = 0; level <= HashEquiJoin.MAX_LEVEL; level++) {
+      int[] counts = new int[HashEquiJoin.PARTITIONS];
+      for (int k = 0; k < 1000; k++) {
+        counts[HashEquiJoin.partitionOf(new IntField(k << 17), level)]++;
+      }
+      for (int c : counts) {
+        assertTrue(c > 1000 / HashEquiJoin.PARTITIONS / 2);
+      }
+    }
+
+    ArrayList<Tuple> left = new ArrayList<Tuple>();
+    ArrayList<Tuple> right = new ArrayList<Tuple>();
+    for (int i = 0; i < 3000; i++) {
+      left.add(Utility.getHeapTuple(new int[] { (i % 1000) << 17, i }));
+    }
+    for (int i = 0; i < 500; i++) {
+      right.add(Utility.getHeapTuple(new int[] { (i * 3 % 1000) << 17, i }));
+    }
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    List<String> expected = JoinTestUtil.expected(pred, new TupleIterator(Utility.getTupleDesc(2), left),
+        new TupleIterator(Utility.getTupleDesc(2), right));
+    HashEquiJoin join = new HashEquiJoin(pred, new TupleIterator(Utility.getTupleDesc(2), left),
+        new TupleIterator(Utility.getTupleDesc(2), right), 100);
+    join.open();
+    assertEquals(expected, rows(join));
+    join.close();
+  }
+
+  /** String keys, and an empty probe side. */
+  @Test public void stringKeysAndEmpty() throws Exception {
+    Object[] left = new Object[2 * 200];
+    Object[] right = new Object[2 * 100];
+    for (int i = 0; i < 200; i++) {
+      left[2 * i] = "k" + (i % 60);
+      left[2 * i + 1] = i;
+    }
+    for (int i = 0; i < 100; i++) {
+      right[2 * i] = "k" + (i % 80);
+      right[2 * i + 1] = i;
+    }
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    List<String> expected = JoinTestUtil.expected(pred, TestUtil.createTupleList(2, left),
+        TestUtil.createTupleList(2, right));
+    HashEquiJoin join = new HashEquiJoin(pred, TestUtil.createTupleList(2, left),
+        TestUtil.createTupleList(2, right), 20);
+    join.open();
+    assertEquals(expected, rows(join));
+    join.close();
+
+    join = new HashEquiJoin(pred, scan(100, 10), scan(0, 1), 5);
+    join.open();
+    assertEquals(0, rows(join).size());
+    join.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashEquiJoinTest.class);
+  }
+}
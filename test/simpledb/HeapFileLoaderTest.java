@@ -0,0 +1,112 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HeapFileLoaderTest extends SimpleDbTestBase {
+
+    private static File tempFile(String suffix) throws IOException {
+        File f = File.createTempFile("loader", suffix);
+        f.deleteOnExit();
+        PageChecksums.sideFile(f).deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Small chunks on several workers give the same pages as the encoder,
+     * with every page checksummed, and the table is in the catalog.
+     */
+    @Test public void sameAsEncoder() throws Exception {
+        File csv = tempFile(".txt");
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        Random r = new Random(3);
+        try (PrintWriter w = new PrintWriter(new FileWriter(csv))) {
+            for (int i = 0; i < 5000; i++) {
+                ArrayList<Integer> row = new ArrayList<Integer>();
+                for (int j = 0; j < 3; j++) {
+                    row.add(r.nextInt(100000) - 50000);
+                }
+                tuples.add(row);
+                w.println(row.get(0) + ", " + row.get(1) + "," + row.get(2));
+                if (i == 100) {
+                    w.println();
+                }
+            }
+        }
+        File encoded = tempFile(".dat");
+        HeapFileEncoder.convert(csv, encoded, BufferPool.getPageSize(), 3);
+
+        File loaded = tempFile(".dat");
+        TupleDesc td = Utility.getTupleDesc(3);
+        HeapFile hf = new HeapFileLoader(td, ',', 4, 2).load(csv, loaded, "loaded");
+        assertArrayEquals(Files.readAllBytes(encoded.toPath()), Files.readAllBytes(loaded.toPath()));
+
+        assertEquals(hf.getId(), Database.getCatalog().getTableId("loaded"));
+        assertNotNull(TableStats.getTableStats("loaded"));
+        for (int i = 0; i < hf.numPages(); i++) {
+            assertTrue(hf.verifyPage(i));
+        }
+        assertEquals(hf.numPages() * 4L, PageChecksums.sideFile(loaded).length());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /** String fields are padded and truncated like the encoder does. */
+    @Test public void strings() throws Exception {
+        File csv = tempFile(".txt");
+        StringBuilder longString = new StringBuilder();
+        for (int i = 0; i < Type.STRING_LEN + 10; i++) {
+            longString.append((char) ('a' + i % 26));
+        }
+        try (PrintWriter w = new PrintWriter(new FileWriter(csv))) {
+            for (int i = 0; i < 100; i++) {
+                w.println(i + "|name " + i);
+            }
+            w.println("7|" + longString);
+        }
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+        File encoded = tempFile(".dat");
+        HeapFileEncoder.convert(csv, encoded, BufferPool.getPageSize(), 2, types, '|');
+        File loaded = tempFile(".dat");
+        new HeapFileLoader(new TupleDesc(types), '|', 2, 1).load(csv, loaded, "strings");
+        assertArrayEquals(Files.readAllBytes(encoded.toPath()), Files.readAllBytes(loaded.toPath()));
+    }
+
+    /** A row that does not parse stops the load with its row number. */
+    @Test public void badRow() throws Exception {
+        File csv = tempFile(".txt");
+        try (PrintWriter w = new PrintWriter(new FileWriter(csv))) {
+            for (int i = 0; i < 1000; i++) {
+                w.println(i == 700 ? "1,x" : i + "," + i);
+            }
+        }
+        try {
+            new HeapFileLoader(Utility.getTupleDesc(2), ',', 2, 1).load(csv, tempFile(".dat"), "bad");
+            fail("bad row not reported");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("row 701"));
+        }
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileLoaderTest.class);
+    }
+}
@@ -0,0 +1,56 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures HeapFile.readPage() throughput with 1 to 16 threads reading
+ * random pages directly, bypassing the BufferPool, so every call does a
+ * read from the file.
+ * <p>
+ * Not a unit test; run it with
+ * <pre>java -cp bin/src:bin/test:lib/* simpledb.HeapFileReadBenchmark [pages] [millis]</pre>
+ */
+public class HeapFileReadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+
+        // 504 two-int tuples fit on a page
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * pages, null, null);
+        for (int threads = 1; threads <= 16; threads *= 2) {
+            long reads = run(f, pages, threads, millis);
+            System.out.printf("%2d threads: %,10d readPage/s%n", threads, reads * 1000 / millis);
+        }
+    }
+
+    private static long run(final HeapFile f, final int pages, int threads, final long millis)
+            throws InterruptedException {
+        final AtomicLong total = new AtomicLong();
+        final long end = System.currentTimeMillis() + millis;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            Thread w = new Thread(() -> {
+                Random r = new Random(seed);
+                long n = 0;
+                while (System.currentTimeMillis() < end) {
+                    f.readPage(new HeapPageId(f.getId(), r.nextInt(pages)));
+                    n++;
+                }
+                total.addAndGet(n);
+            });
+            workers.add(w);
+            w.start();
+        }
+        for (Thread w : workers) {
+            w.join();
+        }
+        return total.get();
+    }
+}
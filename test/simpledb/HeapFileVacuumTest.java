@@ -0,0 +1,124 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HeapFileVacuumTest extends SimpleDbTestBase {
+
+    /**
+     * A ten page file with three of every four tuples deleted; the tuples
+     * left are returned in the same order.
+     */
+    private HeapFile createSparseFile(ArrayList<ArrayList<Integer>> kept) throws Exception {
+        // 504 two-int tuples fit on a page
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10 * 504, null, null);
+        PageChecksums.sideFile(hf.getFile()).deleteOnExit();
+        new File(hf.getFile().getPath() + ".fsm").deleteOnExit();
+        new File(hf.getFile().getPath() + ".zm").deleteOnExit();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        for (int i = 0; it.hasNext(); i++) {
+            Tuple t = it.next();
+            if (i % 4 == 0) {
+                ArrayList<Integer> row = new ArrayList<Integer>();
+                row.add(((IntField) t.getField(0)).getValue());
+                row.add(((IntField) t.getField(1)).getValue());
+                kept.add(row);
+            } else {
+                doomed.add(t);
+            }
+        }
+        it.close();
+        for (Tuple t : doomed) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(10, hf.numPages());
+        return hf;
+    }
+
+    /**
+     * The tuples of the tail pages fill the holes of the first ones and the
+     * file is truncated; the moved tuples can be found by their RecordIds.
+     */
+    @Test public void compact() throws Exception {
+        ArrayList<ArrayList<Integer>> kept = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = createSparseFile(kept);
+
+        assertEquals(7, hf.vacuum());
+        assertEquals(3, hf.numPages());
+        assertEquals(3L * BufferPool.getPageSize(), hf.getFile().length());
+        assertEquals(3, new File(hf.getFile().getPath() + ".fsm").length());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(hf.verifyPage(i));
+        }
+        SystemTestUtil.matchTuples(hf, kept);
+        assertEquals(0, hf.vacuum());
+
+        // inserts go into the pages that are left
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 200; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(i, 2));
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i);
+            row.add(i);
+            kept.add(row);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, hf.numPages());
+        SystemTestUtil.matchTuples(hf, kept);
+
+        // every tuple can be deleted through the RecordId a scan gives it
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        ArrayList<Tuple> all = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            all.add(it.next());
+        }
+        it.close();
+        for (Tuple t : all) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        SystemTestUtil.matchTuples(hf, new ArrayList<ArrayList<Integer>>());
+        assertEquals(2, hf.vacuum());
+        assertEquals(1, hf.numPages());
+    }
+
+    /** A mapped file keeps its length; the emptied pages are zeros. */
+    @Test public void memoryMapped() throws Exception {
+        ArrayList<ArrayList<Integer>> kept = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = createSparseFile(kept);
+        hf.setMemoryMapped(true);
+        try {
+            assertEquals(7, hf.vacuum());
+            assertEquals(3, hf.numPages());
+            assertEquals(10L * BufferPool.getPageSize(), hf.getFile().length());
+            SystemTestUtil.matchTuples(hf, kept);
+
+            HeapFile reopened = new HeapFile(hf.getFile(), hf.getTupleDesc());
+            assertFalse(((HeapPage) reopened.readPage(new HeapPageId(reopened.getId(), 9))).iterator().hasNext());
+        } finally {
+            hf.setMemoryMapped(false);
+        }
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileVacuumTest.class);
+    }
+}
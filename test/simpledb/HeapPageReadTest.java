@@ -120,6 +120,26 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Tuples decode their fields from the page bytes on demand, and a page
+     * whose tuples were partly read or changed serializes like a decoded one.
+     */
+    @Test public void lazyTuples() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        assertEquals(new RecordId(pid, 0), first.getRecordId());
+        assertEquals(EXAMPLE_VALUES[0][1], ((IntField) first.getField(1)).getValue());
+        first.setField(0, new IntField(-7));
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        Tuple t = copy.iterator().next();
+        assertEquals(-7, ((IntField) t.getField(0)).getValue());
+        assertEquals(EXAMPLE_VALUES[0][1], ((IntField) t.getField(1)).getValue());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,144 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static simpledb.JoinTestUtil.expected;
+import static simpledb.JoinTestUtil.rows;
+import static simpledb.JoinTestUtil.scan;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.List;
+import java.util.Vector;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+  private HeapFile outer;
+  private BTreeFile inner;
+  private TransactionId tid;
+
+  @Before public void setUp() throws Exception {
+    File heap = SystemTestUtil.createRandomHeapFileUnopened(2, 2000, 300, null, null);
+    heap.deleteOnExit();
+    outer = Utility.openHeapFile(2, "c", heap);
+    File f = File.createTempFile("index", ".dat");
+    f.deleteOnExit();
+    PageChecksums.sideFile(f).deleteOnExit();
+    inner = new BTreeBulkLoader(outer.getTupleDesc(), 0).load(outer, f, "b" + SystemTestUtil.getUUID());
+    tid = new TransactionId();
+  }
+
+  private SeqScan innerScan() throws Exception {
+    return new SeqScan(tid, inner.getId(), "b");
+  }
+
+  /** Equalities and ranges, probed one outer tuple at a time or in sorted batches. */
+  @Test public void probes() throws Exception {
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ }) {
+      JoinPredicate pred = new JoinPredicate(0, op, 0);
+      int rows = op == Predicate.Op.EQUALS ? 500 : 20;
+      List<String> expected = expected(pred, scan(rows, 350), innerScan());
+      assertFalse(expected.isEmpty());
+      for (int batch : new int[] { 1, 7, IndexNestedLoopJoin.DEFAULT_BATCH_TUPLES }) {
+        IndexNestedLoopJoin join = new IndexNestedLoopJoin(pred, scan(rows, 350), innerScan(), batch);
+        join.open();
+        assertEquals(expected, rows(join));
+        join.rewind();
+        assertEquals(expected, rows(join));
+        join.close();
+      }
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** Filters on the inner scan are applied to the tuples found. */
+  @Test public void innerFilter() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Predicate p = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(150));
+    List<String> expected = expected(pred, scan(500, 350, 7), new Filter(p, innerScan()));
+    IndexNestedLoopJoin join = new IndexNestedLoopJoin(pred, scan(500, 350, 7), new Filter(p, innerScan()));
+    join.open();
+    assertEquals(expected, rows(join));
+    join.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** Only scans of a B+ tree on the join field can be probed. */
+  @Test public void canProbe() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    assertTrue(IndexNestedLoopJoin.canProbe(innerScan(), pred));
+    assertTrue(IndexNestedLoopJoin.canProbe(
+        new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(3)), innerScan()), pred));
+    assertFalse(IndexNestedLoopJoin.canProbe(innerScan(), new JoinPredicate(0, Predicate.Op.EQUALS, 1)));
+    assertFalse(IndexNestedLoopJoin.canProbe(innerScan(), new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0)));
+    assertFalse(IndexNestedLoopJoin.canProbe(scan(1, 1), pred));
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void notIndexed() {
+    new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan(1, 1), scan(1, 1));
+  }
+
+  /** The optimizer probes the index of the inner table for a filtered outer. */
+  @Test public void optimizerPicksIndex() throws Exception {
+    OpIterator outer = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(10)), scan(100, 350, 7));
+    OpIterator join = JoinOptimizer.instantiateJoin(
+        new LogicalJoinNode("a", "b", "a.c0", "b.c0", Predicate.Op.EQUALS), outer, innerScan());
+    assertTrue(join instanceof IndexNestedLoopJoin);
+    assertTrue(JoinOptimizer.instantiateJoin(
+        new LogicalJoinNode("a", "b", "a.c0", "b.c0", Predicate.Op.EQUALS), scan(100, 350, 7), innerScan())
+        instanceof HashEquiJoin);
+  }
+
+  /** @return a plan scanning the heap file as a and the B+ tree as b, with a filter on a if filtered */
+  private LogicalPlan plan(boolean filtered) throws Exception {
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(outer.getId(), "a");
+    lp.addScan(inner.getId(), "b");
+    if (filtered) {
+      lp.addFilter("a.c1", Predicate.Op.LESS_THAN, "10");
+    }
+    return lp;
+  }
+
+  /**
+   * The optimizer prices the index join exactly when it would build one: for
+   * a filtered base table outer side, with range probes reading part of the
+   * inner table.
+   */
+  @Test public void costFollowsChoice() throws Exception {
+    LogicalJoinNode eq = new LogicalJoinNode("a", "b", "c0", "c0", Predicate.Op.EQUALS);
+    LogicalJoinNode lt = new LogicalJoinNode("a", "b", "c0", "c0", Predicate.Op.LESS_THAN);
+    JoinOptimizer filtered = new JoinOptimizer(plan(true), new Vector<LogicalJoinNode>());
+    JoinOptimizer unfiltered = new JoinOptimizer(plan(false), new Vector<LogicalJoinNode>());
+    int card1 = 10, card2 = 2000;
+    double cost1 = 100, cost2 = 1000;
+
+    // 没有筛选时是哈希连接，两边各读一遍
+    double hash = cost1 + cost2 + card1 + card2;
+    assertEquals(hash, unfiltered.estimateJoinCost(eq, card1, card2, cost1, cost2), 0.001);
+    // 外表是前面连接的结果时也不会走索引
+    assertEquals(hash, filtered.estimateJoinCost(eq, card1, card2, cost1, cost2, false), 0.001);
+
+    double probes = filtered.estimateJoinCost(eq, card1, card2, cost1, cost2);
+    assertTrue(probes != hash);
+    double pageCost = cost2 / inner.numPages();
+    assertEquals(cost1 + card1 * (IndexNestedLoopJoin.pagesPerProbe(inner) * pageCost + 1), probes, 0.001);
+    assertEquals(probes + card1 * JoinOptimizer.RANGE_PROBE_FRACTION * (cost2 + card2),
+        filtered.estimateJoinCost(lt, card1, card2, cost1, cost2), 0.001);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+  }
+}
@@ -0,0 +1,68 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fixtures shared by the tests of the join operators: generated children
+ * and the rows a join should produce.
+ */
+public class JoinTestUtil {
+
+    /** A TupleIterator that counts its rewinds. */
+    public static class CountingScan extends TupleIterator {
+        private static final long serialVersionUID = 1L;
+        int rewinds;
+
+        CountingScan(TupleDesc td, Iterable<Tuple> tuples) {
+            super(td, tuples);
+        }
+
+        public void rewind() {
+            rewinds++;
+            super.rewind();
+        }
+    }
+
+    /**
+     * @return a scan of rows a.c0 = (i * step) % mod, a.c1 = i for i in
+     *         0..rows-1; a step prime to mod gives the keys out of order
+     */
+    public static CountingScan scan(int rows, int mod, int step) {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < rows; i++) {
+            tuples.add(Utility.getHeapTuple(new int[] { (i * step) % mod, i }));
+        }
+        return new CountingScan(Utility.getTupleDesc(2, "a.c"), tuples);
+    }
+
+    /** @return a scan of rows a.c0 = i % mod, a.c1 = i for i in 0..rows-1 */
+    public static CountingScan scan(int rows, int mod) {
+        return scan(rows, mod, 1);
+    }
+
+    /** @return the rows of it as strings, sorted */
+    public static List<String> rows(OpIterator it) throws Exception {
+        List<String> rows = new ArrayList<String>();
+        while (it.hasNext()) {
+            rows.add(it.next().toString());
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * @return the rows of the join of left and right on pred, sorted; the
+     *         block nested loops join is checked against Join by its own test
+     *         and reads the right side once per block instead of once per tuple
+     */
+    public static List<String> expected(JoinPredicate pred, OpIterator left, OpIterator right)
+            throws Exception {
+        OpIterator join = new BlockNestedLoopJoin(pred, left, right);
+        join.open();
+        List<String> rows = rows(join);
+        join.close();
+        return rows;
+    }
+}
@@ -0,0 +1,162 @@
+package simpledb;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private static final long TIMEOUT = 10000;
+
+    private PageId p0, p1, p2;
+    private TransactionId t1, t2, t3;
+
+    /** A thread that asks the lock manager for one lock. */
+    private static class Grabber extends Thread {
+        final LockManager lm;
+        final TransactionId tid;
+        final PageId pid;
+        volatile boolean acquired;
+        volatile TransactionAbortedException aborted;
+
+        Grabber(LockManager lm, TransactionId tid, PageId pid) {
+            this.lm = lm;
+            this.tid = tid;
+            this.pid = pid;
+        }
+
+        public void run() {
+            try {
+                lm.acquire(tid, pid, Permissions.READ_WRITE);
+                acquired = true;
+            } catch (TransactionAbortedException e) {
+                aborted = e;
+            }
+        }
+    }
+
+    @Before public void setUp() {
+        // 锁表只看页号，不需要真的表
+        p0 = new HeapPageId(0, 0);
+        p1 = new HeapPageId(0, 1);
+        p2 = new HeapPageId(0, 2);
+        // 依次创建，t3最年轻
+        t1 = new TransactionId();
+        t2 = new TransactionId();
+        t3 = new TransactionId();
+    }
+
+    /** Start a grabber and wait until it blocks on its lock. */
+    private static Grabber block(LockManager lm, TransactionId tid, PageId pid) throws Exception {
+        Grabber g = new Grabber(lm, tid, pid);
+        g.start();
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (g.getState() != Thread.State.WAITING && g.isAlive()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(g.getState() == Thread.State.WAITING);
+        return g;
+    }
+
+    /**
+     * Lock p0, p1 and p2 for t1, t2 and t3, then let t2 wait for t3 and t3
+     * for t1.
+     */
+    private Grabber[] chain(LockManager lm) throws Exception {
+        lm.acquire(t1, p0, Permissions.READ_WRITE);
+        lm.acquire(t2, p1, Permissions.READ_WRITE);
+        lm.acquire(t3, p2, Permissions.READ_WRITE);
+        return new Grabber[] { block(lm, t2, p2), block(lm, t3, p0) };
+    }
+
+    /**
+     * A cycle through three transactions is found when t1 closes it, and
+     * the youngest transaction, not the requester, is aborted.
+     */
+    @Test public void threeWayCycleAbortsYoungest() throws Exception {
+        LockManager lm = new LockManager(0, false, false);
+        Grabber[] waiting = chain(lm);
+        Grabber closing = block(lm, t1, p1);
+
+        waiting[1].join(TIMEOUT);
+        assertTrue(waiting[1].aborted != null);
+        assertFalse(waiting[1].acquired);
+        assertTrue(closing.isAlive());
+        assertTrue(waiting[0].isAlive());
+
+        // t3回滚后其余两个依次拿到锁
+        lm.releaseAll(t3);
+        waiting[0].join(TIMEOUT);
+        assertTrue(waiting[0].acquired);
+        lm.releaseAll(t2);
+        closing.join(TIMEOUT);
+        assertTrue(closing.acquired);
+        assertNull(closing.aborted);
+    }
+
+    /** With abortSelf the request that closes the cycle is aborted. */
+    @Test public void abortSelf() throws Exception {
+        LockManager lm = new LockManager(0, false, true);
+        Grabber[] waiting = chain(lm);
+        Grabber closing = new Grabber(lm, t1, p1);
+        closing.start();
+        closing.join(TIMEOUT);
+        assertTrue(closing.aborted != null);
+        assertTrue(waiting[0].isAlive());
+        assertTrue(waiting[1].isAlive());
+
+        lm.releaseAll(t1);
+        waiting[1].join(TIMEOUT);
+        assertTrue(waiting[1].acquired);
+        lm.releaseAll(t3);
+        waiting[0].join(TIMEOUT);
+        assertTrue(waiting[0].acquired);
+    }
+
+    /**
+     * A victim whose lock is free by the time it wakes up still aborts and
+     * does not keep the lock.
+     */
+    @Test public void grantedVictimAborts() throws Exception {
+        LockManager lm = new LockManager(0, false, false);
+        lm.acquire(t1, p0, Permissions.READ_WRITE);
+        lm.acquire(t3, p1, Permissions.READ_WRITE);
+        Grabber victim = block(lm, t3, p0);
+
+        Field f = LockManager.class.getDeclaredField("lockTable");
+        f.setAccessible(true);
+        Object entry = ((Map<?, ?>) f.get(lm)).get(p0);
+        Grabber closing;
+        // 拿着p0的监视器，t3醒来前p0已经可以授予，同时t3被选为牺牲者
+        synchronized (entry) {
+            lm.release(t1, p0);
+            closing = block(lm, t1, p1);
+        }
+        victim.join(TIMEOUT);
+        assertTrue(victim.aborted != null);
+        assertFalse(victim.acquired);
+        assertFalse(lm.holdsLock(t3, p0));
+
+        lm.releaseAll(t3);
+        closing.join(TIMEOUT);
+        assertTrue(closing.acquired);
+        lm.acquire(t1, p0, Permissions.READ_WRITE);
+        assertTrue(lm.holdsLock(t1, p0));
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
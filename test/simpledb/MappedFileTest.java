@@ -0,0 +1,107 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MappedFileTest extends SimpleDbTestBase {
+
+    /**
+     * Reads that go past the end of the mapping pick up data appended to
+     * the file after it was first mapped.
+     */
+    @Test public void remapOnGrowth() throws Exception {
+        File f = File.createTempFile("mapped", ".dat");
+        f.deleteOnExit();
+        byte[] first = new byte[100];
+        byte[] second = new byte[100];
+        for (int i = 0; i < 100; i++) {
+            first[i] = (byte) i;
+            second[i] = (byte) (100 - i);
+        }
+        try (FileOutputStream out = new FileOutputStream(f)) {
+            out.write(first);
+        }
+
+        MappedFile m = new MappedFile(f);
+        byte[] buf = new byte[100];
+        assertTrue(m.read(0, buf));
+        assertArrayEquals(first, buf);
+        assertFalse(m.read(100, buf));
+
+        try (FileOutputStream out = new FileOutputStream(f, true)) {
+            out.write(second);
+        }
+        assertTrue(m.read(100, buf));
+        assertArrayEquals(second, buf);
+        m.close();
+    }
+
+    /**
+     * A read that runs past the end of the file gets the bytes that are
+     * there and zeros after them, and a closed file maps itself again.
+     */
+    @Test public void partialTail() throws Exception {
+        File f = File.createTempFile("mapped", ".dat");
+        f.deleteOnExit();
+        byte[] data = new byte[150];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i + 1);
+        }
+        try (FileOutputStream out = new FileOutputStream(f)) {
+            out.write(data);
+        }
+
+        MappedFile m = new MappedFile(f);
+        byte[] buf = new byte[100];
+        Arrays.fill(buf, (byte) -1);
+        assertFalse(m.read(100, buf));
+        byte[] expected = new byte[100];
+        System.arraycopy(data, 100, expected, 0, 50);
+        assertArrayEquals(expected, buf);
+
+        m.close();
+        assertTrue(m.read(0, buf));
+        assertArrayEquals(Arrays.copyOf(data, 100), buf);
+        m.close();
+    }
+
+    /** A memory-mapped heap file returns the same tuples as a normal one. */
+    @Test public void heapScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, null, tuples);
+        Database.getCatalog().setMemoryMapped(f.getId(), true);
+        assertTrue(Database.getCatalog().isMemoryMapped(f.getId()));
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /** A memory-mapped B+ tree file returns the same tuples as a normal one. */
+    @Test public void btreeScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 10000, null, tuples, 0);
+        Database.getCatalog().setMemoryMapped(f.getId(), true);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        TransactionId tid = new TransactionId();
+        BTreeScan scan = new BTreeScan(tid, f.getId(), "table", null);
+        SystemTestUtil.matchTuples(scan, tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedFileTest.class);
+    }
+}
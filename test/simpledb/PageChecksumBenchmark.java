@@ -0,0 +1,61 @@
+package simpledb;
+
+import java.util.Random;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures what page checksums cost on the read path: the checksum of one
+ * page on its own, and HeapFile.readPage() on a file whose pages have no
+ * recorded checksum against the same file once every page has one.  Pages
+ * are read directly, bypassing the BufferPool.
+ * <p>
+ * Not a unit test; run it with
+ * <pre>java -cp bin/src:bin/test:lib/* simpledb.PageChecksumBenchmark [pages] [millis]</pre>
+ */
+public class PageChecksumBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+
+        byte[] page = new byte[BufferPool.getPageSize()];
+        new Random(0).nextBytes(page);
+        long n = 0;
+        int sink = 0;
+        long start = System.nanoTime();
+        long end = start + millis * 1000000;
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < 1000; i++) {
+                sink += PageChecksums.checksum(page);
+            }
+            n += 1000;
+        }
+        double ns = (double) (System.nanoTime() - start) / n;
+        System.out.printf("checksum:             %8.1f ns/page, %6.2f GB/s (%d)%n",
+                ns, page.length / ns, sink & 1);
+
+        // 504 two-int tuples fit on a page
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * pages, null, null);
+        PageChecksums.sideFile(f.getFile()).deleteOnExit();
+        // warm up the file cache and the JIT before the first measurement
+        read(f, pages, millis);
+        System.out.printf("readPage, unchecked:  %8.1f ns/page%n", read(f, pages, millis));
+        for (int i = 0; i < pages; i++) {
+            f.writePage(f.readPage(new HeapPageId(f.getId(), i)));
+        }
+        System.out.printf("readPage, checked:    %8.1f ns/page%n", read(f, pages, millis));
+    }
+
+    private static double read(HeapFile f, int pages, long millis) {
+        Random r = new Random(1);
+        long n = 0;
+        long start = System.nanoTime();
+        long end = start + millis * 1000000;
+        while (System.nanoTime() < end) {
+            f.readPage(new HeapPageId(f.getId(), r.nextInt(pages)));
+            n++;
+        }
+        return (double) (System.nanoTime() - start) / n;
+    }
+}
@@ -0,0 +1,131 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageChecksumsTest extends SimpleDbTestBase {
+
+    /** Flip the bits of one byte of a file, as a torn write would. */
+    private static void corrupt(File f, long offset) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.seek(offset);
+            int b = raf.read();
+            raf.seek(offset);
+            raf.write(~b);
+        }
+    }
+
+    /** A heap file whose pages have all been written once through writePage. */
+    private HeapFile createHeapFile(ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, tuples);
+        PageChecksums.sideFile(hf.getFile()).deleteOnExit();
+        for (int i = 0; i < hf.numPages(); i++) {
+            hf.writePage(hf.readPage(new HeapPageId(hf.getId(), i)));
+        }
+        return hf;
+    }
+
+    /**
+     * Pages without a recorded checksum are not checked; recorded ones
+     * detect a flipped byte on read, also through a new file object.
+     */
+    @Test public void heapFile() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 1000, 100, null, null);
+        assertFalse(PageChecksums.sideFile(f).exists());
+        HeapFile plain = Utility.openHeapFile(2, f);
+        assertTrue(plain.verifyPage(0));
+        assertFalse(plain.verifyPage(plain.numPages()));
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = createHeapFile(tuples);
+        SystemTestUtil.matchTuples(hf, tuples);
+        corrupt(hf.getFile(), BufferPool.getPageSize() + 100);
+
+        assertTrue(hf.verifyPage(0));
+        try {
+            hf.verifyPage(1);
+            fail("corrupt page not detected");
+        } catch (ChecksumException e) {
+            assertEquals(1, e.getPageNumber());
+        }
+        try {
+            new HeapFile(hf.getFile(), hf.getTupleDesc()).readPage(new HeapPageId(hf.getId(), 1));
+            fail("corrupt page not detected");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof ChecksumException);
+        }
+
+        // writing the page again records its new checksum
+        hf.writePage(new HeapPage(new HeapPageId(hf.getId(), 1), HeapPage.createEmptyPageData()));
+        assertTrue(hf.verifyPage(1));
+    }
+
+    /** B+ tree pages, including the root pointer page, are checked too. */
+    @Test public void bTreeFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 3000, null, tuples, 0);
+        PageChecksums.sideFile(bf.getFile()).deleteOnExit();
+        SystemTestUtil.matchTuples(bf, tuples);
+        for (int i = 0; i <= bf.numPages(); i++) {
+            assertTrue(bf.verifyPage(i));
+        }
+        assertFalse(bf.verifyPage(bf.numPages() + 1));
+
+        corrupt(bf.getFile(), 0);
+        corrupt(bf.getFile(), BTreeRootPtrPage.getPageSize() + BufferPool.getPageSize() + 10);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        try {
+            bf.readPage(BTreeRootPtrPage.getId(bf.getId()));
+            fail("corrupt root pointer page not detected");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof ChecksumException);
+        }
+        try {
+            bf.verifyPage(2);
+            fail("corrupt page not detected");
+        } catch (ChecksumException e) {
+            assertEquals(2, e.getPageNumber());
+        }
+        assertTrue(bf.verifyPage(1));
+    }
+
+    /** The scrubber finds a corrupt page of a table nobody reads. */
+    @Test public void scrubber() throws Exception {
+        HeapFile hf = createHeapFile(null);
+        corrupt(hf.getFile(), 3L * BufferPool.getPageSize() + 7);
+
+        PageScrubber scrubber = new PageScrubber(100000);
+        scrubber.start();
+        long end = System.currentTimeMillis() + 10000;
+        while (scrubber.getPasses() < 2 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        scrubber.shutdown();
+        assertTrue(scrubber.getPasses() >= 2);
+        assertTrue(scrubber.getPagesChecked() >= 2 * hf.numPages());
+        List<ChecksumException> corrupt = scrubber.getCorruptPages();
+        assertEquals(1, corrupt.size());
+        assertEquals(3, corrupt.get(0).getPageNumber());
+        assertEquals(hf.getFile(), corrupt.get(0).getFile());
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageChecksumsTest.class);
+    }
+}
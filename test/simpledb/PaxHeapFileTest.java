@@ -0,0 +1,139 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxHeapFileTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE }, new String[] { "a", "s", "b" });
+
+    private static Tuple tuple(int a, String s, int b) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(a));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        t.setField(2, new IntField(b));
+        return t;
+    }
+
+    /** Rows of 0..rows-1 with b = 2 * a. */
+    private PaxHeapFile createTable(int rows) throws Exception {
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        PaxHeapFile hf = new PaxHeapFile(f, TD);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < rows; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i, "s" + i, 2 * i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return hf;
+    }
+
+    /**
+     * Values are stored by column, and a page survives a round trip through
+     * its bytes.
+     */
+    @Test public void pageLayout() throws Exception {
+        HeapPageId pid = new HeapPageId(-1, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+        PaxHeapPage page = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        int slots = page.getNumSlots();
+        assertEquals(slots, page.getFreeSpace());
+        Tuple[] ts = new Tuple[3];
+        for (int i = 0; i < ts.length; i++) {
+            ts[i] = tuple(i, "x" + i, 10 * i);
+            page.insertTuple(ts[i]);
+        }
+        page.deleteTuple(ts[1]);
+
+        PaxHeapPage copy = new PaxHeapPage(pid, page.getPageData());
+        assertEquals(slots - 2, copy.getFreeSpace());
+        int[] col = new int[slots];
+        assertEquals(2, copy.getIntColumn(2, col));
+        assertEquals(0, col[0]);
+        assertEquals(20, col[1]);
+        // the first int column's mini-page is followed by the string column's
+        byte[] data = copy.getPageData();
+        int header = (slots + 7) / 8;
+        assertEquals(2, Type.readInt(data, header + 2 * 4));
+
+        Iterator<Tuple> it = copy.iterator();
+        Tuple t = it.next();
+        assertEquals(new RecordId(pid, 0), t.getRecordId());
+        t = it.next();
+        assertEquals(new RecordId(pid, 2), t.getRecordId());
+        assertEquals("x2", ((StringField) t.getField(1)).getValue());
+        assertEquals(20, ((IntField) t.getField(2)).getValue());
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * A column scan returns the requested columns, with the predicate applied.
+     */
+    @Test public void columnScanFilters() throws Exception {
+        PaxHeapFile hf = createTable(1000);
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(100));
+        ColumnScan scan = new ColumnScan(tid, hf.getId(), "t", new int[] { 2, 0 }, p);
+        assertEquals("t.b", scan.getTupleDesc().getFieldName(0));
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(2 * ((IntField) t.getField(1)).getValue(), ((IntField) t.getField(0)).getValue());
+            count++;
+        }
+        assertEquals(100, count);
+        scan.rewind();
+        int blocks = 0;
+        for (int n = scan.nextBlock(); n > 0; n = scan.nextBlock()) {
+            blocks++;
+            for (int i = 0; i < n; i++) {
+                assertEquals(2 * scan.getColumn(1)[i], scan.getColumn(0)[i]);
+            }
+        }
+        // 140 byte tuples: 29 per page, so the first 100 rows span 4 pages
+        assertEquals(4, blocks);
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Aggregates over a column scan take whole blocks and agree with an
+     * aggregate over a sequential scan.
+     */
+    @Test public void aggregateOverColumns() throws Exception {
+        PaxHeapFile hf = createTable(1000);
+        TransactionId tid = new TransactionId();
+        Aggregator.Op[] ops = { Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.COUNT, Aggregator.Op.AVG };
+        for (Aggregator.Op op : ops) {
+            Aggregate columns = new Aggregate(new ColumnScan(tid, hf.getId(), new int[] { 2 }, null), 0, -1, op);
+            Aggregate rows = new Aggregate(new SeqScan(tid, hf.getId(), "t"), 2, -1, op);
+            columns.open();
+            rows.open();
+            assertEquals(rows.next().getField(0), columns.next().getField(0));
+            columns.close();
+            rows.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxHeapFileTest.class);
+    }
+}
@@ -0,0 +1,74 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    /** Counts the number of readPage operations, from any thread. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        final AtomicInteger readCount = new AtomicInteger();
+
+        InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount.incrementAndGet();
+            return super.readPage(pid);
+        }
+    }
+
+    /**
+     * A cold scan with read-ahead returns every tuple and reads every page
+     * exactly once, whether the scan or the I/O thread got to it first.
+     */
+    @Test public void heapScan() throws Exception {
+        final int PAGES = 40;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * PAGES, 1000, null, tuples);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        BufferPool bp = Database.resetBufferPool(100);
+        bp.setReadAhead(8);
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(PAGES, table.readCount.get());
+        for (int i = 0; i < PAGES; i++) {
+            assertNotNull(bp.getCachedPage(new HeapPageId(table.getId(), i)));
+        }
+    }
+
+    /**
+     * A B+ tree scan that reads ahead along the right sibling pointers
+     * returns every tuple in order.
+     */
+    @Test public void btreeScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 20000, null, tuples, 0);
+        Database.resetBufferPool(500).setReadAhead(8);
+
+        TransactionId tid = new TransactionId();
+        BTreeScan scan = new BTreeScan(tid, f.getId(), "table", null);
+        SystemTestUtil.matchTuples(scan, tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,76 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private final PageId p0 = new HeapPageId(1, 0);
+    private final PageId p1 = new HeapPageId(1, 1);
+    private final PageId p2 = new HeapPageId(1, 2);
+
+    /**
+     * Unit test for ClockReplacer: a referenced page gets a second chance.
+     */
+    @Test public void clockSecondChance() {
+        ClockReplacer clock = new ClockReplacer(3);
+        clock.recordAccess(p0);
+        clock.recordAccess(p1);
+        clock.recordAccess(p2);
+
+        // first sweep clears every reference bit, then the hand stops at
+        // the first frame
+        assertEquals(p0, clock.pickVictim(pid -> true));
+        clock.remove(p0);
+
+        // p1 is touched again, so the hand skips it once and takes p2
+        clock.recordAccess(p1);
+        assertEquals(p2, clock.pickVictim(pid -> true));
+    }
+
+    /**
+     * Unit test for ClockReplacer: pages rejected by the predicate are never
+     * chosen.
+     */
+    @Test public void clockSkipsPinned() {
+        ClockReplacer clock = new ClockReplacer(2);
+        clock.recordAccess(p0);
+        clock.recordAccess(p1);
+        assertEquals(p1, clock.pickVictim(pid -> pid.equals(p1)));
+        assertNull(clock.pickVictim(pid -> false));
+    }
+
+    /**
+     * Unit test for LRUKReplacer: a page seen once goes before pages seen
+     * K times, no matter how recent.
+     */
+    @Test public void lrukPrefersCorrelatedPages() {
+        LRUKReplacer lruk = new LRUKReplacer(2);
+        lruk.recordAccess(p0);
+        lruk.recordAccess(p0);
+        lruk.recordAccess(p1);
+        lruk.recordAccess(p1);
+        lruk.recordAccess(p2);
+        assertEquals(p2, lruk.pickVictim(pid -> true));
+
+        // among pages with K accesses, the oldest K-th access loses
+        lruk.remove(p2);
+        assertEquals(p0, lruk.pickVictim(pid -> true));
+        lruk.recordAccess(p0);
+        lruk.recordAccess(p0);
+        assertEquals(p1, lruk.pickVictim(pid -> true));
+        assertNull(lruk.pickVictim(pid -> false));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
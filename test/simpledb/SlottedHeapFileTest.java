@@ -0,0 +1,138 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, new String[] { "id", "name" });
+
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        pid = new HeapPageId(-1, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Records take their actual length, and a page survives a round trip
+     * through its bytes.
+     */
+    @Test public void insertAndRead() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        int free = page.getFreeSpace();
+        page.insertTuple(tuple(1, "abc"));
+        // 4 byte int, 2 byte length, 3 characters and a slot entry
+        assertEquals(free - 9 - SlottedHeapPage.SLOT_SIZE, page.getFreeSpace());
+        page.insertTuple(tuple(2, ""));
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        Tuple t = it.next();
+        assertEquals(new RecordId(pid, 0), t.getRecordId());
+        assertEquals("abc", ((StringField) t.getField(1)).getValue());
+        assertEquals(2, ((IntField) it.next().getField(0)).getValue());
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Deleting frees the slot for reuse and inserting compacts the page
+     * when its free space is fragmented, without moving slot numbers.
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        String name = "0123456789012345678901234567890123456789";
+        int n = 0;
+        Tuple[] inserted = new Tuple[200];
+        while (page.getFreeSpace() >= SlottedHeapPage.recordSize(tuple(0, name)) + SlottedHeapPage.SLOT_SIZE) {
+            inserted[n] = tuple(n, name);
+            page.insertTuple(inserted[n]);
+            n++;
+        }
+        // every other record goes, leaving holes no bigger than one record
+        for (int i = 0; i < n; i += 2) {
+            page.deleteTuple(inserted[i]);
+        }
+        assertEquals(n / 2, page.getNumTuples());
+
+        // a longer record only fits after compaction; it reuses slot 0
+        Tuple longer = tuple(-1, name + name);
+        page.insertTuple(longer);
+        assertEquals(new RecordId(pid, 0), longer.getRecordId());
+
+        Set<Integer> ids = new HashSet<Integer>();
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            ids.add(id);
+            if (id >= 0) {
+                assertEquals(new RecordId(pid, id), t.getRecordId());
+                assertEquals(name, ((StringField) t.getField(1)).getValue());
+            }
+        }
+        assertTrue(ids.contains(-1));
+        assertEquals(n / 2 + 1, ids.size());
+    }
+
+    /**
+     * A table of short strings takes far fewer slotted pages than heap pages.
+     */
+    @Test public void fewerPages() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        SlottedHeapFile hf = new SlottedHeapFile(f, TD);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        int rows = 2000;
+        for (int i = 0; i < rows; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i, "name" + i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        // 136 byte heap tuples: 30 per page, so 67 heap pages
+        assertTrue(hf.numPages() <= 10);
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals("name" + ((IntField) t.getField(0)).getValue(),
+                    ((StringField) t.getField(1)).getValue());
+            count++;
+        }
+        it.close();
+        assertEquals(rows, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,139 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static simpledb.JoinTestUtil.scan;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Vector;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  /** @return the rows of it, which must be in order of field, as strings, sorted */
+  private static List<String> rows(OpIterator it, int field) throws Exception {
+    List<String> rows = new ArrayList<String>();
+    Field last = null;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      if (last != null) {
+        assertFalse(t.getField(field).compare(Predicate.Op.LESS_THAN, last));
+      }
+      last = t.getField(field);
+      rows.add(t.toString());
+    }
+    Collections.sort(rows);
+    return rows;
+  }
+
+  private static List<String> expected(OpIterator left, OpIterator right) throws Exception {
+    return JoinTestUtil.expected(new JoinPredicate(0, Predicate.Op.EQUALS, 0), left, right);
+  }
+
+  /**
+   * Unsorted children with duplicate keys on both sides, sorted in memory
+   * or externally, and with groups of duplicates larger than the budget.
+   */
+  @Test public void duplicates() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    List<String> expected = expected(scan(2000, 40, 7), scan(300, 60, 7));
+    assertEquals(2000 / 40 * 300 * 40 / 60, expected.size());
+    for (int budget : new int[] { 7, 64, 100000 }) {
+      SortMergeJoin join = new SortMergeJoin(pred, scan(2000, 40, 7), scan(300, 60, 7), budget);
+      join.open();
+      assertEquals(expected, rows(join, 0));
+      join.rewind();
+      assertEquals(expected, rows(join, 0));
+      join.close();
+    }
+    SortMergeJoin join = new SortMergeJoin(pred, scan(100, 10), scan(0, 1), 5);
+    join.open();
+    assertEquals(0, rows(join, 0).size());
+    join.close();
+  }
+
+  /** Only equalities can be merged. */
+  @Test(expected = IllegalArgumentException.class) public void notEquality() {
+    new SortMergeJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0), scan(1, 1), scan(1, 1));
+  }
+
+  private static BTreeFile btree(String name, int rows, int maxValue) throws Exception {
+    File heap = SystemTestUtil.createRandomHeapFileUnopened(2, rows, maxValue, null, null);
+    heap.deleteOnExit();
+    HeapFile hf = Utility.openHeapFile(2, "c", heap);
+    File f = File.createTempFile("merge", ".dat");
+    f.deleteOnExit();
+    PageChecksums.sideFile(f).deleteOnExit();
+    return new BTreeBulkLoader(hf.getTupleDesc(), 0).load(hf, f, name + SystemTestUtil.getUUID());
+  }
+
+  /**
+   * Scans of B+ trees on their keys are merged without sorting, and the
+   * optimizer picks a merge join for them.
+   */
+  @Test public void btreeInputs() throws Exception {
+    BTreeFile a = btree("a", 3000, 500);
+    BTreeFile b = btree("b", 2000, 500);
+    TransactionId tid = new TransactionId();
+    SeqScan scanA = new SeqScan(tid, a.getId(), "a");
+    SeqScan scanB = new SeqScan(tid, b.getId(), "b");
+    assertTrue(SortMergeJoin.isSortedOn(scanA, 0));
+    assertFalse(SortMergeJoin.isSortedOn(scanA, 1));
+    assertTrue(SortMergeJoin.isSortedOn(new BTreeScan(tid, b.getId(), "b", null), 0));
+    assertTrue(SortMergeJoin.isSortedOn(
+        new Filter(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(3)), scanB), 0));
+    assertFalse(SortMergeJoin.isSortedOn(scan(1, 1), 0));
+
+    OpIterator join = JoinOptimizer.instantiateJoin(
+        new LogicalJoinNode("a", "b", "a.c0", "b.c0", Predicate.Op.EQUALS), scanA, scanB);
+    assertTrue(join instanceof SortMergeJoin);
+    assertTrue(SortMergeJoin.isSortedOn(join, 0));
+    assertTrue(SortMergeJoin.isSortedOn(join, 2));
+    List<String> expected = expected(new SeqScan(tid, a.getId(), "a"), new SeqScan(tid, b.getId(), "b"));
+    join.open();
+    assertEquals(expected, rows(join, 0));
+    join.close();
+    Database.getBufferPool().transactionComplete(tid);
+
+    assertTrue(JoinOptimizer.instantiateJoin(
+        new LogicalJoinNode("a", "b", "a.c1", "b.c0", Predicate.Op.EQUALS), scanA, scanB)
+        instanceof HashEquiJoin);
+  }
+
+  /**
+   * The optimizer prices the merge join exactly when it would build one: for
+   * two B+ tree scans, but not when the outer side is an earlier join.
+   */
+  @Test public void costFollowsChoice() throws Exception {
+    BTreeFile a = btree("a", 100, 50);
+    BTreeFile b = btree("b", 100, 50);
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(a.getId(), "a");
+    lp.addScan(b.getId(), "b");
+    JoinOptimizer jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+    LogicalJoinNode eq = new LogicalJoinNode("a", "b", "c0", "c0", Predicate.Op.EQUALS);
+    // 外表超过哈希连接内存的一倍，哈希连接要多写读一半
+    int card1 = 2 * HashEquiJoin.MAP_SIZE, card2 = 1000;
+    double cost1 = 500, cost2 = 100;
+
+    double merge = cost1 + cost2 + card1 + card2;
+    assertEquals(merge, jo.estimateJoinCost(eq, card1, card2, cost1, cost2), 0.001);
+    assertEquals(merge + (cost1 + cost2), jo.estimateJoinCost(eq, card1, card2, cost1, cost2, false), 0.001);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
@@ -57,6 +57,20 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * A tuple read from serialized bytes keeps a copy of its own bytes, so
+     * later changes to the page array do not reach it.
+     */
+    @Test public void serializedCopy() {
+        byte[] data = new byte[16];
+        data[11] = 7;
+        data[15] = 9;
+        Tuple t = new Tuple(Utility.getTupleDesc(2), data, 8);
+        data[11] = 1;
+        assertEquals(new IntField(7), t.getField(0));
+        assertEquals(9, t.getInt(1));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,149 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE }, new String[] { "id", "s", "v" });
+
+    private static Tuple tuple(int id, int v) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField("", Type.STRING_LEN));
+        t.setField(2, new IntField(v));
+        return t;
+    }
+
+    /** Ids 0..rows-1 in insertion order, v the same for all rows. */
+    private HeapFile createTable(int rows) throws Exception {
+        File f = File.createTempFile("zonemap", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        new File(f.getPath() + ".zm").deleteOnExit();
+        HeapFile hf = new HeapFile(f, TD);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        // commit in batches: dirty pages cannot be evicted
+        for (int i = 0; i < rows; i += 500) {
+            TransactionId tid = new TransactionId();
+            for (int j = i; j < Math.min(rows, i + 500); j++) {
+                Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(j, 7));
+            }
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        return hf;
+    }
+
+    /**
+     * Ranges answer each operator, empty pages match nothing, unknown pages
+     * match everything, and the map survives a round trip through its file.
+     */
+    @Test public void ranges() throws Exception {
+        File f = File.createTempFile("zonemap", ".zm");
+        f.deleteOnExit();
+        ZoneMap zm = new ZoneMap(f, TD);
+        zm.update(0, Arrays.asList(tuple(10, 1), tuple(20, 2)).iterator());
+        zm.update(1, Arrays.<Tuple>asList().iterator());
+        zm.saveAll();
+
+        assertTrue(zm.mayMatch(0, 0, Predicate.Op.EQUALS, 15));
+        assertFalse(zm.mayMatch(0, 0, Predicate.Op.EQUALS, 21));
+        assertFalse(zm.mayMatch(0, 0, Predicate.Op.GREATER_THAN, 20));
+        assertTrue(zm.mayMatch(0, 0, Predicate.Op.GREATER_THAN_OR_EQ, 20));
+        assertFalse(zm.mayMatch(0, 0, Predicate.Op.LESS_THAN, 10));
+        assertTrue(zm.mayMatch(0, 2, Predicate.Op.LESS_THAN_OR_EQ, 1));
+        assertTrue(zm.mayMatch(0, 0, Predicate.Op.NOT_EQUALS, 10));
+        assertFalse(zm.mayMatch(1, 0, Predicate.Op.NOT_EQUALS, 10));
+        assertTrue(zm.mayMatch(2, 0, Predicate.Op.EQUALS, 10));
+
+        ZoneMap copy = new ZoneMap(f, TD);
+        assertTrue(copy.load(2, 0));
+        assertFalse(copy.mayMatch(0, 0, Predicate.Op.EQUALS, 21));
+        assertFalse(copy.mayMatch(1, 0, Predicate.Op.EQUALS, 15));
+        assertFalse(new ZoneMap(f, TD).load(3, 0));
+        zm.close();
+    }
+
+    /**
+     * A range scan on an append-ordered column only reads the pages that
+     * can hold matches, and returns the same tuples as a Filter.
+     */
+    @Test public void scanSkipsPages() throws Exception {
+        int rows = 3000;
+        HeapFile hf = createTable(rows);
+        int pages = hf.numPages();
+        assertTrue(pages > 10);
+
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(rows - 10));
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t", p);
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            assertTrue(((IntField) scan.next().getField(0)).getValue() >= rows - 10);
+            count++;
+        }
+        scan.close();
+        assertEquals(10, count);
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), 1)));
+        assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), pages - 1)));
+
+        // a predicate on a column the pages do not order still reads every page
+        Filter filter = new Filter(new Predicate(2, Predicate.Op.EQUALS, new IntField(7)),
+                new SeqScan(tid, hf.getId(), "t"));
+        SeqScan pushed = new SeqScan(tid, hf.getId(), "t", new Predicate(2, Predicate.Op.EQUALS, new IntField(7)));
+        filter.open();
+        pushed.open();
+        TestUtil.matchAllTuples(filter, pushed);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A transaction's own inserts widen the range of their page right away,
+     * and a flushed page's range shrinks to its values.
+     */
+    @Test public void insertsAndDeletes() throws Exception {
+        HeapFile hf = createTable(1000);
+        ZoneMap zm = hf.getZoneMap();
+
+        // free a slot on page 0 so the next insert goes there
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t", new Predicate(0, Predicate.Op.EQUALS, new IntField(0)));
+        scan.open();
+        Tuple first = scan.next();
+        scan.close();
+        Database.getBufferPool().deleteTuple(tid, first);
+        Database.getBufferPool().transactionComplete(tid);
+        assertFalse(zm.mayMatch(0, 0, Predicate.Op.EQUALS, 0));
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(1000000, 7));
+        scan = new SeqScan(tid, hf.getId(), "t", new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(999999)));
+        scan.open();
+        Tuple t = scan.next();
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+        assertFalse(scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        // the abort leaves the range too wide, which is safe
+        assertTrue(zm.mayMatch(0, 0, Predicate.Op.EQUALS, 1000000));
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}